@@ -0,0 +1,62 @@
+package com.tempestasludi.processing.nurbs;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures calculating the basis function values of a uniform knot vector, with a new array for every parameter value
+ * and with arrays that are reused.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BasisFunctionBenchmark {
+    private static final int POINT_COUNT = 64;
+    private static final int SAMPLE_COUNT = 1024;
+
+    @Param({"1", "2", "3", "4", "5", "6", "7"})
+    int degree;
+
+    float[] knotVector;
+    float[] parameters;
+    int[] spans;
+    float[] values;
+    float[] scratch;
+
+    @Setup
+    public void setup() {
+        knotVector = Nurbs.getKnots(POINT_COUNT, degree);
+        parameters = new float[SAMPLE_COUNT];
+        spans = new int[SAMPLE_COUNT];
+        Random random = new Random(1);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            parameters[i] = random.nextFloat() * knotVector[knotVector.length - 1];
+            spans[i] = Nurbs.findSpan(parameters[i], knotVector, -1);
+        }
+        values = new float[degree + 1];
+        scratch = new float[2 * (degree + 1)];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE_COUNT)
+    public void allocating(Blackhole blackhole) {
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            blackhole.consume(Nurbs.calcBasisFunctionValues(spans[i], parameters[i], degree, knotVector));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE_COUNT)
+    public void reused(Blackhole blackhole) {
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            Nurbs.calcBasisFunctionValues(spans[i], parameters[i], degree, knotVector, values, scratch);
+            blackhole.consume(values[0]);
+        }
+    }
+}
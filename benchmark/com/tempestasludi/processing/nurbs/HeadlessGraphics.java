@@ -0,0 +1,76 @@
+package com.tempestasludi.processing.nurbs;
+
+import processing.core.PGraphics;
+import processing.core.PShape;
+
+import java.util.Arrays;
+
+/**
+ * A graphics context that records the vertices and normals that are drawn to it into arrays that are reused between
+ * frames, so that drawing to it measures the library instead of a renderer.
+ */
+class HeadlessGraphics extends PGraphics {
+    float[] vertices = new float[3 * 1024];
+    float[] normals = new float[3 * 1024];
+    int vertexCount;
+    int shapeCount;
+
+    private final float[] normal = new float[3];
+
+    /**
+     * Forgets the vertices of the previous frame.
+     */
+    void reset() {
+        vertexCount = 0;
+        shapeCount = 0;
+    }
+
+    @Override
+    public void beginShape(int kind) {
+        shapeCount++;
+    }
+
+    @Override
+    public void normal(float nx, float ny, float nz) {
+        normal[0] = nx;
+        normal[1] = ny;
+        normal[2] = nz;
+    }
+
+    @Override
+    public void vertex(float x, float y) {
+        vertex(x, y, 0);
+    }
+
+    @Override
+    public void vertex(float[] v) {
+        vertex(v[0], v[1], v[2]);
+    }
+
+    @Override
+    public void vertex(float x, float y, float z) {
+        if (3 * vertexCount == vertices.length) {
+            vertices = Arrays.copyOf(vertices, 2 * vertices.length);
+            normals = Arrays.copyOf(normals, 2 * normals.length);
+        }
+        int index = 3 * vertexCount++;
+        vertices[index] = x;
+        vertices[index + 1] = y;
+        vertices[index + 2] = z;
+        System.arraycopy(normal, 0, normals, index, 3);
+    }
+
+    @Override
+    public void endShape(int mode) {
+    }
+
+    @Override
+    public PShape createShape() {
+        return new PShape(PShape.GEOMETRY);
+    }
+
+    @Override
+    public PShape createShape(int type) {
+        return new PShape(type);
+    }
+}
@@ -0,0 +1,92 @@
+package com.tempestasludi.processing.nurbs;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import processing.core.PVector;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures evaluating and drawing a curve. The evaluation benchmarks take {@code steps + 1} equally spaced samples, the
+ * same as drawing with {@code steps} steps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NurbsCurveBenchmark {
+    @Param({"8", "64", "512"})
+    int pointCount;
+
+    @Param({"2", "3", "5"})
+    int degree;
+
+    @Param({"64", "1024"})
+    int steps;
+
+    NurbsCurve curve;
+    float[] parameters;
+    int[] spans;
+    HeadlessGraphics graphics;
+    PVector moved;
+
+    @Setup
+    public void setup() {
+        PVector[] points = new PVector[pointCount];
+        float[] weights = new float[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            points[i] = new PVector(i, (float) Math.sin(i), i % 3);
+            weights[i] = 1 + i % 2;
+        }
+        curve = new NurbsCurve(points, weights, degree);
+
+        float[] knotVector = Nurbs.getKnots(pointCount, degree);
+        float end = knotVector[knotVector.length - 1];
+        parameters = new float[steps + 1];
+        spans = new int[steps + 1];
+        for (int i = 0; i <= steps; i++) {
+            parameters[i] = end * i / steps;
+            spans[i] = Nurbs.findSpan(parameters[i], knotVector, -1);
+        }
+        graphics = new HeadlessGraphics();
+        moved = new PVector(pointCount / 2f, 2, 0);
+    }
+
+    @Benchmark
+    public void evaluate(Blackhole blackhole) {
+        for (float t : parameters) {
+            blackhole.consume(curve.evaluate(t));
+        }
+    }
+
+    @Benchmark
+    public void evaluateWithSpan(Blackhole blackhole) {
+        for (int i = 0; i < parameters.length; i++) {
+            blackhole.consume(curve.evaluate(parameters[i], spans[i]));
+        }
+    }
+
+    /**
+     * Draws a curve that does not change, which reuses the vertices of the previous frame.
+     */
+    @Benchmark
+    public int draw() {
+        graphics.reset();
+        curve.draw(graphics, steps);
+        return graphics.vertexCount;
+    }
+
+    /**
+     * Moves one control point before drawing, so that the samples that it influences are evaluated again.
+     */
+    @Benchmark
+    public int drawModified() {
+        moved.y = -moved.y;
+        curve.setPoint(pointCount / 2, moved);
+        graphics.reset();
+        curve.draw(graphics, steps);
+        return graphics.vertexCount;
+    }
+}
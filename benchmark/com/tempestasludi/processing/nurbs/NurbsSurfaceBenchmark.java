@@ -0,0 +1,83 @@
+package com.tempestasludi.processing.nurbs;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import processing.core.PVector;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures evaluating and drawing a surface with a square control net. The evaluation benchmark takes the same
+ * {@code (steps + 1) * (steps + 1)} samples as drawing with {@code steps} steps for both parameters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NurbsSurfaceBenchmark {
+    @Param({"8", "32"})
+    int pointCount;
+
+    @Param({"2", "3"})
+    int degree;
+
+    @Param({"16", "64"})
+    int steps;
+
+    NurbsSurface surface;
+    float[] parameters;
+    HeadlessGraphics graphics;
+    PVector moved;
+
+    @Setup
+    public void setup() {
+        PVector[][] points = new PVector[pointCount][pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            for (int j = 0; j < pointCount; j++) {
+                points[i][j] = new PVector(i, j, (float) (Math.sin(i) * Math.cos(j)));
+            }
+        }
+        surface = new NurbsSurface(points, degree, degree);
+
+        float end = pointCount - degree;
+        parameters = new float[steps + 1];
+        for (int i = 0; i <= steps; i++) {
+            parameters[i] = end * i / steps;
+        }
+        graphics = new HeadlessGraphics();
+        moved = new PVector(pointCount / 2f, pointCount / 2f, 1);
+    }
+
+    @Benchmark
+    public void evaluate(Blackhole blackhole) {
+        for (float s : parameters) {
+            for (float t : parameters) {
+                blackhole.consume(surface.evaluate(s, t));
+            }
+        }
+    }
+
+    /**
+     * Draws a surface that does not change, which reuses the vertices of the previous frame.
+     */
+    @Benchmark
+    public int draw() {
+        graphics.reset();
+        surface.draw(graphics, steps);
+        return graphics.vertexCount;
+    }
+
+    /**
+     * Moves one control point before drawing, so that the samples that it influences are evaluated again.
+     */
+    @Benchmark
+    public int drawModified() {
+        moved.z = -moved.z;
+        surface.setPoint(pointCount / 2, pointCount / 2, moved);
+        graphics.reset();
+        surface.draw(graphics, steps);
+        return graphics.vertexCount;
+    }
+}
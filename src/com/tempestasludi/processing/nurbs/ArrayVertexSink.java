@@ -0,0 +1,146 @@
+package com.tempestasludi.processing.nurbs;
+
+import processing.core.PConstants;
+import processing.data.IntList;
+
+import java.util.Arrays;
+
+/**
+ * A {@link VertexSink} that collects the vertices in arrays that grow as needed, so that it can be reused for every
+ * frame without allocating once it is large enough. Vertex {@code i} has its position at index {@code 3 * i} of
+ * {@link #getPositions()}, its normal at index {@code 3 * i} of {@link #getNormals()} and its texture coordinates at
+ * index {@code 2 * i} of {@link #getTextureCoordinates()}. Vertices without a normal or texture coordinates have zeros
+ * there.
+ */
+public class ArrayVertexSink implements VertexSink {
+    private float[] positions;
+    private float[] normals;
+    private float[] textureCoordinates;
+    private int vertexCount;
+
+    private final IntList primitiveStarts = new IntList();
+    private final IntList primitiveKinds = new IntList();
+
+    /**
+     * Creates an empty sink.
+     */
+    public ArrayVertexSink() {
+        this(256);
+    }
+
+    /**
+     * Creates an empty sink with room for {@code capacity} vertices before its arrays grow.
+     *
+     * @param capacity The initial number of vertices that fit in the arrays
+     */
+    public ArrayVertexSink(int capacity) {
+        capacity = Math.max(capacity, 1);
+        positions = new float[3 * capacity];
+        normals = new float[3 * capacity];
+        textureCoordinates = new float[2 * capacity];
+    }
+
+    /**
+     * Removes all vertices and primitives, keeping the arrays for reuse.
+     */
+    public void clear() {
+        vertexCount = 0;
+        primitiveStarts.clear();
+        primitiveKinds.clear();
+    }
+
+    @Override
+    public void beginLine() {
+        begin(PConstants.LINE_STRIP);
+    }
+
+    @Override
+    public void beginStrip() {
+        begin(PConstants.TRIANGLE_STRIP);
+    }
+
+    private void begin(int kind) {
+        primitiveStarts.append(vertexCount);
+        primitiveKinds.append(kind);
+    }
+
+    @Override
+    public void vertex(float x, float y, float z) {
+        vertex(x, y, z, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void vertex(float x, float y, float z, float nx, float ny, float nz, float u, float v) {
+        if (3 * vertexCount == positions.length) {
+            positions = Arrays.copyOf(positions, 2 * positions.length);
+            normals = Arrays.copyOf(normals, 2 * normals.length);
+            textureCoordinates = Arrays.copyOf(textureCoordinates, 2 * textureCoordinates.length);
+        }
+        int index = 3 * vertexCount;
+        positions[index] = x;
+        positions[index + 1] = y;
+        positions[index + 2] = z;
+        normals[index] = nx;
+        normals[index + 1] = ny;
+        normals[index + 2] = nz;
+        textureCoordinates[2 * vertexCount] = u;
+        textureCoordinates[2 * vertexCount + 1] = v;
+        vertexCount++;
+    }
+
+    @Override
+    public void end() {
+    }
+
+    /**
+     * Gives the number of vertices.
+     */
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * Gives the array with the positions of the vertices. It is not copied, so it can be longer than
+     * {@code 3 * getVertexCount()}, and it is replaced when the sink grows.
+     */
+    public float[] getPositions() {
+        return positions;
+    }
+
+    /**
+     * Gives the array with the normals of the vertices, in the same way as {@link #getPositions()}.
+     */
+    public float[] getNormals() {
+        return normals;
+    }
+
+    /**
+     * Gives the array with the texture coordinates of the vertices, two for every vertex, in the same way as
+     * {@link #getPositions()}.
+     */
+    public float[] getTextureCoordinates() {
+        return textureCoordinates;
+    }
+
+    /**
+     * Gives the number of primitives.
+     */
+    public int getPrimitiveCount() {
+        return primitiveStarts.size();
+    }
+
+    /**
+     * Gives the index of the first vertex of a primitive. The primitive ends where the next one starts, or at the last
+     * vertex.
+     */
+    public int getPrimitiveStart(int primitive) {
+        return primitiveStarts.get(primitive);
+    }
+
+    /**
+     * Gives the kind of a primitive: {@link PConstants#LINE_STRIP} or {@link PConstants#TRIANGLE_STRIP}.
+     */
+    public int getPrimitiveKind(int primitive) {
+        return primitiveKinds.get(primitive);
+    }
+}
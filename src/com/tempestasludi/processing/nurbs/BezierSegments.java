@@ -0,0 +1,212 @@
+package com.tempestasludi.processing.nurbs;
+
+import java.util.Arrays;
+
+/**
+ * The rational Bezier segments of a packed control net along one parameter, one for every nonempty knot span. On a
+ * segment, the nurbs is a polynomial in homogeneous space, so it can be sampled at equal steps with forward differences:
+ * a fixed number of additions per sample instead of evaluating the basis functions.
+ * <p>
+ * The points of the net may consist of any number of floats, which allows decomposing a surface along one parameter by
+ * treating every row of its control net as a single point.
+ */
+final class BezierSegments {
+    /**
+     * The degree of the segments.
+     */
+    final int degree;
+
+    /**
+     * The number of floats in every control point.
+     */
+    final int size;
+
+    /**
+     * The number of segments.
+     */
+    final int count;
+
+    /**
+     * The {@code degree + 1} control points of every segment, stored consecutively.
+     */
+    final float[] points;
+
+    /**
+     * The first and last parameter value of every segment.
+     */
+    final float[] starts;
+    final float[] ends;
+
+    /**
+     * The segment of every knot span of the original knot vector, or -1 for empty knot spans.
+     */
+    final int[] segmentOfSpan;
+
+    private BezierSegments(int degree, int size, int count, float[] points, float[] starts, float[] ends, int[] segmentOfSpan) {
+        this.degree = degree;
+        this.size = size;
+        this.count = count;
+        this.points = points;
+        this.starts = starts;
+        this.ends = ends;
+        this.segmentOfSpan = segmentOfSpan;
+    }
+
+    /**
+     * Decomposes a packed control net into Bezier segments by inserting every interior knot until it has multiplicity
+     * {@code degree}. The knot vector does not need to be clamped: it is padded at both ends with {@code degree} knots and
+     * points that are zero, which is the same as leaving out the basis functions that fall outside of it.
+     *
+     * @param net The control net, holding {@code size} floats for every point
+     * @param size The number of floats in every point
+     * @param knotVector The knot vector
+     * @param degree The degree
+     * @return The segments
+     */
+    static BezierSegments of(float[] net, int size, float[] knotVector, int degree) {
+        int last = knotVector.length - 1;
+        float[] knots = new float[knotVector.length + 2 * degree];
+        for (int i = 0; i < knots.length; i++) {
+            knots[i] = knotVector[Math.max(0, Math.min(last, i - degree))];
+        }
+        float[] points = new float[net.length + 2 * degree * size];
+        System.arraycopy(net, 0, points, degree * size, net.length);
+
+        for (int i = 0; i < knots.length; ) {
+            float knot = knots[i];
+            int multiplicity = 1;
+            while (i + multiplicity < knots.length && knots[i + multiplicity] == knot) {
+                multiplicity++;
+            }
+            if (knot > knotVector[0] && knot < knotVector[last]) {
+                for (; multiplicity < degree; multiplicity++) {
+                    // The last copy of the knot starts the span that the knot is inserted into.
+                    int span = i + multiplicity - 1;
+                    points = Nurbs.insertKnot(points, size, knots, degree, span, knot);
+                    knots = Nurbs.insertKnot(knots, span, knot);
+                }
+            }
+            i += multiplicity;
+        }
+
+        int count = 0;
+        for (int k = 0; k < last; k++) {
+            if (knotVector[k] < knotVector[k + 1]) {
+                count++;
+            }
+        }
+
+        float[] segments = new float[count * (degree + 1) * size];
+        float[] starts = new float[count];
+        float[] ends = new float[count];
+        int[] segmentOfSpan = new int[knotVector.length];
+        int segment = 0;
+        int refined = 0;
+        for (int k = 0; k < knotVector.length; k++) {
+            segmentOfSpan[k] = -1;
+            if (k == last || knotVector[k] == knotVector[k + 1]) {
+                continue;
+            }
+            // After refining, the segment of the span ending at knot K consists of points K - degree till K.
+            while (knots[refined + 1] <= knotVector[k]) {
+                refined++;
+            }
+            System.arraycopy(points, (refined - degree) * size, segments, segment * (degree + 1) * size, (degree + 1) * size);
+            starts[segment] = knotVector[k];
+            ends[segment] = knotVector[k + 1];
+            segmentOfSpan[k] = segment++;
+        }
+        return new BezierSegments(degree, size, count, segments, starts, ends, segmentOfSpan);
+    }
+
+    /**
+     * Gives the knot vector of a segment on its own: its first and last parameter value, each repeated
+     * {@code degree + 1} times.
+     */
+    float[] knotVector(int segment) {
+        float[] knots = new float[2 * (degree + 1)];
+        Arrays.fill(knots, 0, degree + 1, starts[segment]);
+        Arrays.fill(knots, degree + 1, knots.length, ends[segment]);
+        return knots;
+    }
+
+    /**
+     * Sets up a forward difference table for sampling a segment at {@code u0}, {@code u0 + h}, {@code u0 + 2h} and so on.
+     * Row {@code k} of the table holds the {@code k}-th forward difference, so row 0 holds the point at {@code u0}, and
+     * {@link #step(float[], int, int)} moves it to the next sample.
+     *
+     * @param segment The segment
+     * @param u0 The parameter value of the first sample
+     * @param h The distance between the parameter values of consecutive samples
+     * @param table The array to write the table to, of length at least {@code (degree + 1) * size}
+     * @param scratch Working memory of length at least {@code (degree + 1) * size}
+     */
+    void startDifferences(int segment, float u0, float h, float[] table, float[] scratch) {
+        float length = ends[segment] - starts[segment];
+        startDifferences(points, segment * (degree + 1) * size, degree, size, (u0 - starts[segment]) / length, h / length, table, scratch);
+    }
+
+    /**
+     * Sets up a forward difference table for sampling a Bezier curve at the local parameter values {@code r0},
+     * {@code r0 + dr}, {@code r0 + 2 dr} and so on, where 0 and 1 are the ends of the curve.
+     *
+     * @param points The array holding the control points of the curve
+     * @param offset The index in {@code points} of the first control point
+     * @param degree The degree of the curve
+     * @param size The number of floats in every control point
+     * @param r0 The local parameter value of the first sample
+     * @param dr The distance between the local parameter values of consecutive samples
+     * @param table The array to write the table to, of length at least {@code (degree + 1) * size}
+     * @param scratch Working memory of length at least {@code (degree + 1) * size}
+     */
+    static void startDifferences(float[] points, int offset, int degree, int size, float r0, float dr, float[] table, float[] scratch) {
+        int length = (degree + 1) * size;
+        for (int k = 0; k <= degree; k++) {
+            // De Casteljau's algorithm, which also works outside of the curve.
+            float r = r0 + k * dr;
+            System.arraycopy(points, offset, scratch, 0, length);
+            for (int level = degree; level > 0; level--) {
+                for (int i = 0; i < level * size; i++) {
+                    scratch[i] += r * (scratch[i + size] - scratch[i]);
+                }
+            }
+            System.arraycopy(scratch, 0, table, k * size, size);
+        }
+        for (int level = 1; level <= degree; level++) {
+            for (int k = degree; k >= level; k--) {
+                for (int i = 0; i < size; i++) {
+                    table[k * size + i] -= table[(k - 1) * size + i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves a forward difference table to the next sample.
+     *
+     * @param table The table, as set up by {@link #startDifferences(float[], int, int, int, float, float, float[], float[])}
+     * @param degree The degree of the curve
+     * @param size The number of floats in every control point
+     */
+    static void step(float[] table, int degree, int size) {
+        for (int i = 0; i < degree * size; i++) {
+            table[i] += table[i + size];
+        }
+    }
+
+    /**
+     * Gives the derivative of these segments, which are segments of one degree lower with the same parameter ranges.
+     */
+    BezierSegments derivative() {
+        float[] derivative = new float[count * degree * size];
+        for (int segment = 0; segment < count; segment++) {
+            float factor = degree / (ends[segment] - starts[segment]);
+            int from = segment * (degree + 1) * size;
+            int to = segment * degree * size;
+            for (int i = 0; i < degree * size; i++) {
+                derivative[to + i] = factor * (points[from + i + size] - points[from + i]);
+            }
+        }
+        return new BezierSegments(degree - 1, size, count, derivative, starts, ends, segmentOfSpan);
+    }
+}
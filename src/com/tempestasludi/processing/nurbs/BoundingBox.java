@@ -0,0 +1,75 @@
+package com.tempestasludi.processing.nurbs;
+
+import processing.core.PVector;
+
+/**
+ * An axis-aligned box that contains (part of) a nurbs. By the convex hull property, a nurbs with positive weights lies
+ * within the bounding box of its control points, and the part on a single knot span lies within the bounding box of
+ * the control points that influence it. The box also gives a bounding sphere: the sphere around its center that
+ * passes through its corners.
+ */
+public final class BoundingBox {
+    private final float minX, minY, minZ;
+    private final float maxX, maxY, maxZ;
+
+    /**
+     * Creates a box from its minimum and maximum coordinates.
+     */
+    public BoundingBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+    }
+
+    /**
+     * Creates a box from the six floats from {@code offset} in {@code bounds}: the minimum coordinates followed by the
+     * maximum coordinates.
+     */
+    static BoundingBox of(float[] bounds, int offset) {
+        return new BoundingBox(bounds[offset], bounds[offset + 1], bounds[offset + 2], bounds[offset + 3], bounds[offset + 4], bounds[offset + 5]);
+    }
+
+    /**
+     * Gives the corner with the smallest coordinates.
+     */
+    public PVector getMin() {
+        return new PVector(minX, minY, minZ);
+    }
+
+    /**
+     * Gives the corner with the largest coordinates.
+     */
+    public PVector getMax() {
+        return new PVector(maxX, maxY, maxZ);
+    }
+
+    /**
+     * Gives the center of the box, which is also the center of the bounding sphere.
+     */
+    public PVector getCenter() {
+        return new PVector((minX + maxX) / 2, (minY + maxY) / 2, (minZ + maxZ) / 2);
+    }
+
+    /**
+     * Gives the radius of the bounding sphere: half the length of the diagonal of the box.
+     */
+    public float getRadius() {
+        float dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz) / 2;
+    }
+
+    /**
+     * Gives whether a point lies within the box, including its boundary.
+     */
+    public boolean contains(PVector point) {
+        return minX <= point.x && point.x <= maxX && minY <= point.y && point.y <= maxY && minZ <= point.z && point.z <= maxZ;
+    }
+
+    @Override
+    public String toString() {
+        return "[ " + minX + ", " + minY + ", " + minZ + " ] - [ " + maxX + ", " + maxY + ", " + maxZ + " ]";
+    }
+}
@@ -0,0 +1,132 @@
+package com.tempestasludi.processing.nurbs;
+
+import processing.core.PConstants;
+import processing.data.IntList;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * A {@link VertexSink} that writes the vertices straight into a buffer, for example a direct buffer that is uploaded
+ * as a vertex buffer object. Every vertex takes {@link #getStride()} consecutive floats: its position, followed by its
+ * normal and its texture coordinates if the sink was created with them. Vertices without a normal or texture
+ * coordinates have zeros there.
+ * <p>
+ * The buffer does not grow: writing more vertices than fit throws a {@link java.nio.BufferOverflowException}.
+ */
+public class BufferVertexSink implements VertexSink {
+    private final FloatBuffer buffer;
+    private final boolean normals;
+    private final boolean textureCoordinates;
+    private int vertexCount;
+
+    private final IntList primitiveStarts = new IntList();
+    private final IntList primitiveKinds = new IntList();
+
+    /**
+     * Creates a sink that writes to {@code buffer}, starting at its position and moving it along.
+     *
+     * @param buffer The buffer to write to
+     * @param normals Whether to write the normals of the vertices
+     * @param textureCoordinates Whether to write the texture coordinates of the vertices
+     */
+    public BufferVertexSink(FloatBuffer buffer, boolean normals, boolean textureCoordinates) {
+        this.buffer = buffer;
+        this.normals = normals;
+        this.textureCoordinates = textureCoordinates;
+    }
+
+    /**
+     * Creates a sink that writes floats to {@code buffer}, in its byte order, starting at its position. The floats go
+     * through a view of the buffer, so the position of {@code buffer} itself does not move.
+     *
+     * @param buffer The buffer to write to
+     * @param normals Whether to write the normals of the vertices
+     * @param textureCoordinates Whether to write the texture coordinates of the vertices
+     */
+    public BufferVertexSink(ByteBuffer buffer, boolean normals, boolean textureCoordinates) {
+        this(buffer.asFloatBuffer(), normals, textureCoordinates);
+    }
+
+    /**
+     * Removes all primitives, and moves the buffer back to where the first vertex was written.
+     */
+    public void clear() {
+        buffer.position(buffer.position() - vertexCount * getStride());
+        vertexCount = 0;
+        primitiveStarts.clear();
+        primitiveKinds.clear();
+    }
+
+    @Override
+    public void beginLine() {
+        begin(PConstants.LINE_STRIP);
+    }
+
+    @Override
+    public void beginStrip() {
+        begin(PConstants.TRIANGLE_STRIP);
+    }
+
+    private void begin(int kind) {
+        primitiveStarts.append(vertexCount);
+        primitiveKinds.append(kind);
+    }
+
+    @Override
+    public void vertex(float x, float y, float z) {
+        vertex(x, y, z, 0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void vertex(float x, float y, float z, float nx, float ny, float nz, float u, float v) {
+        buffer.put(x).put(y).put(z);
+        if (normals) {
+            buffer.put(nx).put(ny).put(nz);
+        }
+        if (textureCoordinates) {
+            buffer.put(u).put(v);
+        }
+        vertexCount++;
+    }
+
+    @Override
+    public void end() {
+    }
+
+    /**
+     * Gives the number of floats that every vertex takes in the buffer.
+     */
+    public int getStride() {
+        return 3 + (normals ? 3 : 0) + (textureCoordinates ? 2 : 0);
+    }
+
+    /**
+     * Gives the number of vertices that have been written.
+     */
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * Gives the number of primitives.
+     */
+    public int getPrimitiveCount() {
+        return primitiveStarts.size();
+    }
+
+    /**
+     * Gives the index of the first vertex of a primitive. The primitive ends where the next one starts, or at the last
+     * vertex.
+     */
+    public int getPrimitiveStart(int primitive) {
+        return primitiveStarts.get(primitive);
+    }
+
+    /**
+     * Gives the kind of a primitive: {@link PConstants#LINE_STRIP} or {@link PConstants#TRIANGLE_STRIP}.
+     */
+    public int getPrimitiveKind(int primitive) {
+        return primitiveKinds.get(primitive);
+    }
+}
@@ -0,0 +1,112 @@
+package com.tempestasludi.processing.nurbs;
+
+import processing.core.PVector;
+
+/**
+ * An immutable copy of the state of a {@link NurbsCurve} at one version, as published by {@link NurbsCurve#publish()}.
+ * A snapshot never changes, and it keeps no working memory between calls, so any number of threads can evaluate it at
+ * once without locking while the curve itself is being changed for the next version.
+ */
+public final class CurveSnapshot {
+    private final float[] controlNet;
+    private final float[] knotVector;
+    private final int degree;
+    private final int version;
+
+    /**
+     * Creates a snapshot that shares the given arrays, which must not be changed afterwards.
+     *
+     * @param controlNet The packed control net, see {@link Nurbs}
+     * @param knotVector The knot vector
+     * @param degree The degree
+     * @param version The version of the curve
+     */
+    CurveSnapshot(float[] controlNet, float[] knotVector, int degree, int version) {
+        this.controlNet = controlNet;
+        this.knotVector = knotVector;
+        this.degree = degree;
+        this.version = version;
+    }
+
+    /**
+     * Gives the version of the curve that this is a snapshot of: the number of changes made through its setters.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Gives the value of the nurbs at t={@code t}, like {@link NurbsCurve#evaluate(float)}.
+     */
+    public PVector evaluate(float t) {
+        if (t < knotVector[0]) {
+            return getPoint(0);
+        }
+        if (t > knotVector[knotVector.length - 1]) {
+            return getPoint(getPointCount() - 1);
+        }
+        int knot = Nurbs.findSpan(t, knotVector, -1);
+        float[] basisValues = new float[degree + 1];
+        Nurbs.calcBasisFunctionValues(knot, t, degree, knotVector, basisValues, new float[2 * (degree + 1)]);
+        float[] point = new float[3];
+        Nurbs.combine(controlNet, knot, degree, basisValues, 0, point, 0);
+        return new PVector(point[0], point[1], point[2]);
+    }
+
+    /**
+     * Evaluates the nurbs at all times in {@code ts} and writes the coordinates of the results to {@code out}, like
+     * {@link NurbsCurve#evaluate(float[], float[], int, int)}.
+     *
+     * @param ts The times to evaluate the nurbs at
+     * @param out The array to write the x, y and z coordinates of the results to
+     * @param offset The index in {@code out} of the x coordinate of the first result
+     * @param stride The distance in {@code out} between the x coordinates of consecutive results, at least 3
+     */
+    public void evaluate(float[] ts, float[] out, int offset, int stride) {
+        Nurbs.checkBatchBounds(ts.length, out.length, offset, stride);
+        float[] parameters = new float[ts.length];
+        int[] spans = new int[ts.length];
+        int span = -1;
+        for (int i = 0; i < ts.length; i++) {
+            parameters[i] = Math.max(knotVector[0], Math.min(knotVector[knotVector.length - 1], ts[i]));
+            spans[i] = span = Nurbs.findSpan(parameters[i], knotVector, span);
+        }
+        float[] basisValues = new float[ts.length * (degree + 1)];
+        EvaluationKernel.INSTANCE.basisValues(knotVector, degree, parameters, spans, 0, ts.length - 1, basisValues);
+        EvaluationKernel.INSTANCE.combine(controlNet, degree, spans, basisValues, 0, ts.length - 1, out, offset, stride);
+    }
+
+    public int getPointCount() {
+        return controlNet.length / 4;
+    }
+
+    public PVector getPoint(int index) {
+        if (index < 0 || getPointCount() <= index) {
+            throw new IllegalArgumentException("Index out of bounds");
+        }
+        return Nurbs.getControlPoint(controlNet, index);
+    }
+
+    public float getWeight(int index) {
+        if (index < 0 || getPointCount() <= index) {
+            throw new IllegalArgumentException("Index out of bounds");
+        }
+        return controlNet[4 * index + 3];
+    }
+
+    public float[] getKnotVector() {
+        return knotVector.clone();
+    }
+
+    public int getDegree() {
+        return degree;
+    }
+
+    /**
+     * Gives a new curve with the state of this snapshot, for example for drawing it on another thread. The curve only
+     * copies the control net once it is changed.
+     */
+    public NurbsCurve toCurve() {
+        return new NurbsCurve(controlNet, knotVector);
+    }
+}
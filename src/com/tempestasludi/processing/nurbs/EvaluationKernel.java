@@ -0,0 +1,125 @@
+package com.tempestasludi.processing.nurbs;
+
+/**
+ * The arithmetic of evaluating many samples at once: calculating their basis function values and taking the weighted
+ * sums of the control points. This implementation evaluates one sample at a time. When the
+ * {@code jdk.incubator.vector} module is available (for example by running with
+ * {@code --add-modules jdk.incubator.vector}), {@link #INSTANCE} is a {@link VectorKernel} instead, which evaluates as
+ * many samples at once as the vector registers of the processor hold lanes.
+ * <p>
+ * Sample {@code i} has parameter value {@code parameters[i]} in knot span {@code spans[i]}, its basis function values
+ * start at index {@code i * (degree + 1)}, and its result is written at index {@code offset + i * stride}. Kernels
+ * only keep working memory per thread, so they can be used from multiple threads at once.
+ */
+class EvaluationKernel {
+    /**
+     * The system property that turns off the vectorized kernel when set to {@code false}.
+     */
+    static final String VECTOR_PROPERTY = "com.tempestasludi.processing.nurbs.vector";
+
+    /**
+     * The kernel that batch and grid evaluation use.
+     */
+    static final EvaluationKernel INSTANCE = select();
+
+    private static EvaluationKernel select() {
+        if (!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return new EvaluationKernel();
+        }
+        try {
+            // Loaded by name, so that this class does not link against the module when it is missing.
+            return (EvaluationKernel) Class.forName("com.tempestasludi.processing.nurbs.VectorKernel")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new EvaluationKernel();
+        }
+    }
+
+    /**
+     * Calculates the basis function values of samples {@code from} till {@code to}.
+     *
+     * @param knotVector The knot vector
+     * @param degree The degree of the basis functions
+     * @param parameters The parameter values of the samples
+     * @param spans The knot spans of the samples
+     * @param from The first sample
+     * @param to The last sample
+     * @param basisValues The array to write the basis function values to
+     */
+    void basisValues(float[] knotVector, int degree, float[] parameters, int[] spans, int from, int to, float[] basisValues) {
+        float[] values = new float[degree + 1];
+        float[] scratch = new float[2 * (degree + 1)];
+        for (int i = from; i <= to; i++) {
+            Nurbs.calcBasisFunctionValues(spans[i], parameters[i], degree, knotVector, values, scratch);
+            System.arraycopy(values, 0, basisValues, i * (degree + 1), degree + 1);
+        }
+    }
+
+    /**
+     * Writes the weighted sums of the points of a packed control net for samples {@code from} till {@code to}.
+     *
+     * @param controlNet The packed control net of a curve
+     * @param degree The degree of the curve
+     * @param spans The knot spans of the samples
+     * @param basisValues The basis function values of the samples
+     * @param from The first sample
+     * @param to The last sample
+     * @param out The array to write the x, y and z coordinates to
+     * @param offset The index in {@code out} of the x coordinate of sample 0
+     * @param stride The distance in {@code out} between the x coordinates of consecutive samples
+     */
+    void combine(float[] controlNet, int degree, int[] spans, float[] basisValues, int from, int to, float[] out, int offset, int stride) {
+        for (int i = from; i <= to; i++) {
+            Nurbs.combine(controlNet, spans[i], degree, basisValues, i * (degree + 1), out, offset + i * stride);
+        }
+    }
+
+    /**
+     * Writes the weighted sums of the points of the packed control net of a surface for samples {@code from} till
+     * {@code to}, which have a parameter value for both parameters.
+     *
+     * @param controlNet The packed control net of a surface, with point {@code (i, j)} at index {@code i * tCount + j}
+     * @param tCount The number of control points in the direction of the second parameter
+     * @param sDegree The degree of the surface in the first parameter
+     * @param tDegree The degree of the surface in the second parameter
+     * @param sSpans The knot spans of the samples for the first parameter
+     * @param sBasisValues The basis function values of the samples for the first parameter
+     * @param tSpans The knot spans of the samples for the second parameter
+     * @param tBasisValues The basis function values of the samples for the second parameter
+     * @param from The first sample
+     * @param to The last sample
+     * @param out The array to write the x, y and z coordinates to
+     * @param offset The index in {@code out} of the x coordinate of sample 0
+     * @param stride The distance in {@code out} between the x coordinates of consecutive samples
+     */
+    void combine(float[] controlNet, int tCount, int sDegree, int tDegree, int[] sSpans, float[] sBasisValues, int[] tSpans, float[] tBasisValues,
+                 int from, int to, float[] out, int offset, int stride) {
+        int sCount = controlNet.length / 4 / tCount;
+        for (int i = from; i <= to; i++) {
+            int sKnot = sSpans[i];
+            int tKnot = tSpans[i];
+            float x = 0, y = 0, z = 0, w = 0;
+            for (int sI = Math.max(sDegree - sKnot, 0); sI <= Math.min(sDegree, sCount - 1 - sKnot + sDegree); sI++) {
+                int rowIndex = (sI + sKnot - sDegree) * tCount + tKnot - tDegree;
+                float x1 = 0, y1 = 0, z1 = 0, w1 = 0;
+                for (int tI = Math.max(tDegree - tKnot, 0); tI <= Math.min(tDegree, tCount - 1 - tKnot + tDegree); tI++) {
+                    int index = 4 * (rowIndex + tI);
+                    float basisValue = tBasisValues[i * (tDegree + 1) + tI];
+                    x1 += basisValue * controlNet[index];
+                    y1 += basisValue * controlNet[index + 1];
+                    z1 += basisValue * controlNet[index + 2];
+                    w1 += basisValue * controlNet[index + 3];
+                }
+                float basisValue = sBasisValues[i * (sDegree + 1) + sI];
+                x += basisValue * x1;
+                y += basisValue * y1;
+                z += basisValue * z1;
+                w += basisValue * w1;
+            }
+            out[offset + i * stride] = x / w;
+            out[offset + i * stride + 1] = y / w;
+            out[offset + i * stride + 2] = z / w;
+        }
+    }
+}
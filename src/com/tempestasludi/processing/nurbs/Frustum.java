@@ -0,0 +1,91 @@
+package com.tempestasludi.processing.nurbs;
+
+import processing.core.PGraphics;
+import processing.core.PMatrix3D;
+import processing.core.PVector;
+import processing.opengl.PGraphicsOpenGL;
+
+/**
+ * The part of model space that a camera sees: the six planes that bound it, extracted from the product of the
+ * projection and modelview matrices. Testing a bounding box against it tells whether the contents of the box can be on
+ * the screen, so invisible geometry can be skipped before it is tessellated.
+ */
+public final class Frustum {
+    /**
+     * The results of {@link #classify(float[], int)}.
+     */
+    static final int OUTSIDE = 0;
+    static final int INTERSECTING = 1;
+    static final int INSIDE = 2;
+
+    /**
+     * The planes (a, b, c, d), each stored as four consecutive floats, with a point (x, y, z) inside the frustum if
+     * {@code a x + b y + c z + d >= 0} for all of them.
+     */
+    private final float[] planes = new float[24];
+
+    /**
+     * Creates the frustum of a camera, given the product of its projection and modelview matrices.
+     *
+     * @param projectionModelview The matrix that takes points in model space to clip space
+     */
+    public Frustum(PMatrix3D projectionModelview) {
+        PMatrix3D m = projectionModelview;
+        float[][] rows = {
+                {m.m00, m.m01, m.m02, m.m03},
+                {m.m10, m.m11, m.m12, m.m13},
+                {m.m20, m.m21, m.m22, m.m23},
+                {m.m30, m.m31, m.m32, m.m33}
+        };
+        // A point is visible if -w <= x, y, z <= w in clip space, which gives a plane for every bound.
+        for (int axis = 0; axis < 3; axis++) {
+            for (int k = 0; k < 4; k++) {
+                planes[8 * axis + k] = rows[3][k] + rows[axis][k];
+                planes[8 * axis + 4 + k] = rows[3][k] - rows[axis][k];
+            }
+        }
+    }
+
+    /**
+     * Gives the frustum of the current camera of {@code g}, or null if it is not a renderer with a camera.
+     */
+    static Frustum of(PGraphics g) {
+        if (!(g instanceof PGraphicsOpenGL)) {
+            return null;
+        }
+        return new Frustum(((PGraphicsOpenGL) g).projmodelview);
+    }
+
+    /**
+     * Gives whether any part of a box can be inside the frustum. Boxes near the corners of the frustum can be reported as
+     * visible while they are not, but never the other way around.
+     */
+    public boolean intersects(BoundingBox box) {
+        PVector min = box.getMin();
+        PVector max = box.getMax();
+        return classify(new float[] {min.x, min.y, min.z, max.x, max.y, max.z}, 0) != OUTSIDE;
+    }
+
+    /**
+     * Tells whether the box given by the six floats from {@code offset} in {@code bounds}, its minimum coordinates
+     * followed by its maximum coordinates, lies completely outside the frustum, completely inside it, or neither.
+     *
+     * @return {@link #OUTSIDE}, {@link #INSIDE} or {@link #INTERSECTING}
+     */
+    int classify(float[] bounds, int offset) {
+        int result = INSIDE;
+        for (int p = 0; p < planes.length; p += 4) {
+            float a = planes[p], b = planes[p + 1], c = planes[p + 2], d = planes[p + 3];
+            // The corners of the box that lie furthest along and furthest against the normal of the plane.
+            float far = d + a * bounds[offset + (a >= 0 ? 3 : 0)] + b * bounds[offset + (b >= 0 ? 4 : 1)] + c * bounds[offset + (c >= 0 ? 5 : 2)];
+            if (far < 0) {
+                return OUTSIDE;
+            }
+            float near = d + a * bounds[offset + (a >= 0 ? 0 : 3)] + b * bounds[offset + (b >= 0 ? 1 : 4)] + c * bounds[offset + (c >= 0 ? 2 : 5)];
+            if (near < 0) {
+                result = INTERSECTING;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,83 @@
+package com.tempestasludi.processing.nurbs;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+/**
+ * A {@link VertexSink} that draws to a Processing graphics context, with a shape for every primitive.
+ */
+public class GraphicsVertexSink implements VertexSink {
+    private final PGraphics g;
+    private final PImage texture;
+
+    /**
+     * Creates a sink that draws to {@code g} without a texture.
+     *
+     * @param g The graphics context to draw with
+     */
+    public GraphicsVertexSink(PGraphics g) {
+        this(g, null);
+    }
+
+    /**
+     * Creates a sink that draws to {@code g}, with {@code texture} on every triangle strip. The texture coordinates are
+     * scaled to the size of the texture when the texture mode of {@code g} is {@link PConstants#IMAGE}.
+     *
+     * @param g The graphics context to draw with
+     * @param texture The texture, or null to draw without one
+     */
+    public GraphicsVertexSink(PGraphics g, PImage texture) {
+        this.g = g;
+        this.texture = texture;
+    }
+
+    @Override
+    public void beginLine() {
+        g.beginShape();
+    }
+
+    @Override
+    public void beginStrip() {
+        g.beginShape(PConstants.TRIANGLE_STRIP);
+        if (texture != null) {
+            g.texture(texture);
+        }
+    }
+
+    @Override
+    public void vertex(float x, float y, float z) {
+        // 2D renderers ignore vertices with a z coordinate, so they only get x and y.
+        if (g.is3D()) {
+            g.vertex(x, y, z);
+        } else {
+            g.vertex(x, y);
+        }
+    }
+
+    @Override
+    public void vertex(float x, float y, float z, float nx, float ny, float nz, float u, float v) {
+        boolean is3D = g.is3D();
+        if (is3D) {
+            g.normal(nx, ny, nz);
+        }
+        if (texture == null) {
+            vertex(x, y, z);
+            return;
+        }
+        if (g.textureMode == PConstants.IMAGE) {
+            u *= texture.width;
+            v *= texture.height;
+        }
+        if (is3D) {
+            g.vertex(x, y, z, u, v);
+        } else {
+            g.vertex(x, y, u, v);
+        }
+    }
+
+    @Override
+    public void end() {
+        g.endShape();
+    }
+}
@@ -0,0 +1,95 @@
+package com.tempestasludi.processing.nurbs;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds, with a bucket for every power of two. Bucket {@code b} counts the durations
+ * from {@code 2^(b - 1)} up to {@code 2^b}, so percentiles are exact up to a factor of two, which is enough to tell a
+ * slow frame from a normal one. Recording takes no locks and does not allocate.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+
+    LatencyHistogram() {
+    }
+
+    void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        buckets.incrementAndGet(Math.min(BUCKETS - Long.numberOfLeadingZeros(nanos), BUCKETS - 1));
+        count.increment();
+        total.add(nanos);
+    }
+
+    void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            buckets.set(b, 0);
+        }
+        count.reset();
+        total.reset();
+    }
+
+    /**
+     * Gives the number of recorded durations.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gives the sum of the recorded durations in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    /**
+     * Gives the mean of the recorded durations in nanoseconds, or 0 if there are none.
+     */
+    public double getMeanNanos() {
+        long count = getCount();
+        return (count == 0) ? 0 : (double) getTotalNanos() / count;
+    }
+
+    /**
+     * Gives an upper bound of the given percentile of the recorded durations in nanoseconds: the upper end of the bucket
+     * that holds it. Gives 0 if there are no durations.
+     *
+     * @param percentile The percentile, from 0 to 100
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile should be between 0 and 100.");
+        }
+        long[] counts = getBucketCounts();
+        long count = 0;
+        for (long bucketCount : counts) {
+            count += bucketCount;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank && seen > 0) {
+                return (b == BUCKETS - 1) ? Long.MAX_VALUE : 1L << b;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gives the number of durations in every bucket, where bucket {@code b} holds the durations from
+     * {@code 2^(b - 1)} up to {@code 2^b} nanoseconds.
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) {
+            counts[b] = buckets.get(b);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,42 @@
+package com.tempestasludi.processing.nurbs;
+
+/**
+ * The number of steps that a nurbs is drawn with along one parameter when its level of detail follows its size on the
+ * screen. The number only changes when the estimate leaves a band around it, so that a nurbs that moves a little does
+ * not get a new number of steps, and with it a new tessellation, on every frame.
+ */
+final class LevelOfDetail {
+    /**
+     * The largest number of steps that is chosen, whatever the estimate.
+     */
+    static final int MAX_STEPS = 1024;
+
+    /**
+     * The factor by which the number of steps exceeds the estimate when it is chosen. The number is kept until the
+     * estimate grows above it, or shrinks by this factor squared.
+     */
+    private static final float HYSTERESIS = 1.25f;
+
+    private int steps;
+
+    /**
+     * Gives the number of steps to draw with, given the current estimate of the number that is needed.
+     *
+     * @param estimate The estimated number of steps after which the tessellation stays within the tolerance
+     * @return The number of steps, at least the estimate (up to {@link #MAX_STEPS}) and at least 1
+     */
+    int update(float estimate) {
+        float needed = Math.min(Math.max(estimate, 1), MAX_STEPS);
+        if (steps == 0 || steps < needed || needed * HYSTERESIS * HYSTERESIS < steps) {
+            steps = (int) Math.min(Math.ceil(needed * HYSTERESIS), MAX_STEPS);
+        }
+        return steps;
+    }
+
+    /**
+     * Gives the number of steps that was chosen last, or 0 if none was chosen yet.
+     */
+    int getSteps() {
+        return steps;
+    }
+}
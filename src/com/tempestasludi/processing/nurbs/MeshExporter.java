@@ -0,0 +1,245 @@
+package com.tempestasludi.processing.nurbs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes tessellations of surfaces to mesh files, for example for fabrication. The grid of vertices is the one that
+ * {@link NurbsSurface#draw(VertexSink, int, int)} uses, split into two triangles between every four neighbouring
+ * vertices, with the same orientation as the normals of the surface. Unlike drawing, the grid is evaluated row by row
+ * and written out straight away: at most two rows of vertices are kept, so the memory that an export takes only grows
+ * with the number of steps for each parameter, not with the number of vertices.
+ * <p>
+ * The formats are
+ * <ul>
+ *     <li>{@link Format#OBJ}: Wavefront OBJ text, with a {@code vn} line for every vertex if normals are written;</li>
+ *     <li>{@link Format#STL}: binary STL, in which every triangle has the average of the normals of its vertices if
+ *     normals are written, and the zero vector otherwise;</li>
+ *     <li>{@link Format#PLY}: little-endian binary PLY, with the normals as properties {@code nx}, {@code ny} and
+ *     {@code nz} of the vertices if they are written.</li>
+ * </ul>
+ */
+public class MeshExporter {
+    public enum Format {
+        OBJ, STL, PLY
+    }
+
+    private final Format format;
+    private final boolean normals;
+
+    private WritableByteChannel channel;
+    private ByteBuffer buffer;
+
+    /**
+     * Creates an exporter that writes the given format.
+     *
+     * @param format The format to write
+     * @param normals Whether to write the normals of the surface
+     */
+    public MeshExporter(Format format, boolean normals) {
+        this.format = format;
+        this.normals = normals;
+    }
+
+    /**
+     * Writes a tessellation of a surface to a file, replacing it if it exists.
+     *
+     * @param surface The surface to write
+     * @param sSteps The number of steps used for the first parameter
+     * @param tSteps The number of steps used for the second parameter
+     * @param path The file to write to
+     * @throws IOException If writing fails
+     */
+    public void export(NurbsSurface surface, int sSteps, int tSteps, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            export(surface, sSteps, tSteps, channel);
+        }
+    }
+
+    /**
+     * Writes a tessellation of a surface to a channel, which is left open.
+     *
+     * @param surface The surface to write
+     * @param sSteps The number of steps used for the first parameter
+     * @param tSteps The number of steps used for the second parameter
+     * @param channel The channel to write to
+     * @throws IOException If writing fails
+     */
+    public void export(NurbsSurface surface, int sSteps, int tSteps, WritableByteChannel channel) throws IOException {
+        int rows = surface.getRowCount(sSteps);
+        int columns = surface.getColumnCount(tSteps);
+        if ((long) rows * columns > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many vertices to index");
+        }
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            switch (format) {
+                case OBJ:
+                    writeObj(surface, sSteps, tSteps, rows, columns);
+                    break;
+                case STL:
+                    writeStl(surface, sSteps, tSteps, rows, columns);
+                    break;
+                case PLY:
+                    writePly(surface, sSteps, tSteps, rows, columns);
+                    break;
+            }
+            flush();
+        } finally {
+            this.channel = null;
+            this.buffer = null;
+        }
+    }
+
+    private void writeObj(NurbsSurface surface, int sSteps, int tSteps, int rows, int columns) throws IOException {
+        float[] row = new float[3 * columns];
+        float[] rowNormals = normals ? new float[row.length] : null;
+        for (int i = 0; i < rows; i++) {
+            surface.evaluateRow(sSteps, tSteps, i, row, rowNormals);
+            for (int j = 0; j < columns; j++) {
+                putAscii("v " + row[3 * j] + " " + row[3 * j + 1] + " " + row[3 * j + 2] + "\n");
+            }
+            if (normals) {
+                for (int j = 0; j < columns; j++) {
+                    putAscii("vn " + rowNormals[3 * j] + " " + rowNormals[3 * j + 1] + " " + rowNormals[3 * j + 2] + "\n");
+                }
+            }
+            if (i == 0) {
+                continue;
+            }
+            // Faces only refer to vertices before them, so they can follow every row. OBJ counts vertices from 1.
+            int last = (i - 1) * columns + 1;
+            int current = i * columns + 1;
+            for (int j = 0; j + 1 < columns; j++) {
+                putObjFace(last + j, current + j, last + j + 1);
+                putObjFace(last + j + 1, current + j, current + j + 1);
+            }
+        }
+    }
+
+    private void putObjFace(int a, int b, int c) throws IOException {
+        if (normals) {
+            putAscii("f " + a + "//" + a + " " + b + "//" + b + " " + c + "//" + c + "\n");
+        } else {
+            putAscii("f " + a + " " + b + " " + c + "\n");
+        }
+    }
+
+    private void writeStl(NurbsSurface surface, int sSteps, int tSteps, int rows, int columns) throws IOException {
+        long triangles = 2L * Math.max(rows - 1, 0) * Math.max(columns - 1, 0);
+        if (triangles > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("Too many triangles for STL");
+        }
+        ensureRemaining(84);
+        byte[] header = "processing-nurbs".getBytes(StandardCharsets.US_ASCII);
+        buffer.put(header);
+        buffer.put(new byte[80 - header.length]);
+        buffer.putInt((int) triangles);
+
+        float[] last = new float[3 * columns];
+        float[] current = new float[last.length];
+        float[] lastNormals = normals ? new float[last.length] : null;
+        float[] currentNormals = normals ? new float[last.length] : null;
+        for (int i = 0; i < rows; i++) {
+            surface.evaluateRow(sSteps, tSteps, i, current, currentNormals);
+            if (i > 0) {
+                for (int j = 0; j + 1 < columns; j++) {
+                    putStlTriangle(last, lastNormals, 3 * j, current, currentNormals, 3 * j, last, lastNormals, 3 * j + 3);
+                    putStlTriangle(last, lastNormals, 3 * j + 3, current, currentNormals, 3 * j, current, currentNormals, 3 * j + 3);
+                }
+            }
+            float[] swap = last;
+            last = current;
+            current = swap;
+            swap = lastNormals;
+            lastNormals = currentNormals;
+            currentNormals = swap;
+        }
+    }
+
+    private void putStlTriangle(float[] a, float[] aNormals, int aIndex, float[] b, float[] bNormals, int bIndex,
+                                float[] c, float[] cNormals, int cIndex) throws IOException {
+        ensureRemaining(50);
+        if (normals) {
+            float nx = aNormals[aIndex] + bNormals[bIndex] + cNormals[cIndex];
+            float ny = aNormals[aIndex + 1] + bNormals[bIndex + 1] + cNormals[cIndex + 1];
+            float nz = aNormals[aIndex + 2] + bNormals[bIndex + 2] + cNormals[cIndex + 2];
+            float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (length > 0) {
+                nx /= length;
+                ny /= length;
+                nz /= length;
+            }
+            buffer.putFloat(nx).putFloat(ny).putFloat(nz);
+        } else {
+            buffer.putFloat(0).putFloat(0).putFloat(0);
+        }
+        buffer.putFloat(a[aIndex]).putFloat(a[aIndex + 1]).putFloat(a[aIndex + 2]);
+        buffer.putFloat(b[bIndex]).putFloat(b[bIndex + 1]).putFloat(b[bIndex + 2]);
+        buffer.putFloat(c[cIndex]).putFloat(c[cIndex + 1]).putFloat(c[cIndex + 2]);
+        buffer.putShort((short) 0);
+    }
+
+    private void writePly(NurbsSurface surface, int sSteps, int tSteps, int rows, int columns) throws IOException {
+        long faces = 2L * Math.max(rows - 1, 0) * Math.max(columns - 1, 0);
+        putAscii("ply\nformat binary_little_endian 1.0\n");
+        putAscii("element vertex " + (long) rows * columns + "\n");
+        putAscii("property float x\nproperty float y\nproperty float z\n");
+        if (normals) {
+            putAscii("property float nx\nproperty float ny\nproperty float nz\n");
+        }
+        putAscii("element face " + faces + "\n");
+        putAscii("property list uchar int vertex_indices\nend_header\n");
+
+        // All vertices come before the faces, which only need the indices of the vertices.
+        float[] row = new float[3 * columns];
+        float[] rowNormals = normals ? new float[row.length] : null;
+        for (int i = 0; i < rows; i++) {
+            surface.evaluateRow(sSteps, tSteps, i, row, rowNormals);
+            for (int j = 0; j < columns; j++) {
+                ensureRemaining(24);
+                buffer.putFloat(row[3 * j]).putFloat(row[3 * j + 1]).putFloat(row[3 * j + 2]);
+                if (normals) {
+                    buffer.putFloat(rowNormals[3 * j]).putFloat(rowNormals[3 * j + 1]).putFloat(rowNormals[3 * j + 2]);
+                }
+            }
+        }
+        for (int i = 1; i < rows; i++) {
+            int last = (i - 1) * columns;
+            int current = i * columns;
+            for (int j = 0; j + 1 < columns; j++) {
+                ensureRemaining(26);
+                buffer.put((byte) 3).putInt(last + j).putInt(current + j).putInt(last + j + 1);
+                buffer.put((byte) 3).putInt(last + j + 1).putInt(current + j).putInt(current + j + 1);
+            }
+        }
+    }
+
+    private void putAscii(String text) throws IOException {
+        ensureRemaining(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
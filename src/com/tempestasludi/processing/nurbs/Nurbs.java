@@ -1,12 +1,73 @@
 package com.tempestasludi.processing.nurbs;
 
+import processing.core.PGraphics;
+import processing.core.PVector;
+import processing.data.FloatList;
+
 import java.util.Arrays;
-import java.util.function.BiFunction;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Base class of all nurbs-related classes. Implements the overarching functionality of calculating base functions and default values.
+ * <p>
+ * Control points are stored in packed control nets: one float array holding {@code (wx, wy, wz, w)} for every point,
+ * so the coordinates are premultiplied by the weight of the point.
  */
 public class Nurbs {
+    /**
+     * The maximum number of times a piece of a knot span is halved by adaptive tessellation.
+     */
+    private static final int MAX_SUBDIVISION_DEPTH = 16;
+
+    /**
+     * The number of parameters that batch evaluation handles at once, which bounds its working memory.
+     */
+    protected static final int BATCH_SIZE = 256;
+
+    private static final AtomicReferenceFieldUpdater<Nurbs, NurbsMetrics> METRICS =
+            AtomicReferenceFieldUpdater.newUpdater(Nurbs.class, NurbsMetrics.class, "metrics");
+
+    /**
+     * The counters and timings of this nurbs, which are only made when they are asked for or recording is on.
+     */
+    private volatile NurbsMetrics metrics;
+
+    /**
+     * Gives the position of a nurbs at a time, in the space in which the error of an adaptive tessellation is measured.
+     */
+    protected interface Sampler {
+        /**
+         * Writes the position at time {@code t} to the first three elements of {@code out}.
+         */
+        void sample(float t, float[] out);
+    }
+
+    /**
+     * Gives the counters and timings of this nurbs.
+     *
+     * @see NurbsMetrics
+     */
+    public NurbsMetrics getMetrics() {
+        NurbsMetrics metrics = this.metrics;
+        if (metrics == null) {
+            METRICS.compareAndSet(this, null, new NurbsMetrics(NurbsMetrics.getGlobal()));
+            metrics = this.metrics;
+        }
+        return metrics;
+    }
+
+    /**
+     * Gives the metrics to record into. While recording is off, nothing is recorded anyway, so this gives the global
+     * metrics instead of making the metrics of this nurbs.
+     */
+    protected NurbsMetrics metrics() {
+        NurbsMetrics metrics = this.metrics;
+        if (metrics != null) {
+            return metrics;
+        }
+        return NurbsMetrics.isRecording() ? getMetrics() : NurbsMetrics.getGlobal();
+    }
+
     /**
      * Calculates the basis function values for knot span {@code k} at time {@code t}.
      *
@@ -17,6 +78,24 @@ public class Nurbs {
      * @return The values of basis functions {@code k - degree} till {@code k} (so {@code degree + 1} values) at time {@code t}
      */
     protected static float[] calcBasisFunctionValues(int k, float t, int degree, float[] knotVector) {
+        float[] result = new float[degree + 1];
+        calcBasisFunctionValues(k, t, degree, knotVector, result, new float[2 * (degree + 1)]);
+        return result;
+    }
+
+    /**
+     * Calculates the basis function values for knot span {@code k} at time {@code t} without allocating.
+     * This uses the triangular scheme, which keeps only one row of the recursion and shares the divisions between the two
+     * terms that use them.
+     *
+     * @param k The knot span to calculate for
+     * @param t The time to calculate the function values for
+     * @param degree The degree of the functions to calculate
+     * @param knotVector The knot vector to calculate for
+     * @param result The array that receives the values of basis functions {@code k - degree} till {@code k}, of length at least {@code degree + 1}
+     * @param scratch Working memory of length at least {@code 2 * (degree + 1)}, which can be reused between calls
+     */
+    protected static void calcBasisFunctionValues(int k, float t, int degree, float[] knotVector, float[] result, float[] scratch) {
         if (k < 0 || knotVector.length <= k + 1) {
             throw new IllegalArgumentException("Knot out of bounds.");
         }
@@ -24,27 +103,534 @@ public class Nurbs {
             throw new IllegalArgumentException("The knot interval has nonpositive length.");
         }
 
-        float[][] basisValues = new float[degree + 1][degree + 1];
+        int last = knotVector.length - 1;
+        int right = degree + 1;
 
-        BiFunction<Integer, Integer, Float> getF = (n, i) ->
-                (knotVector[i + n] <= knotVector[i])
-                        ? 1
-                        : (t - knotVector[i]) / (knotVector[i + n] - knotVector[i]);
+        // At level j, result[r] holds basis function k - j + r of degree j. The scratch holds t - knot[k + 1 - j] at
+        // index j and knot[k + j] - t at index right + j.
+        result[0] = 1;
+        for (int j = 1; j <= degree; j++) {
+            scratch[j] = (k + 1 - j >= 0) ? t - knotVector[k + 1 - j] : 0;
+            scratch[right + j] = (k + j <= last) ? knotVector[k + j] - t : 0;
 
-        for (int n = 0; n <= degree; n++) {
-            for (int i = Math.max(degree - k, degree - n); i <= degree && i + k + n - degree < knotVector.length - 1; i++) {
-                if (n == 0) {
-                    basisValues[n][i] = 1;
-                    continue;
+            float saved = 0;
+            for (int r = 0; r < j; r++) {
+                float temp = (result[r] == 0) ? 0 : result[r] / (scratch[right + r + 1] + scratch[j - r]);
+                result[r] = saved + scratch[right + r + 1] * temp;
+                saved = scratch[j - r] * temp;
+            }
+            result[j] = saved;
+
+            // Basis functions that start before the knot vector or end after it are left out.
+            for (int r = 0; r < j - k; r++) {
+                result[r] = 0;
+            }
+            for (int r = Math.max(last - k, 0); r <= j; r++) {
+                result[r] = 0;
+            }
+        }
+    }
+
+    /**
+     * Calculates the basis function values and their first derivatives for knot span {@code k} at time {@code t}
+     * without allocating. Both come from the same recursion: the derivatives are a weighted difference of the basis
+     * functions of one degree lower, which are the last level before the values themselves.
+     *
+     * @param k The knot span to calculate for
+     * @param t The time to calculate the function values for
+     * @param degree The degree of the functions to calculate, at least 1
+     * @param knotVector The knot vector to calculate for
+     * @param values The array that receives the values of basis functions {@code k - degree} till {@code k}, of length at least {@code degree + 1}
+     * @param derivatives The array that receives the derivatives of those basis functions, of length at least {@code degree + 1}
+     * @param scratch Working memory of length at least {@code 2 * degree}, which can be reused between calls
+     */
+    protected static void calcBasisFunctionDerivatives(int k, float t, int degree, float[] knotVector, float[] values, float[] derivatives, float[] scratch) {
+        if (degree < 1) {
+            throw new IllegalArgumentException("The degree must be at least 1.");
+        }
+
+        // The basis functions of one degree lower; derivatives[r] holds function k - degree + 1 + r.
+        calcBasisFunctionValues(k, t, degree - 1, knotVector, derivatives, scratch);
+
+        int last = knotVector.length - 1;
+        float[] lower = derivatives;
+        for (int r = degree; r >= 0; r--) {
+            // Basis function k - degree + r is built from lower functions k - degree + r and k - degree + r + 1.
+            float a = (r >= 1) ? lower[r - 1] : 0;
+            float b = (r < degree) ? lower[r] : 0;
+
+            float value = 0, derivative = 0;
+            if (a != 0) {
+                float length = knotVector[k + r] - knotVector[k - degree + r];
+                value += (t - knotVector[k - degree + r]) / length * a;
+                derivative += degree * a / length;
+            }
+            if (b != 0) {
+                float length = knotVector[k + r + 1] - knotVector[k - degree + r + 1];
+                value += (knotVector[k + r + 1] - t) / length * b;
+                derivative -= degree * b / length;
+            }
+
+            // Basis functions that start before the knot vector or end after it are left out.
+            if (r < degree - k || r >= last - k) {
+                value = derivative = 0;
+            }
+            values[r] = value;
+            derivatives[r] = derivative;
+        }
+    }
+
+    /**
+     * Finds the knot span that contains time {@code t}, that is, the span {@code k} with
+     * {@code knotVector[k] <= t < knotVector[k + 1]}. Times at or after the last knot give the last span of positive
+     * length, and times before the first knot are treated as the first knot.
+     * <p>
+     * The lookup starts at {@code hint} and searches outwards from there, so passing the previous result makes runs of
+     * nearby times cheap. Without a useful hint, it falls back to a binary search over the whole knot vector.
+     *
+     * @param t The time to find the knot span for
+     * @param knotVector The knot vector to search in
+     * @param hint The knot span to start searching from, or -1 if there is none
+     * @return The index of the knot span that contains {@code t}
+     */
+    protected static int findSpan(float t, float[] knotVector, int hint) {
+        int last = knotVector.length - 1;
+        boolean validHint = 0 <= hint && hint < last;
+
+        if (t >= knotVector[last]) {
+            if (validHint && knotVector[hint] < knotVector[last] && knotVector[hint + 1] == knotVector[last]) {
+                return hint;
+            }
+            int lo = 0, hi = last;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (knotVector[mid] < knotVector[last]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
                 }
+            }
+            return lo - 1;
+        }
+        t = Math.max(t, knotVector[0]);
 
-                float v1 = (i <= degree - n) ? 0 : basisValues[n - 1][i];
-                float v2 = (degree < i + 1) ? 0 : basisValues[n - 1][i + 1];
+        // Find the first knot after t, knowing that it lies in (lo, hi].
+        int lo = 0, hi = last;
+        if (validHint) {
+            int step = 1;
+            if (knotVector[hint] <= t) {
+                if (t < knotVector[hint + 1]) {
+                    return hint;
+                }
+                lo = hint + 1;
+                while (lo + step < last && knotVector[lo + step] <= t) {
+                    lo += step;
+                    step <<= 1;
+                }
+                hi = Math.min(lo + step, last);
+            } else {
+                hi = hint;
+                while (hi - step > 0 && knotVector[hi - step] > t) {
+                    hi -= step;
+                    step <<= 1;
+                }
+                lo = Math.max(hi - step, 0);
+            }
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (knotVector[mid] <= t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    /**
+     * Writes the weighted sum of the points of a packed control net for knot span {@code knot} to {@code out}.
+     *
+     * @param controlNet The packed control net of a curve
+     * @param knot The knot span
+     * @param degree The degree of the curve
+     * @param basisValues The array holding the {@code degree + 1} basis function values of the knot span
+     * @param basisOffset The index of the first basis function value in {@code basisValues}
+     * @param out The array to write the x, y and z coordinates to
+     * @param offset The index in {@code out} of the x coordinate
+     */
+    protected static void combine(float[] controlNet, int knot, int degree, float[] basisValues, int basisOffset, float[] out, int offset) {
+        float x = 0, y = 0, z = 0, w = 0;
+        for (int i = Math.max(degree - knot, 0); i <= Math.min(degree, controlNet.length / 4 - 1 - knot + degree); i++) {
+            int index = 4 * (i + knot - degree);
+            float basisValue = basisValues[basisOffset + i];
+            x += basisValue * controlNet[index];
+            y += basisValue * controlNet[index + 1];
+            z += basisValue * controlNet[index + 2];
+            w += basisValue * controlNet[index + 3];
+        }
+        out[offset] = x / w;
+        out[offset + 1] = y / w;
+        out[offset + 2] = z / w;
+    }
 
-                basisValues[n][i] = v1 * getF.apply(n, i + k - degree) + v2 * (1 - getF.apply(n, i + k - degree + 1));
+    /**
+     * Inserts the knot {@code u} into knot span {@code span} of a control net with Boehm's algorithm, which gives the
+     * control net of the same nurbs for the knot vector with {@code u} inserted. Only the points {@code span - degree + 1}
+     * till {@code span} are replaced, by the points between them and their predecessors.
+     *
+     * @param net The control net, holding {@code size} floats for every point
+     * @param size The number of floats in every point, so 4 for a packed control net, or more to insert the knot in many
+     *             control nets at once
+     * @param knotVector The knot vector before inserting
+     * @param degree The degree
+     * @param span The knot span that {@code u} lies in, so {@code knotVector[span] <= u < knotVector[span + 1]}, at
+     *             least {@code degree} and less than the number of points, so that all its basis functions exist
+     * @param u The knot to insert
+     * @return The new control net, which holds one point more
+     */
+    protected static float[] insertKnot(float[] net, int size, float[] knotVector, int degree, int span, float u) {
+        float[] result = new float[net.length + size];
+        int from = span - degree + 1;
+        System.arraycopy(net, 0, result, 0, from * size);
+        for (int i = from; i <= span; i++) {
+            float alpha = (u - knotVector[i]) / (knotVector[i + degree] - knotVector[i]);
+            for (int c = i * size; c < (i + 1) * size; c++) {
+                result[c] = alpha * net[c] + (1 - alpha) * net[c - size];
             }
         }
-        return basisValues[degree];
+        System.arraycopy(net, span * size, result, (span + 1) * size, net.length - span * size);
+        return result;
+    }
+
+    /**
+     * Calculates the power basis coefficients of a nurbs on a single knot span, as a polynomial in the local parameter
+     * {@code r = (t - knotVector[span]) / (knotVector[span + 1] - knotVector[span])}, which runs from 0 to 1 over the span.
+     * Afterwards, evaluating the nurbs on the span only takes Horner's scheme instead of the basis functions.
+     * <p>
+     * The Bezier control points of the span are the blossom of the nurbs at {@code degree - i} copies of the first knot
+     * of the span and {@code i} copies of the last one, which de Boor's algorithm gives when every level uses its own
+     * parameter. The coefficients then follow from the forward differences of these points.
+     *
+     * @param points The {@code degree + 1} points of the control net that influence the span, points
+     *               {@code span - degree} till {@code span}, which are zero where they fall outside of the control net
+     * @param size The number of floats in every point
+     * @param knotVector The knot vector
+     * @param degree The degree
+     * @param span The knot span, of positive length
+     * @param out The array to write the {@code degree + 1} coefficients of {@code size} floats to, constant term first
+     * @param scratch Working memory of length at least {@code (degree + 1) * size}
+     */
+    protected static void calcPowerBasis(float[] points, int size, float[] knotVector, int degree, int span, float[] out, float[] scratch) {
+        int last = knotVector.length - 1;
+        for (int i = 0; i <= degree; i++) {
+            System.arraycopy(points, 0, scratch, 0, (degree + 1) * size);
+            for (int level = 1; level <= degree; level++) {
+                float u = (level <= degree - i) ? knotVector[span] : knotVector[span + 1];
+                for (int j = degree; j >= level; j--) {
+                    // Knots outside of the knot vector are copies of its ends, like for the truncated basis functions.
+                    float low = knotVector[Math.max(span - degree + j, 0)];
+                    float high = knotVector[Math.min(span + 1 + j - level, last)];
+                    float alpha = (u - low) / (high - low);
+                    for (int c = 0; c < size; c++) {
+                        scratch[j * size + c] = (1 - alpha) * scratch[(j - 1) * size + c] + alpha * scratch[j * size + c];
+                    }
+                }
+            }
+            System.arraycopy(scratch, degree * size, out, i * size, size);
+        }
+
+        // Coefficient k is binomial(degree, k) times the k-th forward difference of the Bezier control points.
+        for (int level = 1; level <= degree; level++) {
+            for (int k = degree; k >= level; k--) {
+                for (int c = 0; c < size; c++) {
+                    out[k * size + c] -= out[(k - 1) * size + c];
+                }
+            }
+        }
+        float binomial = 1;
+        for (int k = 1; k <= degree; k++) {
+            binomial = binomial * (degree - k + 1) / k;
+            for (int c = 0; c < size; c++) {
+                out[k * size + c] *= binomial;
+            }
+        }
+    }
+
+    /**
+     * Gives a copy of a knot vector with the knot {@code u} inserted after knot {@code span}.
+     */
+    protected static float[] insertKnot(float[] knotVector, int span, float u) {
+        float[] result = new float[knotVector.length + 1];
+        System.arraycopy(knotVector, 0, result, 0, span + 1);
+        result[span + 1] = u;
+        System.arraycopy(knotVector, span + 1, result, span + 2, knotVector.length - span - 1);
+        return result;
+    }
+
+    /**
+     * Chooses times along a knot vector such that the polyline through the sampled positions stays within
+     * {@code tolerance} of the nurbs. Every knot span of positive length is first split into {@code degree} equal
+     * pieces, so no inflection is skipped, and every piece is halved until the position at its middle lies within
+     * {@code tolerance} of the chord between its ends.
+     *
+     * @param sampler The position of the nurbs, in the space in which the error is measured
+     * @param knotVector The knot vector of the nurbs
+     * @param degree The degree of the nurbs
+     * @param tolerance The maximum distance between the polyline and the nurbs
+     * @param times The list to append the times to, in increasing order and starting with the first knot
+     */
+    protected static void subdivide(Sampler sampler, float[] knotVector, int degree, float tolerance, FloatList times) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("The tolerance must be positive.");
+        }
+
+        float[] start = new float[3], end = new float[3];
+        sampler.sample(knotVector[0], start);
+        times.append(knotVector[0]);
+        for (int k = 0; k < knotVector.length - 1; k++) {
+            if (knotVector[k + 1] <= knotVector[k]) {
+                continue;
+            }
+            for (int piece = 1; piece <= degree; piece++) {
+                float a = knotVector[k] + (knotVector[k + 1] - knotVector[k]) * (piece - 1) / degree;
+                float b = (piece == degree) ? knotVector[k + 1] : knotVector[k] + (knotVector[k + 1] - knotVector[k]) * piece / degree;
+                sampler.sample(b, end);
+                subdivide(sampler, a, start, b, end, tolerance, MAX_SUBDIVISION_DEPTH, times);
+
+                float[] swap = start;
+                start = end;
+                end = swap;
+            }
+        }
+    }
+
+    /**
+     * Appends the times in (a, b] that are needed to stay within {@code tolerance} of the nurbs between a and b.
+     */
+    private static void subdivide(Sampler sampler, float a, float[] start, float b, float[] end, float tolerance, int depth, FloatList times) {
+        float m = (a + b) / 2;
+        float[] middle = new float[3];
+        sampler.sample(m, middle);
+        if (depth > 0 && distanceToSegment(middle, start, end) > tolerance) {
+            subdivide(sampler, a, start, m, middle, tolerance, depth - 1, times);
+            subdivide(sampler, m, middle, b, end, tolerance, depth - 1, times);
+        } else {
+            times.append(b);
+        }
+    }
+
+    private static float distanceToSegment(float[] p, float[] a, float[] b) {
+        float dx = b[0] - a[0], dy = b[1] - a[1], dz = b[2] - a[2];
+        float lengthSquared = dx * dx + dy * dy + dz * dz;
+        float f = (lengthSquared == 0) ? 0 : ((p[0] - a[0]) * dx + (p[1] - a[1]) * dy + (p[2] - a[2]) * dz) / lengthSquared;
+        f = Math.max(0, Math.min(1, f));
+        float ex = p[0] - a[0] - f * dx, ey = p[1] - a[1] - f * dy, ez = p[2] - a[2] - f * dz;
+        return (float) Math.sqrt(ex * ex + ey * ey + ez * ez);
+    }
+
+    /**
+     * Replaces the first three elements of {@code point} by its position on the screen of {@code g}, in pixels.
+     *
+     * @param g The graphics context whose current transformation and projection to use
+     * @param point The point to project
+     */
+    protected static void projectToScreen(PGraphics g, float[] point) {
+        float x = point[0], y = point[1], z = point[2];
+        if (g.is3D()) {
+            point[0] = g.screenX(x, y, z);
+            point[1] = g.screenY(x, y, z);
+        } else {
+            point[0] = g.screenX(x, y);
+            point[1] = g.screenY(x, y);
+        }
+        point[2] = 0;
+    }
+
+    /**
+     * Projects every point of a packed control net to the screen of {@code g}, using its current transformation and
+     * projection.
+     *
+     * @param g The graphics context whose screen to project to
+     * @param controlNet The packed control net
+     * @param screen The array to write the x and y coordinates on the screen of point {@code i} to, from index {@code 2 * i}
+     * @return The ratio of the largest and the smallest weight of the points
+     */
+    protected static float projectControlNet(PGraphics g, float[] controlNet, float[] screen) {
+        float[] point = new float[3];
+        float minWeight = Float.POSITIVE_INFINITY, maxWeight = 0;
+        for (int i = 0; i < controlNet.length / 4; i++) {
+            float w = controlNet[4 * i + 3];
+            point[0] = controlNet[4 * i] / w;
+            point[1] = controlNet[4 * i + 1] / w;
+            point[2] = controlNet[4 * i + 2] / w;
+            projectToScreen(g, point);
+            screen[2 * i] = point[0];
+            screen[2 * i + 1] = point[1];
+            minWeight = Math.min(minWeight, w);
+            maxWeight = Math.max(maxWeight, w);
+        }
+        return maxWeight / minWeight;
+    }
+
+    /**
+     * Estimates the number of equal steps over the whole knot vector after which the polyline through the samples stays
+     * within {@code tolerance} of a nurbs on the screen. The chord of a step of length {@code h} deviates at most
+     * {@code h^2 / 8} times the second derivative from the nurbs, which is bounded by the control points of the second
+     * derivative of the B-spline through the projected control points. For degree 1 the deviation comes from the kinks
+     * instead, at most {@code h / 4} times the change of the first derivative. Weights are only taken into account by
+     * scaling the bound with the ratio of the largest and the smallest weight, so this is an estimate rather than a
+     * guarantee.
+     *
+     * @param screen The projected control points, as an x and a y coordinate for every point
+     * @param offset The index of the first control point in {@code screen}
+     * @param stride The distance between the indices of consecutive control points in {@code screen}
+     * @param count The number of control points
+     * @param knotVector The knot vector
+     * @param degree The degree
+     * @param weightRatio The ratio of the largest and the smallest weight of the control points
+     * @param tolerance The maximum distance on the screen between the polyline and the nurbs
+     * @return The estimated number of steps, not rounded
+     */
+    protected static float estimateSteps(float[] screen, int offset, int stride, int count, float[] knotVector, int degree, float weightRatio, float tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("The tolerance must be positive.");
+        }
+        // The control points of the first derivative, followed by the largest change between consecutive ones.
+        float[] derivative = new float[2 * Math.max(count - 1, 0)];
+        for (int i = 0; i < count - 1; i++) {
+            float length = knotVector[i + degree + 1] - knotVector[i + 1];
+            if (length > 0) {
+                int from = 2 * (offset + i * stride), to = 2 * (offset + (i + 1) * stride);
+                derivative[2 * i] = degree * (screen[to] - screen[from]) / length;
+                derivative[2 * i + 1] = degree * (screen[to + 1] - screen[from + 1]) / length;
+            }
+        }
+        float bound = 0;
+        for (int i = 0; i < count - 2; i++) {
+            float change = (float) Math.hypot(derivative[2 * i + 2] - derivative[2 * i], derivative[2 * i + 3] - derivative[2 * i + 1]);
+            if (degree > 1) {
+                float length = knotVector[i + degree + 1] - knotVector[i + 2];
+                change = (length > 0) ? (degree - 1) * change / length : 0;
+            }
+            bound = Math.max(bound, change);
+        }
+
+        float range = knotVector[knotVector.length - 1] - knotVector[0];
+        bound *= weightRatio;
+        if (degree == 1) {
+            return range * bound / (4 * tolerance);
+        }
+        return range * (float) Math.sqrt(bound / (8 * tolerance));
+    }
+
+    /**
+     * Checks that a batch of {@code count} points, written with the given offset and stride, fits in an output of
+     * length {@code length}.
+     *
+     * @param count The number of points in the batch
+     * @param length The length of the output
+     * @param offset The index in the output of the x coordinate of the first point
+     * @param stride The distance in the output between the x coordinates of consecutive points
+     */
+    protected static void checkBatchBounds(int count, int length, int offset, int stride) {
+        if (stride < 3) {
+            throw new IllegalArgumentException("The stride must be at least 3.");
+        }
+        if (offset < 0 || (count > 0 && length < offset + (long) (count - 1) * stride + 3)) {
+            throw new IllegalArgumentException("The output is too small for the batch.");
+        }
+    }
+
+    /**
+     * Makes the box given by the six floats from {@code offset} in {@code bounds} empty, so that including any point
+     * makes it the box around that point.
+     */
+    protected static void clearBounds(float[] bounds, int offset) {
+        Arrays.fill(bounds, offset, offset + 3, Float.POSITIVE_INFINITY);
+        Arrays.fill(bounds, offset + 3, offset + 6, Float.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Grows the box given by the six floats from {@code offset} in {@code bounds}, its minimum coordinates followed by
+     * its maximum coordinates, to include point {@code index} of a packed control net.
+     */
+    protected static void includeControlPoint(float[] controlNet, int index, float[] bounds, int offset) {
+        float w = controlNet[4 * index + 3];
+        for (int k = 0; k < 3; k++) {
+            float coordinate = controlNet[4 * index + k] / w;
+            bounds[offset + k] = Math.min(bounds[offset + k], coordinate);
+            bounds[offset + 3 + k] = Math.max(bounds[offset + 3 + k], coordinate);
+        }
+    }
+
+    /**
+     * Grows the box from {@code offset} in {@code bounds} to include the box from {@code otherOffset} in {@code other}.
+     */
+    protected static void includeBounds(float[] other, int otherOffset, float[] bounds, int offset) {
+        for (int k = 0; k < 3; k++) {
+            bounds[offset + k] = Math.min(bounds[offset + k], other[otherOffset + k]);
+            bounds[offset + 3 + k] = Math.max(bounds[offset + 3 + k], other[otherOffset + 3 + k]);
+        }
+    }
+
+    /**
+     * Stores a point with the given weight at position {@code index} of a packed control net.
+     *
+     * @param controlNet The packed control net
+     * @param index The index of the point in the control net
+     * @param point The point
+     * @param weight The weight of the point, which must not be zero
+     */
+    protected static void setControlPoint(float[] controlNet, int index, PVector point, float weight) {
+        checkWeight(weight);
+        controlNet[4 * index] = point.x * weight;
+        controlNet[4 * index + 1] = point.y * weight;
+        controlNet[4 * index + 2] = point.z * weight;
+        controlNet[4 * index + 3] = weight;
+    }
+
+    /**
+     * Changes the weight of the point at position {@code index} of a packed control net, keeping the point itself.
+     *
+     * @param controlNet The packed control net
+     * @param index The index of the point in the control net
+     * @param weight The new weight of the point, which must not be zero
+     */
+    protected static void setControlWeight(float[] controlNet, int index, float weight) {
+        checkWeight(weight);
+        float factor = weight / controlNet[4 * index + 3];
+        controlNet[4 * index] *= factor;
+        controlNet[4 * index + 1] *= factor;
+        controlNet[4 * index + 2] *= factor;
+        controlNet[4 * index + 3] = weight;
+    }
+
+    /**
+     * Checks that a weight can be stored in a packed control net. A point with weight zero would lose its coordinates,
+     * as they are stored multiplied by the weight.
+     *
+     * @param weight The weight to check
+     */
+    protected static void checkWeight(float weight) {
+        if (weight == 0) {
+            throw new IllegalArgumentException("The weight of a point must not be zero.");
+        }
+    }
+
+    /**
+     * Gives the point at position {@code index} of a packed control net.
+     *
+     * @param controlNet The packed control net
+     * @param index The index of the point in the control net
+     * @return A new vector with the (unweighted) coordinates of the point
+     */
+    protected static PVector getControlPoint(float[] controlNet, int index) {
+        float weight = controlNet[4 * index + 3];
+        if (weight == 0) {
+            return new PVector();
+        }
+        return new PVector(controlNet[4 * index] / weight, controlNet[4 * index + 1] / weight, controlNet[4 * index + 2] / weight);
     }
 
     /**
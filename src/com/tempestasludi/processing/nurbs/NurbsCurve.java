@@ -1,15 +1,146 @@
 package com.tempestasludi.processing.nurbs;
 
 import processing.core.PGraphics;
+import processing.core.PShape;
 import processing.core.PVector;
+import processing.data.FloatList;
 
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A nurbs curve with a single parameter (t).
+ * <p>
+ * A curve is not thread-safe, not even for reading: evaluating it reuses working memory of the curve and remembers the
+ * last knot span it found, so it must only be used by one thread at a time. To evaluate a curve on several threads at
+ * once, evaluate the snapshots that {@link #publish()} makes of it instead.
+ */
 public class NurbsCurve extends Nurbs {
-    private PVector[] points;
-    private float[] weights;
+    /**
+     * The number of equal pieces every knot span is split into for the arc length table.
+     */
+    private static final int ARC_LENGTH_PIECES = 8;
+
+    /**
+     * The nodes and weights of five-point Gauss-Legendre quadrature on [-1, 1], which integrates the speed over a piece.
+     */
+    private static final float[] GAUSS_NODES = {
+            0, -0.5384693101056831f, 0.5384693101056831f, -0.9061798459386640f, 0.9061798459386640f
+    };
+    private static final float[] GAUSS_WEIGHTS = {
+            0.5688888888888889f, 0.4786286704993665f, 0.4786286704993665f, 0.2369268850561891f, 0.2369268850561891f
+    };
+
+    /**
+     * The packed control net, see {@link Nurbs}. While it is shared with the last published snapshot, it is copied
+     * before it is changed.
+     */
+    private float[] controlNet;
+    private boolean netShared;
+    private final int pointCount;
 
     private final float[] knotVector;
     private final int degree;
 
+    /**
+     * Reusable working memory for the basis function calculation, so that evaluating does not allocate. Because of it,
+     * evaluating is not thread-safe.
+     */
+    private final float[] basisValues;
+    private final float[] basisDerivatives;
+    private final float[] basisScratch;
+    private final float[] point = new float[3];
+    private final float[] pointDerivative = new float[3];
+
+    /**
+     * The knot span of the previous lookup, used as a starting point for the next one. Every evaluation changes it.
+     */
+    private int lastSpan = -1;
+
+    /**
+     * The sampling plan of the last drawing, which is reused as long as the number of steps stays the same.
+     */
+    private SamplingPlan plan;
+
+    /**
+     * The number of changes made through the setters, used to tell whether cached geometry is still up to date.
+     */
+    private int version;
+
+    /**
+     * The vertices of the last drawing, with the sampling plan and version they were calculated for.
+     */
+    private float[] vertices;
+    private SamplingPlan verticesPlan;
+    private int verticesVersion;
+
+    /**
+     * The range of control points that changed since the vertices were calculated, empty if {@code dirtyFrom > dirtyTo}.
+     */
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = -1;
+
+    /**
+     * The range of vertices that the last tessellation recalculated, empty if {@code updatedFrom > updatedTo}.
+     */
+    private int updatedFrom;
+    private int updatedTo;
+
+    /**
+     * Working memory for batch evaluation: the times, knot spans, basis function values and results of a batch.
+     */
+    private float[] batchParameters;
+    private int[] batchSpans;
+    private float[] batchBasisValues;
+    private float[] batchOut;
+
+    /**
+     * Whether single evaluations use the power basis coefficients of their knot span, and those coefficients for every
+     * knot span, calculated when they are first needed.
+     */
+    private boolean precompiled;
+    private float[][] spanCoefficients;
+
+    /**
+     * The bounding box of every knot span, as six floats from index {@code 6 * knot}, with whether it is up to date, and
+     * the bounding box of the whole curve, or null if it is out of date.
+     */
+    private float[] spanBounds;
+    private boolean[] validSpanBounds;
+    private float[] bounds;
+
+    /**
+     * The number of steps chosen by {@link #getLevelOfDetail(PGraphics, float)}.
+     */
+    private final LevelOfDetail levelOfDetail = new LevelOfDetail();
+
+    /**
+     * The arc length table: the times that split the nonempty knot spans into pieces, and the length of the curve up to
+     * each of them, or null if it is out of date.
+     */
+    private float[] arcLengthTimes;
+    private float[] arcLengths;
+
+    /**
+     * The last published snapshot of the curve, which is the only state that other threads read.
+     */
+    private final AtomicReference<CurveSnapshot> snapshot;
+
+    /**
+     * The Bezier segments of the curve, with the version they were extracted for.
+     */
+    private BezierSegments bezier;
+    private int bezierVersion;
+
+    /**
+     * The cached retained shape, with the graphics context, number of steps and version it was made for.
+     */
+    private PShape shape;
+    private PGraphics shapeGraphics;
+    private int shapeSteps;
+    private int shapeVersion;
+
     /**
      * Creates a new nurbs of degree {@code points.length - 1} in which every point has the same weight.
      *
@@ -58,17 +189,41 @@ public class NurbsCurve extends Nurbs {
      * @param knotVector The knot vector
      */
     public NurbsCurve(PVector[] points, float[] weights, float[] knotVector) {
-        if (points.length != weights.length) {
-            throw new IllegalArgumentException("The points and weights vectors must be of equal length");
-        }
-        this.points = points;
-        this.weights = weights;
+        this(pack(points, weights), knotVector);
+    }
+
+    /**
+     * Creates a new nurbs with the given packed control net, which it never changes: the setters change a copy of it.
+     *
+     * @param controlNet The packed control net, see {@link Nurbs}
+     * @param knotVector The knot vector
+     */
+    NurbsCurve(float[] controlNet, float[] knotVector) {
+        this.pointCount = controlNet.length / 4;
+        this.controlNet = controlNet;
         this.knotVector = knotVector;
-        this.degree = knotVector.length - points.length - 1;
+        this.degree = knotVector.length - pointCount - 1;
 
         if (degree <= 0) {
             throw new IllegalArgumentException("The degree of the curve must be at least 1.");
         }
+
+        this.basisValues = new float[degree + 1];
+        this.basisDerivatives = new float[degree + 1];
+        this.basisScratch = new float[2 * (degree + 1)];
+        this.snapshot = new AtomicReference<>(new CurveSnapshot(controlNet, knotVector, degree, 0));
+        this.netShared = true;
+    }
+
+    private static float[] pack(PVector[] points, float[] weights) {
+        if (points.length != weights.length) {
+            throw new IllegalArgumentException("The points and weights vectors must be of equal length");
+        }
+        float[] controlNet = new float[4 * points.length];
+        for (int i = 0; i < points.length; i++) {
+            setControlPoint(controlNet, i, points[i], weights[i]);
+        }
+        return controlNet;
     }
 
     /**
@@ -78,20 +233,371 @@ public class NurbsCurve extends Nurbs {
      * @param steps The number of steps to subdivide the curve into
      */
     public void draw(PGraphics g, int steps) {
-        g.beginShape();
-        float stepSize = (knotVector[knotVector.length - 1] - knotVector[0]) / steps;
-        int knot = 0;
-        for (float t = knotVector[knot]; t <= knotVector[knotVector.length - 1]; t = Math.min(t + stepSize, knotVector[knotVector.length - 1])) {
-            while (knotVector[knot + 1] <= t && t < knotVector[knotVector.length - 1]) {
-                knot++;
+        draw(new GraphicsVertexSink(g), steps);
+    }
+
+    /**
+     * Tessellates the curve with approximately the given number of steps into a single line strip.
+     *
+     * @param sink The sink to send the vertices to
+     * @param steps The number of steps to subdivide the curve into
+     */
+    public void draw(VertexSink sink, int steps) {
+        long start = metrics().start();
+        tessellate(steps);
+        sink.beginLine();
+        for (int i = 0; i < vertices.length; i += 3) {
+            sink.vertex(vertices[i], vertices[i + 1], vertices[i + 2]);
+        }
+        sink.end();
+        metrics().drawn(start, vertices.length / 3);
+    }
+
+    /**
+     * Draws the curve through the same points as {@link #draw(PGraphics, int)}, but stepping along its Bezier segments
+     * with forward differences instead of evaluating the basis functions. After setting up a segment, every vertex
+     * only takes {@code 4 * degree} additions and a division, which makes this the cheapest way to draw a curve that
+     * changes every frame. The rounding errors add up along a segment, so for large numbers of steps the vertices can
+     * differ slightly from those of {@link #draw(PGraphics, int)}.
+     *
+     * @param g The graphics context to draw with
+     * @param steps The number of steps to subdivide the curve into
+     */
+    public void drawForwardDifferenced(PGraphics g, int steps) {
+        long start = metrics().start();
+        SamplingPlan plan = getPlan(steps);
+        BezierSegments segments = getBezierSegments();
+        float[] table = new float[4 * (degree + 1)];
+        float[] scratch = new float[4 * (degree + 1)];
+        float step = (knotVector[knotVector.length - 1] - knotVector[0]) / steps;
+
+        VertexSink sink = new GraphicsVertexSink(g);
+        sink.beginLine();
+        for (int i = 0; i < plan.size(); ) {
+            int span = plan.spans[i];
+            int last = plan.lastSampleUpTo(span);
+            segments.startDifferences(segments.segmentOfSpan[span], plan.parameters[i], step, table, scratch);
+            for (; i <= last; i++) {
+                sink.vertex(table[0] / table[3], table[1] / table[3], table[2] / table[3]);
+                BezierSegments.step(table, degree, 4);
             }
+        }
+        sink.end();
+        metrics().drawn(start, plan.size());
+    }
 
-            g.vertex(evaluate(t, knot).array());
-            if (t == knotVector[points.length]) {
-                break;
+    /**
+     * Draws the curve with as few vertices as are needed to stay within {@code tolerance} of it. Flat parts get few
+     * vertices and sharply curved parts get many, and every knot is a vertex.
+     *
+     * @param g The graphics context to draw with
+     * @param tolerance The maximum distance between the drawn polyline and the curve
+     */
+    public void drawAdaptive(PGraphics g, float tolerance) {
+        drawAdaptive(g, tolerance, null);
+    }
+
+    /**
+     * Draws the curve like {@link #drawAdaptive(PGraphics, float)}, but with the tolerance measured in pixels on the
+     * screen, using the current transformation and projection of {@code g}.
+     *
+     * @param g The graphics context to draw with
+     * @param pixels The maximum distance on the screen between the drawn polyline and the curve
+     */
+    public void drawAdaptiveOnScreen(PGraphics g, float pixels) {
+        drawAdaptive(g, pixels, g);
+    }
+
+    /**
+     * Draws the curve adaptively, measuring the error on the screen of {@code screen} if it is given.
+     */
+    private void drawAdaptive(PGraphics g, float tolerance, PGraphics screen) {
+        long start = metrics().start();
+        FloatList times = new FloatList();
+        subdivide((t, out) -> {
+            lastSpan = findSpan(t, knotVector, lastSpan);
+            evaluate(t, lastSpan, out, 0);
+            if (screen != null) {
+                projectToScreen(screen, out);
+            }
+        }, knotVector, degree, tolerance, times);
+
+        VertexSink sink = new GraphicsVertexSink(g);
+        sink.beginLine();
+        for (int i = 0; i < times.size(); i++) {
+            float t = times.get(i);
+            lastSpan = findSpan(t, knotVector, lastSpan);
+            evaluate(t, lastSpan, point, 0);
+            sink.vertex(point[0], point[1], point[2]);
+        }
+        sink.end();
+        metrics().drawn(start, times.size());
+    }
+
+    /**
+     * Draws the curve like {@link #draw(PGraphics, int)}, but skips it completely if its bounding box is outside the
+     * view of the current camera of {@code g}. Renderers without a camera always draw the curve.
+     *
+     * @param g The graphics context to draw with
+     * @param steps The number of steps to subdivide the curve into
+     */
+    public void drawCulled(PGraphics g, int steps) {
+        Frustum frustum = Frustum.of(g);
+        if (frustum == null || frustum.classify(getBounds(), 0) != Frustum.OUTSIDE) {
+            draw(g, steps);
+        }
+    }
+
+    /**
+     * Draws the curve like {@link #draw(PGraphics, int)}, with the number of steps that
+     * {@link #getLevelOfDetail(PGraphics, float)} chooses.
+     *
+     * @param g The graphics context to draw with
+     * @param pixels The maximum distance on the screen between the drawn polyline and the curve
+     */
+    public void drawWithLevelOfDetail(PGraphics g, float pixels) {
+        draw(g, getLevelOfDetail(g, pixels));
+    }
+
+    /**
+     * Gives a number of steps with which the curve stays within {@code pixels} of its polyline on the screen of
+     * {@code g}, estimated from its control points projected with the current transformation and projection. A curve
+     * far from the camera gets fewer steps than one that fills the screen. The number is remembered, and only changed
+     * once the estimate rises above it or falls well below it, so that a moving curve or camera does not change the
+     * tessellation on every frame.
+     *
+     * @param g The graphics context whose screen the distance is measured on
+     * @param pixels The maximum distance on the screen between the polyline and the curve
+     * @return The number of steps, from 1 to 1024
+     */
+    public int getLevelOfDetail(PGraphics g, float pixels) {
+        float[] screen = new float[2 * pointCount];
+        float weightRatio = projectControlNet(g, controlNet, screen);
+        return levelOfDetail.update(estimateSteps(screen, 0, 1, pointCount, knotVector, degree, weightRatio, pixels));
+    }
+
+    /**
+     * Draws the curve like {@link #draw(PGraphics, int)}, but by replaying the cached shape of {@link #getShape(PGraphics, int)}.
+     *
+     * @param g The graphics context to draw with
+     * @param steps The number of steps to subdivide the curve into
+     */
+    public void drawRetained(PGraphics g, int steps) {
+        g.shape(getShape(g, steps));
+    }
+
+    /**
+     * Gives a retained shape of the curve with approximately the given number of steps. The shape is cached, and only
+     * made again when the graphics context or the number of steps differs from the previous call, or when the curve has
+     * been changed through one of its setters. Its style is disabled, so it takes the style of the context it is drawn with.
+     *
+     * @param g The graphics context to create the shape with
+     * @param steps The number of steps to subdivide the curve into
+     * @return The cached shape
+     */
+    public PShape getShape(PGraphics g, int steps) {
+        boolean sameShape = shape != null && shapeGraphics == g && shapeSteps == steps;
+        if (sameShape && shapeVersion == version) {
+            return shape;
+        }
+
+        boolean inSync = sameShape && shapeVersion == verticesVersion && verticesPlan == getPlan(steps);
+        tessellate(steps);
+
+        if (sameShape) {
+            // Only move the vertices that changed, or all of them if the shape missed earlier changes.
+            int from = inSync ? updatedFrom : 0;
+            int to = inSync ? updatedTo : vertices.length / 3 - 1;
+            for (int i = from; i <= to; i++) {
+                if (g.is3D()) {
+                    shape.setVertex(i, vertices[3 * i], vertices[3 * i + 1], vertices[3 * i + 2]);
+                } else {
+                    shape.setVertex(i, vertices[3 * i], vertices[3 * i + 1]);
+                }
+            }
+        } else {
+            shape = g.createShape();
+            shape.beginShape();
+            for (int i = 0; i < vertices.length; i += 3) {
+                if (g.is3D()) {
+                    shape.vertex(vertices[i], vertices[i + 1], vertices[i + 2]);
+                } else {
+                    shape.vertex(vertices[i], vertices[i + 1]);
+                }
             }
+            shape.endShape();
+            shape.disableStyle();
+        }
+
+        shapeGraphics = g;
+        shapeSteps = steps;
+        shapeVersion = version;
+        return shape;
+    }
+
+    /**
+     * Brings the vertices for drawing the curve with the given number of steps up to date. If only some control points
+     * changed since the last time, only the vertices in the knot spans that those points influence are recalculated.
+     */
+    private void tessellate(int steps) {
+        SamplingPlan plan = getPlan(steps);
+        if (vertices == null || verticesPlan != plan) {
+            vertices = new float[3 * plan.size()];
+            updatedFrom = 0;
+            updatedTo = plan.size() - 1;
+        } else if (verticesVersion == version) {
+            updatedFrom = 0;
+            updatedTo = -1;
+        } else {
+            // Control point i only influences knot spans i till i + degree.
+            updatedFrom = plan.firstSampleFrom(dirtyFrom);
+            updatedTo = plan.lastSampleUpTo(dirtyTo + degree);
+        }
+
+        EvaluationKernel.INSTANCE.combine(controlNet, degree, plan.spans, plan.basisValues, updatedFrom, updatedTo, vertices, 0, 3);
+        metrics().cacheLookup(updatedFrom > updatedTo);
+
+        verticesPlan = plan;
+        verticesVersion = version;
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+    }
+
+    /**
+     * Gives the vertices for drawing the curve with the given number of steps, brought up to date like
+     * {@link #draw(PGraphics, int)} does. The array belongs to the curve, and is only valid until its next change.
+     */
+    float[] getVertices(int steps) {
+        tessellate(steps);
+        return vertices;
+    }
+
+    /**
+     * Gives the number of vertices for drawing the curve with the given number of steps.
+     */
+    int getVertexCount(int steps) {
+        return getPlan(steps).size();
+    }
+
+    /**
+     * Gives the number of changes made through the setters.
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Gives the packed control net itself, see {@link Nurbs}, which must not be changed.
+     */
+    float[] getControlNet() {
+        return controlNet;
+    }
+
+    /**
+     * Gives the knot vector itself, which must not be changed.
+     */
+    float[] getKnotVector() {
+        return knotVector;
+    }
+
+    /**
+     * Gives the Bezier segments of the curve, extracting them again if the curve changed since the last time.
+     */
+    private BezierSegments getBezierSegments() {
+        if (bezier == null || bezierVersion != version) {
+            bezier = BezierSegments.of(controlNet, 4, knotVector, degree);
+            bezierVersion = version;
+        }
+        return bezier;
+    }
+
+    /**
+     * Gives a copy of this nurbs with the knot {@code t} inserted once. The copy has one more control point, but
+     * describes exactly the same curve.
+     *
+     * @param t The knot to insert, at least knot {@code degree} and less than knot {@code pointCount}, where all basis
+     *          functions are defined
+     * @return The refined copy
+     */
+    public NurbsCurve insertKnot(float t) {
+        if (t < knotVector[degree] || knotVector[pointCount] <= t) {
+            throw new IllegalArgumentException("The knot should lie between knot `degree` and knot `pointCount`.");
+        }
+        int span = findSpan(t, knotVector, -1);
+        return new NurbsCurve(insertKnot(controlNet, 4, knotVector, degree, span, t), insertKnot(knotVector, span, t));
+    }
+
+    /**
+     * Splits this nurbs into rational Bezier curves, one for every knot span of positive length. Each of them has the
+     * knot vector of its span, with both ends repeated {@code degree + 1} times, and together they describe the same
+     * curve.
+     *
+     * @return The Bezier curves, in the order of their knot spans
+     */
+    public NurbsCurve[] toBezier() {
+        BezierSegments segments = getBezierSegments();
+        NurbsCurve[] curves = new NurbsCurve[segments.count];
+        int length = 4 * (degree + 1);
+        for (int i = 0; i < segments.count; i++) {
+            curves[i] = new NurbsCurve(Arrays.copyOfRange(segments.points, i * length, (i + 1) * length), segments.knotVector(i));
+        }
+        return curves;
+    }
+
+    /**
+     * Gives a copy of this nurbs with as many interior knots removed as possible while it stays within
+     * {@code tolerance} of this nurbs. Every removed knot also removes a control point, so the copy is cheaper to
+     * evaluate and store.
+     *
+     * @param tolerance The maximum distance between the copy and this nurbs at the same time
+     * @return The simplified copy, which has the same knot vector if no knot could be removed
+     */
+    public NurbsCurve removeKnots(float tolerance) {
+        Simplification simplification = new Simplification(controlNet, 4, knotVector, degree);
+        simplification.removeKnots(tolerance);
+        if (simplification.net == controlNet) {
+            // No knot was removed, so the copy shares the control net, which both copy before changing it.
+            netShared = true;
         }
-        g.endShape();
+        return new NurbsCurve(simplification.net, simplification.knotVector);
+    }
+
+    /**
+     * Gives a copy of this nurbs with a degree one higher, which describes exactly the same curve, for example to
+     * give several curves the same degree. The knot vector of the copy is clamped, and all its interior knots have
+     * one copy more.
+     *
+     * @return The elevated copy
+     */
+    public NurbsCurve elevateDegree() {
+        Simplification simplification = new Simplification(controlNet, 4, knotVector, degree);
+        simplification.elevateDegree();
+        return new NurbsCurve(simplification.net, simplification.knotVector);
+    }
+
+    /**
+     * Gives a copy of this nurbs with a degree one lower, if it can stay within {@code tolerance} of this nurbs with the
+     * same continuity. The knot vector of the copy is clamped, and all its interior knots have one copy less.
+     *
+     * @param tolerance The maximum distance between the copy and this nurbs at the same time
+     * @return The reduced copy, or null if it would be further away than {@code tolerance}
+     */
+    public NurbsCurve reduceDegree(float tolerance) {
+        if (degree <= 1) {
+            throw new IllegalArgumentException("The degree of the curve must be at least 2 to reduce it.");
+        }
+        Simplification simplification = new Simplification(controlNet, 4, knotVector, degree);
+        if (!simplification.reduceDegree(tolerance)) {
+            return null;
+        }
+        return new NurbsCurve(simplification.net, simplification.knotVector);
+    }
+
+    private SamplingPlan getPlan(int steps) {
+        if (plan == null || plan.steps != steps) {
+            plan = SamplingPlan.get(knotVector, degree, steps);
+        }
+        return plan;
     }
 
     /**
@@ -99,18 +605,14 @@ public class NurbsCurve extends Nurbs {
      */
     public PVector evaluate(float t) {
         if (t < knotVector[0]) {
-            return points[0];
+            return getPoint(0);
         }
         if (t > knotVector[knotVector.length - 1]) {
-            return points[points.length - 1];
+            return getPoint(pointCount - 1);
         }
 
-        for (int knot = 1; knot < knotVector.length; knot++) {
-            if (t <= knotVector[knot]) {
-                return evaluate(t, knot - 1);
-            }
-        }
-        throw new RuntimeException("This code should never execute.");
+        lastSpan = findSpan(t, knotVector, lastSpan);
+        return evaluate(t, lastSpan);
     }
 
     /**
@@ -124,46 +626,544 @@ public class NurbsCurve extends Nurbs {
             throw new IllegalArgumentException("t should be between the knot and the next knot.");
         }
 
-        float[] basisFunctionValues = calcBasisFunctionValues(knot, t, degree, knotVector);
+        evaluate(t, knot, point, 0);
+        return new PVector(point[0], point[1], point[2]);
+    }
+
+    /**
+     * Gives the derivative of the nurbs with respect to t at t={@code t}. Times outside the knot vector are clamped to it.
+     */
+    public PVector derivative(float t) {
+        derivative(clampToKnots(t), pointDerivative);
+        return new PVector(pointDerivative[0], pointDerivative[1], pointDerivative[2]);
+    }
+
+    /**
+     * Writes the derivative of the nurbs with respect to t at t={@code t}, which lies within the knot vector, to
+     * {@code out}.
+     */
+    private void derivative(float t, float[] out) {
+        int knot = lastSpan = findSpan(t, knotVector, lastSpan);
+        calcBasisFunctionDerivatives(knot, t, degree, knotVector, basisValues, basisDerivatives, basisScratch);
+        metrics().basisComputed(1);
+
+        float x = 0, y = 0, z = 0, w = 0;
+        float dx = 0, dy = 0, dz = 0, dw = 0;
+        for (int i = Math.max(degree - knot, 0); i <= Math.min(degree, pointCount - 1 - knot + degree); i++) {
+            int index = 4 * (i + knot - degree);
+            float basisValue = basisValues[i];
+            float basisDerivative = basisDerivatives[i];
+            x += basisValue * controlNet[index];
+            y += basisValue * controlNet[index + 1];
+            z += basisValue * controlNet[index + 2];
+            w += basisValue * controlNet[index + 3];
+            dx += basisDerivative * controlNet[index];
+            dy += basisDerivative * controlNet[index + 1];
+            dz += basisDerivative * controlNet[index + 2];
+            dw += basisDerivative * controlNet[index + 3];
+        }
+
+        // The quotient rule, with the point itself being (x, y, z) / w.
+        out[0] = (dx - dw * x / w) / w;
+        out[1] = (dy - dw * y / w) / w;
+        out[2] = (dz - dw * z / w) / w;
+    }
+
+    /**
+     * Gives the unit tangent vector of the nurbs at t={@code t}, pointing in the direction of increasing t.
+     */
+    public PVector tangent(float t) {
+        return derivative(t).normalize();
+    }
+
+    /**
+     * Gives the unit normal vector of the nurbs in the xy plane at t={@code t}, which is the tangent vector turned a
+     * quarter turn counterclockwise (towards the positive y axis for a tangent along the positive x axis). This is
+     * meant for curves drawn in two dimensions, for example to offset them.
+     */
+    public PVector normal(float t) {
+        PVector derivative = derivative(t);
+        return new PVector(-derivative.y, derivative.x).normalize();
+    }
+
+    /**
+     * Gives the length of the curve.
+     *
+     * @see #tAtLength(float)
+     */
+    public float getLength() {
+        getArcLengths();
+        return arcLengths[arcLengths.length - 1];
+    }
+
+    /**
+     * Gives the length of the curve from its start up to t={@code t}. Times outside the knot vector are clamped to it.
+     *
+     * @see #tAtLength(float)
+     */
+    public float lengthAt(float t) {
+        t = clampToKnots(t);
+        getArcLengths();
+        int piece = findPiece(arcLengthTimes, t);
+        return arcLengths[piece] + integrateSpeed(arcLengthTimes[piece], t);
+    }
+
+    /**
+     * Gives the time at which the curve has length {@code length} from its start, so that moving {@code length} at a
+     * constant speed gives a constant speed along the curve. Lengths outside the curve are clamped to it.
+     * <p>
+     * The lengths are looked up in a table, with the length of the curve up to the ends of a fixed number of pieces of
+     * every knot span, integrated with Gauss-Legendre quadrature. The table is made when it is first needed and thrown
+     * away by the setters. A lookup is a binary search for the piece followed by a few steps of Newton's method within
+     * it, so it takes logarithmic time in the number of knot spans.
+     *
+     * @param length The length from the start of the curve
+     * @return The time
+     */
+    public float tAtLength(float length) {
+        getArcLengths();
+        float[] times = arcLengthTimes;
+        int pieces = times.length - 1;
+        length = Math.max(0, Math.min(arcLengths[pieces], length));
+        int piece = Math.min(findPiece(arcLengths, length), pieces - 1);
+
+        float from = times[piece], to = times[piece + 1];
+        float target = length - arcLengths[piece];
+        float pieceLength = arcLengths[piece + 1] - arcLengths[piece];
+        if (pieceLength <= 0) {
+            return from;
+        }
+        // Newton's method on the length within the piece, falling back to bisection when it jumps out of the bracket.
+        float lo = from, hi = to;
+        float t = from + (to - from) * target / pieceLength;
+        for (int i = 0; i < 16; i++) {
+            float error = integrateSpeed(from, t) - target;
+            if (Math.abs(error) <= 1e-6f * pieceLength) {
+                break;
+            }
+            if (error > 0) {
+                hi = t;
+            } else {
+                lo = t;
+            }
+            float speed = speed(t);
+            float next = (speed > 0) ? t - error / speed : lo - 1;
+            t = (lo < next && next < hi) ? next : (lo + hi) / 2;
+        }
+        return t;
+    }
+
+    /**
+     * Gives the value of the nurbs at length {@code length} from its start, see {@link #tAtLength(float)}.
+     */
+    public PVector evaluateAtLength(float length) {
+        return evaluate(tAtLength(length));
+    }
+
+    /**
+     * Evaluates the nurbs at all lengths in {@code lengths} from its start and writes the coordinates of the results to
+     * {@code out}, see {@link #tAtLength(float)} and {@link #evaluate(float[], float[], int, int)}.
+     *
+     * @param lengths The lengths from the start of the curve to evaluate the nurbs at
+     * @param out The array to write the x, y and z coordinates of the results to
+     * @param offset The index in {@code out} of the x coordinate of the first result
+     * @param stride The distance in {@code out} between the x coordinates of consecutive results, at least 3
+     */
+    public void evaluateAtLength(float[] lengths, float[] out, int offset, int stride) {
+        float[] ts = new float[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            ts[i] = tAtLength(lengths[i]);
+        }
+        evaluate(ts, out, offset, stride);
+    }
+
+    /**
+     * Brings the arc length table up to date.
+     */
+    private void getArcLengths() {
+        if (arcLengths != null) {
+            return;
+        }
+        int spans = 0;
+        for (int k = 0; k < knotVector.length - 1; k++) {
+            if (knotVector[k] < knotVector[k + 1]) {
+                spans++;
+            }
+        }
+        float[] times = new float[spans * ARC_LENGTH_PIECES + 1];
+        float[] lengths = new float[times.length];
+        times[0] = knotVector[0];
+        double total = 0;
+        int piece = 0;
+        for (int k = 0; k < knotVector.length - 1; k++) {
+            if (knotVector[k] == knotVector[k + 1]) {
+                continue;
+            }
+            for (int i = 1; i <= ARC_LENGTH_PIECES; i++) {
+                float to = (i == ARC_LENGTH_PIECES) ? knotVector[k + 1] : knotVector[k] + (knotVector[k + 1] - knotVector[k]) * i / ARC_LENGTH_PIECES;
+                total += integrateSpeed(times[piece], to);
+                times[++piece] = to;
+                lengths[piece] = (float) total;
+            }
+        }
+        arcLengthTimes = times;
+        arcLengths = lengths;
+    }
+
+    /**
+     * Gives the last index in a nondecreasing array whose value is at most {@code value}, or 0 if there is none.
+     */
+    private static int findPiece(float[] values, float value) {
+        int lo = 0, hi = values.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (values[mid] <= value) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
 
-        float[] basisWeights = new float[degree + 1];
-        float basisWeightsSum = 0;
-        for (int i = Math.max(degree - knot, 0); i <= degree; i++) {
-            basisWeightsSum += basisWeights[i] = basisFunctionValues[i] * weights[i + knot - degree];
+    /**
+     * Integrates the speed of the curve from t={@code from} till t={@code to}, which lie within a single knot span, with
+     * five-point Gauss-Legendre quadrature.
+     */
+    private float integrateSpeed(float from, float to) {
+        float half = (to - from) / 2;
+        float middle = (from + to) / 2;
+        float sum = 0;
+        for (int i = 0; i < GAUSS_NODES.length; i++) {
+            sum += GAUSS_WEIGHTS[i] * speed(middle + half * GAUSS_NODES[i]);
         }
-        PVector result = new PVector();
-        for (int i = Math.max(degree - knot, 0); i <= degree; i++) {
-            result = PVector.add(result, PVector.mult(points[i + knot - degree], basisWeights[i] / basisWeightsSum));
+        return sum * half;
+    }
+
+    /**
+     * Gives the length of the derivative of the nurbs at t={@code t}, which lies within the knot vector.
+     */
+    private float speed(float t) {
+        derivative(t, pointDerivative);
+        float x = pointDerivative[0], y = pointDerivative[1], z = pointDerivative[2];
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * Evaluates the nurbs at all times in {@code ts} and writes the coordinates of the results to {@code out}.
+     * Times outside the knot vector are clamped to it. Consecutive times are looked up starting from the knot span of the
+     * previous one, so sorted input sweeps over the knot vector only once.
+     *
+     * @param ts The times to evaluate the nurbs at
+     * @param out The array to write the x, y and z coordinates of the results to
+     * @param offset The index in {@code out} of the x coordinate of the first result
+     * @param stride The distance in {@code out} between the x coordinates of consecutive results, at least 3
+     */
+    public void evaluate(float[] ts, float[] out, int offset, int stride) {
+        checkBatchBounds(ts.length, out.length, offset, stride);
+        long start = metrics().start();
+        for (int from = 0; from < ts.length; from += BATCH_SIZE) {
+            evaluateBatch(ts, from, Math.min(BATCH_SIZE, ts.length - from), out, offset + from * stride, stride);
         }
-        return result;
+        metrics().batchEvaluated(start);
+    }
+
+    /**
+     * Evaluates the nurbs at all times in {@code ts} and writes the coordinates of the results to {@code out}, using
+     * absolute indices so the position of the buffer is left alone.
+     *
+     * @param ts The times to evaluate the nurbs at
+     * @param out The buffer to write the x, y and z coordinates of the results to
+     * @param offset The index in {@code out} of the x coordinate of the first result
+     * @param stride The distance in {@code out} between the x coordinates of consecutive results, at least 3
+     * @see #evaluate(float[], float[], int, int)
+     */
+    public void evaluate(float[] ts, FloatBuffer out, int offset, int stride) {
+        checkBatchBounds(ts.length, out.limit(), offset, stride);
+        long start = metrics().start();
+        for (int from = 0; from < ts.length; from += BATCH_SIZE) {
+            int count = Math.min(BATCH_SIZE, ts.length - from);
+            if (batchOut == null) {
+                batchOut = new float[3 * BATCH_SIZE];
+            }
+            evaluateBatch(ts, from, count, batchOut, 0, 3);
+            for (int i = 0; i < count; i++) {
+                int index = offset + (from + i) * stride;
+                out.put(index, batchOut[3 * i]);
+                out.put(index + 1, batchOut[3 * i + 1]);
+                out.put(index + 2, batchOut[3 * i + 2]);
+            }
+        }
+        metrics().batchEvaluated(start);
+    }
+
+    /**
+     * Evaluates the nurbs at the {@code count} times in {@code ts} from index {@code from}, at most {@link #BATCH_SIZE}
+     * of them, and writes the coordinates of the results to {@code out}. The basis functions and weighted sums are left
+     * to the {@link EvaluationKernel}, which handles several times at once where the processor allows it.
+     */
+    private void evaluateBatch(float[] ts, int from, int count, float[] out, int offset, int stride) {
+        if (precompiled) {
+            for (int i = 0; i < count; i++) {
+                float t = clampToKnots(ts[from + i]);
+                lastSpan = findSpan(t, knotVector, lastSpan);
+                evaluate(t, lastSpan, out, offset + i * stride);
+            }
+            return;
+        }
+
+        if (batchSpans == null) {
+            batchParameters = new float[BATCH_SIZE];
+            batchSpans = new int[BATCH_SIZE];
+            batchBasisValues = new float[BATCH_SIZE * (degree + 1)];
+        }
+        for (int i = 0; i < count; i++) {
+            float t = clampToKnots(ts[from + i]);
+            lastSpan = findSpan(t, knotVector, lastSpan);
+            batchParameters[i] = t;
+            batchSpans[i] = lastSpan;
+        }
+        EvaluationKernel.INSTANCE.basisValues(knotVector, degree, batchParameters, batchSpans, 0, count - 1, batchBasisValues);
+        EvaluationKernel.INSTANCE.combine(controlNet, degree, batchSpans, batchBasisValues, 0, count - 1, out, offset, stride);
+        metrics().evaluated(count);
+        metrics().basisComputed(count);
+    }
+
+    /**
+     * Writes the coordinates of the nurbs at t={@code t} with {@code t} in knot span {@code knot} to {@code out}, without checking the arguments.
+     */
+    private void evaluate(float t, int knot, float[] out, int offset) {
+        metrics().evaluated(1);
+        if (precompiled) {
+            float[] coefficients = getSpanCoefficients(knot);
+            float r = (t - knotVector[knot]) / (knotVector[knot + 1] - knotVector[knot]);
+            float x = coefficients[4 * degree], y = coefficients[4 * degree + 1];
+            float z = coefficients[4 * degree + 2], w = coefficients[4 * degree + 3];
+            for (int k = 4 * (degree - 1); k >= 0; k -= 4) {
+                x = x * r + coefficients[k];
+                y = y * r + coefficients[k + 1];
+                z = z * r + coefficients[k + 2];
+                w = w * r + coefficients[k + 3];
+            }
+            out[offset] = x / w;
+            out[offset + 1] = y / w;
+            out[offset + 2] = z / w;
+            return;
+        }
+
+        calcBasisFunctionValues(knot, t, degree, knotVector, basisValues, basisScratch);
+        metrics().basisComputed(1);
+
+        combine(controlNet, knot, degree, basisValues, 0, out, offset);
+    }
+
+    /**
+     * Gives the power basis coefficients of the curve on knot span {@code knot}, calculating them if needed.
+     */
+    private float[] getSpanCoefficients(int knot) {
+        if (spanCoefficients == null) {
+            spanCoefficients = new float[knotVector.length][];
+        }
+        float[] coefficients = spanCoefficients[knot];
+        metrics().cacheLookup(coefficients != null);
+        if (coefficients == null) {
+            float[] points = new float[4 * (degree + 1)];
+            int from = Math.max(knot - degree, 0);
+            int to = Math.min(knot, pointCount - 1);
+            System.arraycopy(controlNet, 4 * from, points, 4 * (from - knot + degree), 4 * (to - from + 1));
+
+            coefficients = new float[4 * (degree + 1)];
+            calcPowerBasis(points, 4, knotVector, degree, knot, coefficients, new float[4 * (degree + 1)]);
+            spanCoefficients[knot] = coefficients;
+        }
+        return coefficients;
+    }
+
+    /**
+     * Sets whether single evaluations, through {@link #evaluate(float)} and the batch variants, use a precompiled form
+     * of the curve. In that form, every knot span keeps the coefficients of the curve as a polynomial, so an evaluation
+     * is a knot span lookup and Horner's scheme instead of calculating the basis functions. The coefficients of a span
+     * are calculated when it is first evaluated, and thrown away when the setters change a control point that influences
+     * it. This pays off for many scattered evaluations; drawing is not affected.
+     *
+     * @param precompiled Whether to use the precompiled form, which is off by default
+     */
+    public void setPrecompiled(boolean precompiled) {
+        this.precompiled = precompiled;
+        if (!precompiled) {
+            spanCoefficients = null;
+        }
+    }
+
+    /**
+     * Gives a box that contains the whole curve: the bounding box of the control points that influence its nonempty
+     * knot spans. It is cached, and only the knot spans whose control points changed are looked at again.
+     */
+    public BoundingBox getBoundingBox() {
+        return BoundingBox.of(getBounds(), 0);
+    }
+
+    /**
+     * Gives a box that contains the part of the curve on knot span {@code knot}: the bounding box of the control points
+     * that influence it.
+     */
+    public BoundingBox getSpanBoundingBox(int knot) {
+        if (knot < 0 || knotVector.length <= knot + 1) {
+            throw new IllegalArgumentException("Knot out of bounds.");
+        }
+        return BoundingBox.of(getSpanBounds(knot), 6 * knot);
+    }
+
+    /**
+     * Gives the bounding box of the whole curve, as six floats from index 0.
+     */
+    private float[] getBounds() {
+        if (bounds == null) {
+            float[] bounds = new float[6];
+            clearBounds(bounds, 0);
+            for (int knot = 0; knot < knotVector.length - 1; knot++) {
+                if (knotVector[knot] < knotVector[knot + 1]) {
+                    includeBounds(getSpanBounds(knot), 6 * knot, bounds, 0);
+                }
+            }
+            this.bounds = bounds;
+        }
+        return bounds;
+    }
+
+    /**
+     * Gives the bounding boxes of the knot spans, with the one of {@code knot} from index {@code 6 * knot} up to date.
+     */
+    private float[] getSpanBounds(int knot) {
+        if (spanBounds == null) {
+            spanBounds = new float[6 * knotVector.length];
+            validSpanBounds = new boolean[knotVector.length];
+        }
+        if (!validSpanBounds[knot]) {
+            clearBounds(spanBounds, 6 * knot);
+            for (int i = Math.max(knot - degree, 0); i <= Math.min(knot, pointCount - 1); i++) {
+                includeControlPoint(controlNet, i, spanBounds, 6 * knot);
+            }
+            validSpanBounds[knot] = true;
+        }
+        return spanBounds;
+    }
+
+    private float clampToKnots(float t) {
+        return Math.max(knotVector[0], Math.min(knotVector[knotVector.length - 1], t));
+    }
+
+    /**
+     * Publishes the current state of the curve as an immutable snapshot, unless it already is the last published one.
+     * The snapshot shares the control net with the curve, which copies it before the next change, so a series of
+     * changes between two calls costs a single copy. Publishing is a single atomic swap, after which
+     * {@link #getSnapshot()} gives the new snapshot on every thread.
+     * <p>
+     * The curve itself is not thread-safe: one thread changes (and may draw) it, and other threads evaluate the
+     * snapshots it publishes.
+     *
+     * @return The published snapshot
+     */
+    public CurveSnapshot publish() {
+        CurveSnapshot published = snapshot.get();
+        if (published.getVersion() != version) {
+            published = new CurveSnapshot(controlNet, knotVector, degree, version);
+            netShared = true;
+            snapshot.set(published);
+        }
+        return published;
+    }
+
+    /**
+     * Gives the last snapshot published by {@link #publish()}, or the initial state of the curve if none was published
+     * yet. This can be called from any thread.
+     */
+    public CurveSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Gives the control net for changing it, copying it first if it is shared with a snapshot.
+     */
+    private float[] writableNet() {
+        if (netShared) {
+            controlNet = controlNet.clone();
+            netShared = false;
+        }
+        return controlNet;
+    }
+
+    public PVector getPoint(int index) {
+        if (index < 0 || pointCount <= index) {
+            throw new IllegalArgumentException("Index out of bounds");
+        }
+        return getControlPoint(controlNet, index);
+    }
+
+    public float getWeight(int index) {
+        if (index < 0 || pointCount <= index) {
+            throw new IllegalArgumentException("Index out of bounds");
+        }
+        return controlNet[4 * index + 3];
     }
 
     public void setPoint(int index, PVector point) {
-        if (index < 0 || points.length <= index) {
+        if (index < 0 || pointCount <= index) {
             throw new IllegalArgumentException("Index out of bounds");
         }
-        points[index] = point;
+        setControlPoint(writableNet(), index, point, controlNet[4 * index + 3]);
+        modified(index, index);
     }
 
     public void setPoints(PVector[] points) {
-        if (this.points.length != points.length) {
+        if (pointCount != points.length) {
             throw new IllegalArgumentException("The old points array is not the same length as the new one.");
         }
-        this.points = points;
+        float[] controlNet = writableNet();
+        for (int i = 0; i < pointCount; i++) {
+            setControlPoint(controlNet, i, points[i], controlNet[4 * i + 3]);
+        }
+        modified(0, pointCount - 1);
     }
 
     public void setWeight(int index, float weight) {
-        if (index < 0 || weights.length <= index) {
+        if (index < 0 || pointCount <= index) {
             throw new IllegalArgumentException("Index out of bounds");
         }
-        weights[index] = weight;
+        setControlWeight(writableNet(), index, weight);
+        modified(index, index);
     }
 
     public void setWeights(float[] weights) {
-        if (this.weights.length != weights.length) {
+        if (pointCount != weights.length) {
             throw new IllegalArgumentException("The old weights array is not the same length as the new one.");
         }
-        this.weights = weights;
+        for (float weight : weights) {
+            checkWeight(weight);
+        }
+        float[] controlNet = writableNet();
+        for (int i = 0; i < pointCount; i++) {
+            setControlWeight(controlNet, i, weights[i]);
+        }
+        modified(0, pointCount - 1);
+    }
+
+    /**
+     * Registers a change to control points {@code from} till {@code to}.
+     */
+    private void modified(int from, int to) {
+        version++;
+        dirtyFrom = Math.min(dirtyFrom, from);
+        dirtyTo = Math.max(dirtyTo, to);
+        if (spanCoefficients != null) {
+            // Control point i only influences knot spans i till i + degree.
+            Arrays.fill(spanCoefficients, from, Math.min(to + degree + 1, spanCoefficients.length), null);
+        }
+        if (validSpanBounds != null) {
+            Arrays.fill(validSpanBounds, from, Math.min(to + degree + 1, validSpanBounds.length), false);
+        }
+        bounds = null;
+        arcLengths = null;
     }
 
 }
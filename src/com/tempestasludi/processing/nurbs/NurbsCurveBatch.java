@@ -0,0 +1,350 @@
+package com.tempestasludi.processing.nurbs;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PShape;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A collection of curves that are drawn together as a single shape of {@link PConstants#LINES}, instead of a shape for
+ * every curve. The tessellations of all curves are kept in one array, and a curve is only tessellated again when it
+ * was changed through its setters or its number of steps changed. Every curve can be hidden and given its own stroke
+ * color.
+ * <p>
+ * Curve {@code i} is the {@code i}-th curve that was added.
+ */
+public class NurbsCurveBatch {
+    private final List<NurbsCurve> curves = new ArrayList<>();
+    private int[] steps = new int[16];
+    private boolean[] visible = new boolean[16];
+    private boolean[] colored = new boolean[16];
+    private int[] colors = new int[16];
+
+    /**
+     * The version of every curve that its segments in {@code positions} were made for, and whether they are there at
+     * all.
+     */
+    private int[] versions = new int[16];
+    private boolean[] tessellated = new boolean[16];
+
+    /**
+     * The vertices of the line segments of all curves, two for every segment with three floats each, with the segments
+     * of curve {@code i} starting at vertex {@code offsets[i]}. The layout is out of date when curves are added or
+     * their numbers of steps change.
+     */
+    private float[] positions = new float[0];
+    private int[] offsets = new int[17];
+    private boolean layoutValid = true;
+
+    /**
+     * The number of changes to the curves that are drawn, their colors and the layout, after which the retained shape
+     * has to be made again.
+     */
+    private int structureVersion;
+
+    /**
+     * The cached retained shape, with the graphics context and structure version it was made for, the vertex in it of
+     * the first segment of every curve, and the version of every curve whose vertices it holds.
+     */
+    private PShape shape;
+    private PGraphics shapeGraphics;
+    private int shapeStructureVersion;
+    private int[] shapeOffsets;
+    private int[] shapeVersions;
+
+    /**
+     * Adds a curve to the batch, visible and without a color of its own.
+     *
+     * @param curve The curve to add
+     * @param steps The number of steps to subdivide the curve into
+     * @return The index of the curve in the batch
+     */
+    public int add(NurbsCurve curve, int steps) {
+        int index = curves.size();
+        if (index == this.steps.length) {
+            int capacity = 2 * index;
+            this.steps = Arrays.copyOf(this.steps, capacity);
+            visible = Arrays.copyOf(visible, capacity);
+            colored = Arrays.copyOf(colored, capacity);
+            colors = Arrays.copyOf(colors, capacity);
+            versions = Arrays.copyOf(versions, capacity);
+            tessellated = Arrays.copyOf(tessellated, capacity);
+        }
+        curves.add(curve);
+        this.steps[index] = steps;
+        visible[index] = true;
+        colored[index] = false;
+        tessellated[index] = false;
+        layoutValid = false;
+        return index;
+    }
+
+    /**
+     * The number of curves in the batch.
+     */
+    public int size() {
+        return curves.size();
+    }
+
+    public NurbsCurve get(int index) {
+        checkIndex(index);
+        return curves.get(index);
+    }
+
+    /**
+     * Sets the number of steps to subdivide a curve into.
+     */
+    public void setSteps(int index, int steps) {
+        checkIndex(index);
+        if (this.steps[index] != steps) {
+            this.steps[index] = steps;
+            tessellated[index] = false;
+            layoutValid = false;
+        }
+    }
+
+    /**
+     * Sets whether a curve is drawn. Hidden curves are not tessellated again until they are visible.
+     */
+    public void setVisible(int index, boolean visible) {
+        checkIndex(index);
+        if (this.visible[index] != visible) {
+            this.visible[index] = visible;
+            structureVersion++;
+        }
+    }
+
+    public boolean isVisible(int index) {
+        checkIndex(index);
+        return visible[index];
+    }
+
+    /**
+     * Sets the stroke color of a curve, which it is drawn with instead of the stroke of the graphics context.
+     *
+     * @param index The index of the curve
+     * @param color The color, as given by {@code color()} in a sketch
+     */
+    public void setColor(int index, int color) {
+        checkIndex(index);
+        colored[index] = true;
+        colors[index] = color;
+        structureVersion++;
+    }
+
+    /**
+     * Lets a curve be drawn with the stroke of the graphics context again.
+     */
+    public void clearColor(int index) {
+        checkIndex(index);
+        if (colored[index]) {
+            colored[index] = false;
+            structureVersion++;
+        }
+    }
+
+    /**
+     * Draws all visible curves as a single shape of line segments.
+     *
+     * @param g The graphics context to draw with
+     */
+    public void draw(PGraphics g) {
+        update();
+        boolean anyColored = anyColored();
+        if (anyColored) {
+            g.pushStyle();
+        }
+        // Curves without a color of their own use the stroke of the context, also after a curve that has one.
+        boolean contextStroke = g.stroke;
+        int contextStrokeColor = g.strokeColor;
+        boolean strokeChanged = false;
+        g.beginShape(PConstants.LINES);
+        for (int i = 0; i < curves.size(); i++) {
+            if (!visible[i]) {
+                continue;
+            }
+            if (colored[i]) {
+                g.stroke(colors[i]);
+                strokeChanged = true;
+            } else if (strokeChanged) {
+                if (contextStroke) {
+                    g.stroke(contextStrokeColor);
+                } else {
+                    g.noStroke();
+                }
+                strokeChanged = false;
+            }
+            for (int v = offsets[i]; v < offsets[i + 1]; v++) {
+                if (g.is3D()) {
+                    g.vertex(positions[3 * v], positions[3 * v + 1], positions[3 * v + 2]);
+                } else {
+                    g.vertex(positions[3 * v], positions[3 * v + 1]);
+                }
+            }
+        }
+        g.endShape();
+        if (anyColored) {
+            g.popStyle();
+        }
+    }
+
+    /**
+     * Tessellates all visible curves into a line strip for every curve.
+     *
+     * @param sink The sink to send the vertices to
+     */
+    public void draw(VertexSink sink) {
+        update();
+        for (int i = 0; i < curves.size(); i++) {
+            if (!visible[i] || offsets[i] == offsets[i + 1]) {
+                continue;
+            }
+            // Consecutive segments share their vertices, so the strip is the first vertex of every segment and the end.
+            sink.beginLine();
+            for (int v = offsets[i]; v < offsets[i + 1]; v += 2) {
+                sink.vertex(positions[3 * v], positions[3 * v + 1], positions[3 * v + 2]);
+            }
+            int last = offsets[i + 1] - 1;
+            sink.vertex(positions[3 * last], positions[3 * last + 1], positions[3 * last + 2]);
+            sink.end();
+        }
+    }
+
+    /**
+     * Draws the batch like {@link #draw(PGraphics)}, but by replaying the cached shape of {@link #getShape(PGraphics)}.
+     *
+     * @param g The graphics context to draw with
+     */
+    public void drawRetained(PGraphics g) {
+        g.shape(getShape(g));
+    }
+
+    /**
+     * Gives a retained shape of line segments of all visible curves. The shape is cached: when only control points of
+     * curves changed, just the vertices of those curves are moved, and it is only made again when the graphics
+     * context, the visible curves, their colors or their numbers of steps change. Unless a curve has a color of its own,
+     * the style of the shape is disabled, so it takes the style of the context it is drawn with. Otherwise the curves
+     * without a color get the stroke that {@code g} had when the shape was made.
+     *
+     * @param g The graphics context to create the shape with
+     * @return The cached shape
+     */
+    public PShape getShape(PGraphics g) {
+        update();
+        if (shape == null || shapeGraphics != g || shapeStructureVersion != structureVersion) {
+            boolean anyColored = anyColored();
+            boolean strokeChanged = false;
+            shape = g.createShape();
+            shape.beginShape(PConstants.LINES);
+            shapeOffsets = new int[curves.size()];
+            shapeVersions = Arrays.copyOf(versions, curves.size());
+            int count = 0;
+            for (int i = 0; i < curves.size(); i++) {
+                shapeOffsets[i] = count;
+                if (!visible[i]) {
+                    continue;
+                }
+                if (colored[i]) {
+                    shape.stroke(colors[i]);
+                    strokeChanged = true;
+                } else if (strokeChanged) {
+                    if (g.stroke) {
+                        shape.stroke(g.strokeColor);
+                    } else {
+                        shape.noStroke();
+                    }
+                    strokeChanged = false;
+                }
+                for (int v = offsets[i]; v < offsets[i + 1]; v++) {
+                    if (g.is3D()) {
+                        shape.vertex(positions[3 * v], positions[3 * v + 1], positions[3 * v + 2]);
+                    } else {
+                        shape.vertex(positions[3 * v], positions[3 * v + 1]);
+                    }
+                }
+                count += offsets[i + 1] - offsets[i];
+            }
+            shape.endShape();
+            if (!anyColored) {
+                shape.disableStyle();
+            }
+            shapeGraphics = g;
+            shapeStructureVersion = structureVersion;
+            return shape;
+        }
+
+        for (int i = 0; i < curves.size(); i++) {
+            if (!visible[i] || shapeVersions[i] == versions[i]) {
+                continue;
+            }
+            for (int v = offsets[i]; v < offsets[i + 1]; v++) {
+                int vertex = shapeOffsets[i] + v - offsets[i];
+                if (g.is3D()) {
+                    shape.setVertex(vertex, positions[3 * v], positions[3 * v + 1], positions[3 * v + 2]);
+                } else {
+                    shape.setVertex(vertex, positions[3 * v], positions[3 * v + 1]);
+                }
+            }
+            shapeVersions[i] = versions[i];
+        }
+        return shape;
+    }
+
+    /**
+     * Brings the segments of all visible curves up to date, laying out the array of segments again if needed.
+     */
+    private void update() {
+        int count = curves.size();
+        if (!layoutValid) {
+            int[] offsets = new int[count + 1];
+            for (int i = 0; i < count; i++) {
+                int vertices = curves.get(i).getVertexCount(steps[i]);
+                offsets[i + 1] = offsets[i] + 2 * Math.max(vertices - 1, 0);
+            }
+            float[] positions = new float[3 * offsets[count]];
+            for (int i = 0; i < count; i++) {
+                // Segments that were already tessellated keep their vertices, wherever they move to.
+                if (tessellated[i]) {
+                    System.arraycopy(this.positions, 3 * this.offsets[i], positions, 3 * offsets[i], 3 * (offsets[i + 1] - offsets[i]));
+                }
+            }
+            this.offsets = offsets;
+            this.positions = positions;
+            layoutValid = true;
+            structureVersion++;
+        }
+
+        for (int i = 0; i < count; i++) {
+            NurbsCurve curve = curves.get(i);
+            if (!visible[i] || (tessellated[i] && versions[i] == curve.getVersion())) {
+                continue;
+            }
+            float[] vertices = curve.getVertices(steps[i]);
+            int v = offsets[i];
+            for (int j = 3; j < vertices.length; j += 3) {
+                System.arraycopy(vertices, j - 3, positions, 3 * v, 6);
+                v += 2;
+            }
+            versions[i] = curve.getVersion();
+            tessellated[i] = true;
+        }
+    }
+
+    private boolean anyColored() {
+        for (int i = 0; i < curves.size(); i++) {
+            if (visible[i] && colored[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || curves.size() <= index) {
+            throw new IllegalArgumentException("Index out of bounds");
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.tempestasludi.processing.nurbs;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file of curves and surfaces in the binary format of {@link NurbsFileWriter}, which is mapped into memory instead of
+ * read. Opening the file only reads its trailer: a curve or surface is only made from its record the first time it is
+ * asked for, and then kept, so the time and memory it takes depend on the nurbs that are used rather than on the size
+ * of the file. Making a nurbs copies its knots and control net from the mapped file in bulk, without creating any
+ * {@link processing.core.PVector}s.
+ * <p>
+ * Files of up to 2 GB can be mapped. Like the nurbs it gives, a file should only be used from one thread at a time.
+ */
+public class NurbsFile {
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The whole file as floats, which all start at a multiple of four bytes.
+     */
+    private final FloatBuffer floats;
+    private final long indexOffset;
+    private final NurbsCurve[] curves;
+    private final NurbsSurface[] surfaces;
+
+    private NurbsFile(MappedByteBuffer buffer, long indexOffset, int curveCount, int surfaceCount) {
+        this.buffer = buffer;
+        this.floats = buffer.asFloatBuffer();
+        this.indexOffset = indexOffset;
+        this.curves = new NurbsCurve[curveCount];
+        this.surfaces = new NurbsSurface[surfaceCount];
+    }
+
+    /**
+     * Maps a file written by {@link NurbsFileWriter} into memory.
+     *
+     * @param path The file to open
+     * @return The opened file
+     * @throws IOException If the file can not be read, or is not a nurbs file
+     */
+    public static NurbsFile open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Nurbs files larger than 2 GB are not supported");
+            }
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int size = buffer.limit();
+        if (size < NurbsFileWriter.HEADER_SIZE + NurbsFileWriter.TRAILER_SIZE || buffer.getInt(0) != NurbsFileWriter.MAGIC) {
+            throw new IOException("Not a nurbs file");
+        }
+        if (buffer.getInt(4) != NurbsFileWriter.FORMAT_VERSION) {
+            throw new IOException("Unsupported nurbs file version " + buffer.getInt(4));
+        }
+        int trailer = size - NurbsFileWriter.TRAILER_SIZE;
+        long indexOffset = buffer.getLong(trailer);
+        int curveCount = buffer.getInt(trailer + 8);
+        int surfaceCount = buffer.getInt(trailer + 12);
+        if (curveCount < 0 || surfaceCount < 0 || indexOffset < NurbsFileWriter.HEADER_SIZE
+                || indexOffset + 8L * (curveCount + surfaceCount) != trailer) {
+            throw new IOException("The nurbs file is corrupt");
+        }
+        return new NurbsFile(buffer, indexOffset, curveCount, surfaceCount);
+    }
+
+    public int getCurveCount() {
+        return curves.length;
+    }
+
+    public int getSurfaceCount() {
+        return surfaces.length;
+    }
+
+    /**
+     * Gives a curve of the file, making it from its record if it was not asked for before. Changes to the curve do
+     * not change the file.
+     *
+     * @param index The index of the curve, in the order the curves were written
+     * @return The curve
+     */
+    public NurbsCurve getCurve(int index) {
+        if (index < 0 || curves.length <= index) {
+            throw new IllegalArgumentException("Index out of bounds");
+        }
+        if (curves[index] == null) {
+            int offset = recordOffset(index);
+            int pointCount = buffer.getInt(offset);
+            int knotCount = buffer.getInt(offset + 4);
+            checkRecord(offset + 8, knotCount, 4L * pointCount);
+            float[] knotVector = getFloats(offset + 8, knotCount);
+            float[] controlNet = getFloats(offset + 8 + 4 * knotCount, 4 * pointCount);
+            curves[index] = new NurbsCurve(controlNet, knotVector);
+        }
+        return curves[index];
+    }
+
+    /**
+     * Gives a surface of the file, making it from its record if it was not asked for before. Changes to the surface do
+     * not change the file.
+     *
+     * @param index The index of the surface, in the order the surfaces were written
+     * @return The surface
+     */
+    public NurbsSurface getSurface(int index) {
+        if (index < 0 || surfaces.length <= index) {
+            throw new IllegalArgumentException("Index out of bounds");
+        }
+        if (surfaces[index] == null) {
+            int offset = recordOffset(curves.length + index);
+            int sCount = buffer.getInt(offset);
+            int tCount = buffer.getInt(offset + 4);
+            int sKnotCount = buffer.getInt(offset + 8);
+            int tKnotCount = buffer.getInt(offset + 12);
+            if (sCount < 0 || tCount < 0) {
+                throw new IllegalStateException("The nurbs file is corrupt");
+            }
+            checkRecord(offset + 16, sKnotCount, tKnotCount, 4L * sCount * tCount);
+            float[] sKnotVector = getFloats(offset + 16, sKnotCount);
+            float[] tKnotVector = getFloats(offset + 16 + 4 * sKnotCount, tKnotCount);
+            float[] controlNet = getFloats(offset + 16 + 4 * (sKnotCount + tKnotCount), 4 * sCount * tCount);
+            surfaces[index] = new NurbsSurface(controlNet, sCount, tCount, sKnotVector, tKnotVector);
+        }
+        return surfaces[index];
+    }
+
+    /**
+     * Gives the position of record {@code index} of the index, which has the curves first and then the surfaces.
+     */
+    private int recordOffset(int index) {
+        long offset = buffer.getLong((int) (indexOffset + 8L * index));
+        if (offset < NurbsFileWriter.HEADER_SIZE || offset >= indexOffset) {
+            throw new IllegalStateException("The nurbs file is corrupt");
+        }
+        return (int) offset;
+    }
+
+    /**
+     * Checks that arrays of the given numbers of floats starting at {@code offset} are before the index.
+     */
+    private void checkRecord(int offset, long... counts) {
+        long end = offset;
+        for (long count : counts) {
+            if (count < 0) {
+                throw new IllegalStateException("The nurbs file is corrupt");
+            }
+            end += 4 * count;
+        }
+        if (end > indexOffset) {
+            throw new IllegalStateException("The nurbs file is corrupt");
+        }
+    }
+
+    private float[] getFloats(int offset, int count) {
+        float[] values = new float[count];
+        floats.get(offset / 4, values);
+        return values;
+    }
+}
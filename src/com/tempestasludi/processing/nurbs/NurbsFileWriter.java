@@ -0,0 +1,166 @@
+package com.tempestasludi.processing.nurbs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes curves and surfaces to a file in the binary format that {@link NurbsFile} reads. Records are written as they
+ * are given, so the nurbs do not have to be kept in memory; the index of the records is written when the writer is
+ * closed.
+ * <p>
+ * The file is little-endian, and consists of
+ * <ul>
+ *     <li>the header: the magic number {@code NURB} as an int and the version of the format as an int;</li>
+ *     <li>the records of the curves and surfaces, in the order they were written. A curve record has the number of
+ *     control points and the number of knots as ints, followed by the knots and the packed control net (see
+ *     {@link Nurbs}) as floats. A surface record has the numbers of control points in both directions and the numbers
+ *     of knots of both knot vectors as ints, followed by both knot vectors and the packed control net, with point
+ *     {@code (i, j)} at index {@code i * tCount + j};</li>
+ *     <li>the index: the positions of the records of the curves and then of the surfaces as longs;</li>
+ *     <li>the trailer: the position of the index as a long and the numbers of curves and surfaces as ints.</li>
+ * </ul>
+ */
+public class NurbsFileWriter implements Closeable {
+    static final int MAGIC = 0x4E555242;
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int TRAILER_SIZE = 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The number of bytes that were written to the channel, not counting those still in the buffer.
+     */
+    private long written;
+
+    private long[] curveOffsets = new long[16];
+    private int curveCount;
+    private long[] surfaceOffsets = new long[16];
+    private int surfaceCount;
+
+    /**
+     * Creates a writer that writes to the given file, replacing it if it exists.
+     *
+     * @param path The file to write to
+     * @throws IOException If the file can not be opened
+     */
+    public NurbsFileWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+    }
+
+    /**
+     * Writes a curve as the next curve of the file.
+     *
+     * @param curve The curve to write
+     * @throws IOException If writing fails
+     */
+    public void write(NurbsCurve curve) throws IOException {
+        if (curveCount == curveOffsets.length) {
+            curveOffsets = Arrays.copyOf(curveOffsets, 2 * curveCount);
+        }
+        curveOffsets[curveCount++] = position();
+        float[] knotVector = curve.getKnotVector();
+        float[] controlNet = curve.getControlNet();
+        putInt(controlNet.length / 4);
+        putInt(knotVector.length);
+        putFloats(knotVector);
+        putFloats(controlNet);
+    }
+
+    /**
+     * Writes a surface as the next surface of the file.
+     *
+     * @param surface The surface to write
+     * @throws IOException If writing fails
+     */
+    public void write(NurbsSurface surface) throws IOException {
+        if (surfaceCount == surfaceOffsets.length) {
+            surfaceOffsets = Arrays.copyOf(surfaceOffsets, 2 * surfaceCount);
+        }
+        surfaceOffsets[surfaceCount++] = position();
+        float[] sKnotVector = surface.getSKnotVector();
+        float[] tKnotVector = surface.getTKnotVector();
+        putInt(surface.getSCount());
+        putInt(surface.getTCount());
+        putInt(sKnotVector.length);
+        putInt(tKnotVector.length);
+        putFloats(sKnotVector);
+        putFloats(tKnotVector);
+        putFloats(surface.getControlNet());
+    }
+
+    /**
+     * Writes the index and closes the file.
+     *
+     * @throws IOException If writing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            long indexOffset = position();
+            for (int i = 0; i < curveCount; i++) {
+                putLong(curveOffsets[i]);
+            }
+            for (int i = 0; i < surfaceCount; i++) {
+                putLong(surfaceOffsets[i]);
+            }
+            putLong(indexOffset);
+            putInt(curveCount);
+            putInt(surfaceCount);
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private long position() {
+        return written + buffer.position();
+    }
+
+    private void putInt(int value) throws IOException {
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    private void putLong(long value) throws IOException {
+        ensureRemaining(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    private void putFloats(float[] values) throws IOException {
+        int from = 0;
+        while (from < values.length) {
+            ensureRemaining(Float.BYTES);
+            int count = Math.min(values.length - from, buffer.remaining() / Float.BYTES);
+            buffer.asFloatBuffer().put(values, from, count);
+            buffer.position(buffer.position() + count * Float.BYTES);
+            from += count;
+        }
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,315 @@
+package com.tempestasludi.processing.nurbs;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings of the work that nurbs do, to tell how much of a frame is spent in this library. Every nurbs
+ * has its own metrics, see {@link Nurbs#getMetrics()}, and everything they record is added to the global metrics of
+ * {@link #getGlobal()} as well.
+ * <p>
+ * Recording is off by default, in which case it costs a single check per call, and a nurbs only makes its own metrics
+ * once recording is on or they are asked for. It is turned on with {@link #setEnabled(boolean)} or by setting the
+ * system property {@value #ENABLED_PROPERTY} to {@code true}. Turning it on also registers the global metrics as an
+ * MXBean named {@value #OBJECT_NAME}, so they can be read with any JMX client. The metrics of a single nurbs can be
+ * registered as well, with {@link #register(String)}.
+ * <p>
+ * The counters are:
+ * <ul>
+ *     <li>evaluations: points of a nurbs calculated by the evaluate methods, one for every parameter (pair) of a batch
+ *     or grid, and by adaptive tessellation; the vertices of the other draw methods are counted as vertices</li>
+ *     <li>basis computations: sets of basis function values calculated, one for every parameter value; the ones that
+ *     sampling plans calculate for drawing are shared between nurbs and only counted globally</li>
+ *     <li>vertices: vertices sent by the draw methods</li>
+ *     <li>cache hits and misses: lookups of tessellated vertices when drawing, and of precompiled coefficients when
+ *     evaluating; a draw misses if any vertex has to be calculated again</li>
+ * </ul>
+ * The latencies are those of the draw methods and of batch and grid evaluation.
+ */
+public final class NurbsMetrics implements NurbsMetricsMXBean {
+    /**
+     * The system property that turns recording on from the start when set to {@code true}.
+     */
+    public static final String ENABLED_PROPERTY = "com.tempestasludi.processing.nurbs.metrics";
+
+    /**
+     * The name under which the global metrics are registered.
+     */
+    public static final String OBJECT_NAME = "com.tempestasludi.processing.nurbs:type=Metrics";
+
+    private static final NurbsMetrics GLOBAL = new NurbsMetrics(null);
+
+    private static volatile boolean enabled;
+    private static boolean globalRegistered;
+
+    static {
+        if (Boolean.getBoolean(ENABLED_PROPERTY)) {
+            enable(true);
+        }
+    }
+
+    /**
+     * The metrics that everything is added to as well, or null for the global metrics.
+     */
+    private final NurbsMetrics parent;
+
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder basisComputations = new LongAdder();
+    private final LongAdder vertices = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LatencyHistogram drawLatency = new LatencyHistogram();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+
+    private ObjectName name;
+
+    NurbsMetrics(NurbsMetrics parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Gives the metrics of all nurbs together.
+     */
+    public static NurbsMetrics getGlobal() {
+        return GLOBAL;
+    }
+
+    /**
+     * Turns recording on or off for all nurbs. The first time it is turned on, the global metrics are registered with
+     * the platform MBean server.
+     */
+    private static synchronized void enable(boolean enabled) {
+        NurbsMetrics.enabled = enabled;
+        if (enabled && !globalRegistered) {
+            globalRegistered = true;
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(GLOBAL, new ObjectName(OBJECT_NAME));
+            } catch (InstanceAlreadyExistsException e) {
+                // Another copy of the library, loaded by another class loader, registered its metrics first.
+            } catch (JMException e) {
+                throw new IllegalStateException("Could not register the metrics.", e);
+            }
+        }
+    }
+
+    /**
+     * Gives whether recording is on, without needing any metrics.
+     */
+    static boolean isRecording() {
+        return enabled;
+    }
+
+    /**
+     * Gives whether recording is on. This is the same for all metrics.
+     */
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns recording on or off for all nurbs.
+     */
+    @Override
+    public void setEnabled(boolean enabled) {
+        enable(enabled);
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, as {@value #OBJECT_NAME} with the extra key
+     * {@code name}, for example to follow a single nurbs in a long-running sketch.
+     *
+     * @param name The value of the {@code name} key, which should be unique
+     */
+    public synchronized void register(String name) {
+        if (this.name != null) {
+            throw new IllegalStateException("The metrics are already registered.");
+        }
+        try {
+            ObjectName objectName = new ObjectName(OBJECT_NAME + ",name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.name = objectName;
+        } catch (MalformedObjectNameException | InstanceAlreadyExistsException e) {
+            throw new IllegalArgumentException("The name " + name + " cannot be used for the metrics.", e);
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the metrics.", e);
+        }
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server, if {@link #register(String)} registered them.
+     */
+    public synchronized void unregister() {
+        if (name == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not unregister the metrics.", e);
+        }
+        name = null;
+    }
+
+    void evaluated(int count) {
+        if (enabled) {
+            evaluations.add(count);
+            if (parent != null) {
+                parent.evaluations.add(count);
+            }
+        }
+    }
+
+    void basisComputed(int count) {
+        if (enabled) {
+            basisComputations.add(count);
+            if (parent != null) {
+                parent.basisComputations.add(count);
+            }
+        }
+    }
+
+    void cacheLookup(boolean hit) {
+        if (enabled) {
+            (hit ? cacheHits : cacheMisses).increment();
+            if (parent != null) {
+                (hit ? parent.cacheHits : parent.cacheMisses).increment();
+            }
+        }
+    }
+
+    /**
+     * Gives the start time of an operation that is timed, or 0 if recording is off.
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a draw that started at {@code start} and sent {@code count} vertices.
+     */
+    void drawn(long start, int count) {
+        if (enabled && start != 0) {
+            long nanos = System.nanoTime() - start;
+            vertices.add(count);
+            drawLatency.record(nanos);
+            if (parent != null) {
+                parent.vertices.add(count);
+                parent.drawLatency.record(nanos);
+            }
+        }
+    }
+
+    /**
+     * Records a batch or grid evaluation that started at {@code start}.
+     */
+    void batchEvaluated(long start) {
+        if (enabled && start != 0) {
+            long nanos = System.nanoTime() - start;
+            batchLatency.record(nanos);
+            if (parent != null) {
+                parent.batchLatency.record(nanos);
+            }
+        }
+    }
+
+    @Override
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    @Override
+    public long getBasisComputations() {
+        return basisComputations.sum();
+    }
+
+    @Override
+    public long getVertices() {
+        return vertices.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * Gives the durations of the draw methods.
+     */
+    public LatencyHistogram getDrawLatency() {
+        return drawLatency;
+    }
+
+    /**
+     * Gives the durations of batch and grid evaluation.
+     */
+    public LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+
+    @Override
+    public long getDrawCount() {
+        return drawLatency.getCount();
+    }
+
+    @Override
+    public double getDrawMeanNanos() {
+        return drawLatency.getMeanNanos();
+    }
+
+    @Override
+    public long getDrawMedianNanos() {
+        return drawLatency.getPercentileNanos(50);
+    }
+
+    @Override
+    public long getDraw99thPercentileNanos() {
+        return drawLatency.getPercentileNanos(99);
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batchLatency.getCount();
+    }
+
+    @Override
+    public double getBatchMeanNanos() {
+        return batchLatency.getMeanNanos();
+    }
+
+    @Override
+    public long getBatchMedianNanos() {
+        return batchLatency.getPercentileNanos(50);
+    }
+
+    @Override
+    public long getBatch99thPercentileNanos() {
+        return batchLatency.getPercentileNanos(99);
+    }
+
+    /**
+     * Sets all counters and latencies of these metrics back to zero. Resetting the metrics of a nurbs does not change the
+     * global metrics.
+     */
+    @Override
+    public void reset() {
+        evaluations.reset();
+        basisComputations.reset();
+        vertices.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        drawLatency.reset();
+        batchLatency.reset();
+    }
+}
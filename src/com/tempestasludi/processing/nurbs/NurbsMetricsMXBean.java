@@ -0,0 +1,38 @@
+package com.tempestasludi.processing.nurbs;
+
+/**
+ * The management interface of {@link NurbsMetrics}, under which the metrics are exposed through JMX.
+ */
+public interface NurbsMetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getEvaluations();
+
+    long getBasisComputations();
+
+    long getVertices();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getDrawCount();
+
+    double getDrawMeanNanos();
+
+    long getDrawMedianNanos();
+
+    long getDraw99thPercentileNanos();
+
+    long getBatchCount();
+
+    double getBatchMeanNanos();
+
+    long getBatchMedianNanos();
+
+    long getBatch99thPercentileNanos();
+
+    void reset();
+}
@@ -1,17 +1,50 @@
 package com.tempestasludi.processing.nurbs;
 
+import processing.core.PConstants;
 import processing.core.PGraphics;
+import processing.core.PShape;
 import processing.core.PVector;
+import processing.data.FloatList;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A nurbs surface with two parameters (s and t).
+ * <p>
+ * A surface is not thread-safe, not even for reading: evaluating it reuses working memory of the surface and remembers
+ * the last knot spans it found, so it must only be used by one thread at a time. Grid evaluation may still split its
+ * work over threads itself, see {@link #setParallelism(int)}. To evaluate a surface on several threads at once,
+ * evaluate the snapshots that {@link #publish()} makes of it instead.
  */
 public class NurbsSurface extends Nurbs {
-    private PVector[][] points;
-    private float[][] weights;
+    /**
+     * The minimum number of grid points that is worth spreading over multiple threads.
+     */
+    private static final int MIN_PARALLEL_POINTS = 4096;
+
+    /**
+     * The packed control net, see {@link Nurbs}. Point {@code (i, j)} is stored at index {@code i * tCount + j}. While
+     * it is shared with the last published snapshot, it is copied before it is changed.
+     */
+    private float[] controlNet;
+    private boolean netShared;
+
+    /**
+     * The number of control points in the direction of the first parameter.
+     */
+    private final int sCount;
+
+    /**
+     * The number of control points in the direction of the second parameter.
+     */
+    private final int tCount;
 
     /**
      * The knot vector for the first parameter.
@@ -33,6 +66,139 @@ public class NurbsSurface extends Nurbs {
      */
     private final int tDegree;
 
+    /**
+     * Reusable working memory for the basis function calculations, so that evaluating does not allocate. Because of it,
+     * evaluating is not thread-safe.
+     */
+    private final float[] sBasisValues;
+    private final float[] tBasisValues;
+    private final float[] sBasisDerivatives;
+    private final float[] tBasisDerivatives;
+    private final float[] basisScratch;
+    private final float[] point = new float[3];
+
+    /**
+     * The knot spans of the previous lookup, used as a starting point for the next one. Every evaluation changes them.
+     */
+    private int lastSSpan = -1;
+    private int lastTSpan = -1;
+
+    /**
+     * The sampling plans of the last drawing, which are reused as long as the numbers of steps stay the same.
+     */
+    private SamplingPlan sPlan;
+    private SamplingPlan tPlan;
+
+    /**
+     * The number of blocks of rows that grid evaluation is split into, and the executor that evaluates them.
+     */
+    private int parallelism = 1;
+    private Executor executor = ForkJoinPool.commonPool();
+
+    /**
+     * Working memory for grid evaluation: the packed control net of the curve that a row of the grid lies on, and the
+     * packed control net of its derivative with respect to s.
+     */
+    private final float[] rowCurve;
+    private final float[] rowCurveDerivative;
+
+    /**
+     * Working memory like {@code rowCurve} and {@code rowCurveDerivative} for every block of parallel grid evaluation,
+     * made when it is first needed.
+     */
+    private float[][] blockCurves;
+    private float[][] blockCurveDerivatives;
+
+    /**
+     * The number of changes made through the setters, used to tell whether cached geometry is still up to date.
+     */
+    private int version;
+
+    /**
+     * The grid of vertices of the last drawing and their normals, with the sampling plans they were calculated for.
+     * {@code verticesVersion} is the version of the last time the whole grid was brought up to date, or -1 if parts of
+     * it were recalculated since then.
+     */
+    private float[] vertices;
+    private float[] normals;
+    private SamplingPlan verticesSPlan;
+    private SamplingPlan verticesTPlan;
+    private int verticesVersion;
+
+    /**
+     * Whether the block of the grid for every pair of sampled knot spans is up to date, with the block for
+     * {@code verticesSPlan.sampledSpans[a]} and {@code verticesTPlan.sampledSpans[b]} at index
+     * {@code a * verticesTPlan.sampledSpans.length + b}.
+     */
+    private boolean[] validBlocks;
+
+    /**
+     * The block of vertices that the last tessellation recalculated, empty if {@code updatedRowFrom > updatedRowTo}.
+     */
+    private int updatedRowFrom;
+    private int updatedRowTo;
+    private int updatedColumnFrom;
+    private int updatedColumnTo;
+
+    /**
+     * Working memory for batch evaluation: the parameters, knot spans, basis function values and results of a batch.
+     */
+    private float[] batchSParameters;
+    private float[] batchTParameters;
+    private int[] batchSSpans;
+    private int[] batchTSpans;
+    private float[] batchSBasisValues;
+    private float[] batchTBasisValues;
+    private float[] batchOut;
+
+    /**
+     * Whether single evaluations use the power basis coefficients of their pair of knot spans, and those coefficients
+     * for pair {@code (sKnot, tKnot)} at index {@code sKnot * tKnotVector.length + tKnot}, calculated when they are first
+     * needed.
+     */
+    private boolean precompiled;
+    private float[][] patchCoefficients;
+
+    /**
+     * The bounding box of every pair of knot spans, as six floats from index
+     * {@code 6 * (sKnot * tKnotVector.length + tKnot)}, with whether it is up to date, and the bounding box of the whole
+     * surface, or null if it is out of date.
+     */
+    private float[] spanBounds;
+    private boolean[] validSpanBounds;
+    private float[] bounds;
+
+    /**
+     * The numbers of steps chosen by {@link #getLevelOfDetail(PGraphics, float)} for both parameters.
+     */
+    private final LevelOfDetail sLevelOfDetail = new LevelOfDetail();
+    private final LevelOfDetail tLevelOfDetail = new LevelOfDetail();
+
+    /**
+     * The last published snapshot of the surface, which is the only state that other threads read.
+     */
+    private final AtomicReference<SurfaceSnapshot> snapshot;
+
+    /**
+     * The Bezier patches of the surface, with the version they were extracted for. The surface is first split along t
+     * into {@code tBezier}, whose points are columns of the control net, and then along s into {@code bezier}, whose
+     * points are rows of the Bezier control net. {@code bezierDerivative} is the derivative of the latter with respect
+     * to s.
+     */
+    private BezierSegments tBezier;
+    private BezierSegments bezier;
+    private BezierSegments bezierDerivative;
+    private int bezierVersion;
+
+    /**
+     * The cached retained shape, with the graphics context, numbers of steps and version it was made for.
+     */
+    private PShape shape;
+    private PGraphics shapeGraphics;
+    private int shapeSSteps;
+    private int shapeTSteps;
+    private int shapeVersion;
+
     /**
      * Creates a new nurbs surface with degrees {@code points.length - 1} and {@code points[0].length - 1}, in which every point has the same weight.
      *
@@ -83,6 +249,49 @@ public class NurbsSurface extends Nurbs {
      * @param tKnotVector The knot vector for the second parameter
      */
     public NurbsSurface(PVector[][] points, float[][] weights, float[] sKnotVector, float[] tKnotVector) {
+        this(pack(points, weights), points.length, points[0].length, sKnotVector, tKnotVector);
+    }
+
+    /**
+     * Creates a new nurbs surface with the given packed control net, which it never changes: the setters change a copy
+     * of it.
+     *
+     * @param controlNet The packed control net, see {@link Nurbs}, with point {@code (i, j)} at index {@code i * tCount + j}
+     * @param sCount The number of control points in the direction of the first parameter
+     * @param tCount The number of control points in the direction of the second parameter
+     * @param sKnotVector The knot vector for the first parameter
+     * @param tKnotVector The knot vector for the second parameter
+     */
+    NurbsSurface(float[] controlNet, int sCount, int tCount, float[] sKnotVector, float[] tKnotVector) {
+        this.sCount = sCount;
+        this.tCount = tCount;
+        this.controlNet = controlNet;
+
+        this.sKnotVector = sKnotVector;
+        this.sDegree = sKnotVector.length - sCount - 1;
+        if (sDegree <= 0) {
+            throw new IllegalArgumentException("The degree for the first parameter of the surface must be at least 1.");
+        }
+
+        this.tKnotVector = tKnotVector;
+        this.tDegree = tKnotVector.length - tCount - 1;
+
+        if (tDegree <= 0) {
+            throw new IllegalArgumentException("The degree for the second parameter of the surface must be at least 1.");
+        }
+
+        this.sBasisValues = new float[sDegree + 1];
+        this.tBasisValues = new float[tDegree + 1];
+        this.sBasisDerivatives = new float[sDegree + 1];
+        this.tBasisDerivatives = new float[tDegree + 1];
+        this.basisScratch = new float[2 * (Math.max(sDegree, tDegree) + 1)];
+        this.rowCurve = new float[4 * tCount];
+        this.rowCurveDerivative = new float[4 * tCount];
+        this.snapshot = new AtomicReference<>(new SurfaceSnapshot(controlNet, sCount, tCount, sKnotVector, tKnotVector, 0));
+        this.netShared = true;
+    }
+
+    private static float[] pack(PVector[][] points, float[][] weights) {
         if (points.length != weights.length) {
             throw new IllegalArgumentException("The points and weights arrays must be of equal dimension");
         }
@@ -94,21 +303,14 @@ public class NurbsSurface extends Nurbs {
                 throw new IllegalArgumentException("The points and weights arrays must be square");
             }
         }
-        this.points = points;
-        this.weights = weights;
-
-        this.sKnotVector = sKnotVector;
-        this.sDegree = sKnotVector.length - points.length - 1;
-        if (sDegree <= 0) {
-            throw new IllegalArgumentException("The degree for the first parameter of the surface must be at least 1.");
-        }
-
-        this.tKnotVector = tKnotVector;
-        this.tDegree = tKnotVector.length - points[0].length - 1;
-
-        if (tDegree <= 0) {
-            throw new IllegalArgumentException("The degree for the second parameter of the surface must be at least 1.");
+        int tCount = points[0].length;
+        float[] controlNet = new float[4 * points.length * tCount];
+        for (int i = 0; i < points.length; i++) {
+            for (int j = 0; j < tCount; j++) {
+                setControlPoint(controlNet, i * tCount + j, points[i][j], weights[i][j]);
+            }
         }
+        return controlNet;
     }
 
     /**
@@ -129,148 +331,1655 @@ public class NurbsSurface extends Nurbs {
      * @param tSteps The number of steps used for the second parameter
      */
     public void draw(PGraphics g, int sSteps, int tSteps) {
-        float sStepSize = (sKnotVector[sKnotVector.length - 1] - sKnotVector[0]) / sSteps;
-        float tStepSize = (tKnotVector[sKnotVector.length - 1] - tKnotVector[0]) / tSteps;
+        draw(new GraphicsVertexSink(g), sSteps, tSteps);
+    }
 
-        Queue<PVector> lastRow, currentRow = null;
+    /**
+     * Tessellates the surface with approximately the given number of steps for each parameter.
+     *
+     * @param sink The sink to send the vertices to
+     * @param steps The number of steps used for each parameter
+     */
+    public void draw(VertexSink sink, int steps) {
+        draw(sink, steps, steps);
+    }
 
-        int sKnot = 0;
-        for (float s = sKnotVector[0]; s <= sKnotVector[sKnotVector.length - 1]; s = Math.min(s + sStepSize, sKnotVector[sKnotVector.length - 1])) {
-            while (sKnotVector[sKnot + 1] <= s && s < sKnotVector[sKnotVector.length - 1]) {
-                sKnot++;
-            }
+    /**
+     * Tessellates the surface with approximately the given number of steps for each parameter into a triangle strip
+     * for every pair of consecutive rows. Every vertex has its normal, and texture coordinates that go from 0 to 1
+     * over the knot vectors.
+     *
+     * @param sink The sink to send the vertices to
+     * @param sSteps The number of steps used for the first parameter
+     * @param tSteps The number of steps used for the second parameter
+     */
+    public void draw(VertexSink sink, int sSteps, int tSteps) {
+        long start = metrics().start();
+        tessellate(sSteps, tSteps);
+        drawStrips(sink, vertices, normals, verticesSPlan.parameters, 0, verticesTPlan.parameters, 0, sSteps, 0, tSteps);
+        metrics().drawn(start, 2 * (verticesSPlan.size() - 1) * verticesTPlan.size());
+    }
 
-            g.beginShape(g.TRIANGLE_STRIP);
-            lastRow = currentRow;
-            currentRow = new LinkedList<>();
+    /**
+     * Draws the surface like {@link #draw(PGraphics, int)}, but skips the parts that are outside the view of the
+     * current camera of {@code g}.
+     *
+     * @param g The graphics context to draw with
+     * @param steps The number of steps used for each parameter
+     * @see #draw(VertexSink, int, int, Frustum)
+     */
+    public void drawCulled(PGraphics g, int steps) {
+        drawCulled(g, steps, steps);
+    }
 
-            int tKnot = 0;
-            for (float t = tKnotVector[0]; t <= tKnotVector[tKnotVector.length - 1]; t = Math.min(t + tStepSize, tKnotVector[tKnotVector.length - 1])) {
-                while (tKnotVector[tKnot + 1] <= t && t < tKnotVector[tKnotVector.length - 1]) {
-                    tKnot++;
-                }
+    /**
+     * Draws the surface like {@link #draw(PGraphics, int, int)}, but skips the parts that are outside the view of the
+     * current camera of {@code g}. Renderers without a camera always draw the whole surface.
+     *
+     * @param g The graphics context to draw with
+     * @param sSteps The number of steps used for the first parameter
+     * @param tSteps The number of steps used for the second parameter
+     * @see #draw(VertexSink, int, int, Frustum)
+     */
+    public void drawCulled(PGraphics g, int sSteps, int tSteps) {
+        Frustum frustum = Frustum.of(g);
+        if (frustum == null) {
+            draw(g, sSteps, tSteps);
+        } else {
+            draw(new GraphicsVertexSink(g), sSteps, tSteps, frustum);
+        }
+    }
 
-                PVector p = evaluate(s, sKnot, t, tKnot);
-                if (lastRow != null) {
-                    PVector q = lastRow.remove();
-                    g.vertex(q.x, q.y, q.z);
-                    g.vertex(p.x, p.y, p.z);
-                }
-                currentRow.add(p);
+    /**
+     * Tessellates the parts of the surface that can be inside {@code frustum} like
+     * {@link #draw(VertexSink, int, int)}. The bounding box of the whole surface is tested first, so a surface that is
+     * completely outside costs a single test. Otherwise the bounding box of every pair of knot spans is tested, and the
+     * vertices of the pairs that are outside are neither calculated nor sent. The strips are cut where they leave the
+     * visible pairs, so the sink can receive more, shorter strips than from a full drawing.
+     *
+     * @param sink The sink to send the vertices to
+     * @param sSteps The number of steps used for the first parameter
+     * @param tSteps The number of steps used for the second parameter
+     * @param frustum The part of space to draw
+     */
+    public void draw(VertexSink sink, int sSteps, int tSteps, Frustum frustum) {
+        int visibility = frustum.classify(getBounds(), 0);
+        if (visibility == Frustum.INSIDE) {
+            draw(sink, sSteps, tSteps);
+            return;
+        }
+        long start = metrics().start();
+        if (visibility == Frustum.OUTSIDE) {
+            metrics().drawn(start, 0);
+            return;
+        }
+
+        SamplingPlan sPlan = getSPlan(sSteps);
+        SamplingPlan tPlan = getTPlan(tSteps);
+        int[] sSpans = sPlan.sampledSpans;
+        int[] tSpans = tPlan.sampledSpans;
+        int columns = tSpans.length;
 
-                if (t == tKnotVector[points[0].length]) {
-                    break;
+        // The triangles between two rows or columns in different knot spans cross the knot between them, and belong
+        // to the block of the later one. So a visible block also draws the blocks after it, and those need the
+        // vertices of the blocks before them.
+        boolean[] drawn = new boolean[sSpans.length * columns];
+        for (int a = 0; a < sSpans.length; a++) {
+            for (int b = 0; b < columns; b++) {
+                int index = sSpans[a] * tKnotVector.length + tSpans[b];
+                if (frustum.classify(getSpanBounds(sSpans[a], tSpans[b]), 6 * index) == Frustum.OUTSIDE) {
+                    continue;
+                }
+                for (int i = a; i <= Math.min(a + 1, sSpans.length - 1); i++) {
+                    for (int j = b; j <= Math.min(b + 1, columns - 1); j++) {
+                        drawn[i * columns + j] = true;
+                    }
                 }
             }
+        }
+        boolean[] needed = new boolean[drawn.length];
+        for (int a = 0; a < sSpans.length; a++) {
+            for (int b = 0; b < columns; b++) {
+                if (!drawn[a * columns + b]) {
+                    continue;
+                }
+                for (int i = Math.max(a - 1, 0); i <= a; i++) {
+                    for (int j = Math.max(b - 1, 0); j <= b; j++) {
+                        needed[i * columns + j] = true;
+                    }
+                }
+            }
+        }
+        if (tessellate(sPlan, tPlan, needed)) {
+            verticesVersion = -1;
+        }
 
-            g.endShape();
-
-            if (s == tKnotVector[points.length]) {
-                break;
+        int count = 0;
+        for (int a = 0; a < sSpans.length; a++) {
+            int rowFrom = Math.max(sPlan.firstSampleFrom(sSpans[a]) - 1, 0);
+            int rowTo = sPlan.lastSampleUpTo(sSpans[a]);
+            for (int b = 0; b < columns; b++) {
+                if (!drawn[a * columns + b]) {
+                    continue;
+                }
+                int runTo = b;
+                while (runTo + 1 < columns && drawn[a * columns + runTo + 1]) {
+                    runTo++;
+                }
+                int columnFrom = Math.max(tPlan.firstSampleFrom(tSpans[b]) - 1, 0);
+                int columnTo = tPlan.lastSampleUpTo(tSpans[runTo]);
+                drawStrips(sink, vertices, normals, sPlan.parameters, 0, tPlan.parameters, rowFrom, rowTo, columnFrom, columnTo);
+                count += 2 * (rowTo - rowFrom) * (columnTo - columnFrom + 1);
+                b = runTo;
             }
         }
+        metrics().drawn(start, count);
     }
 
     /**
-     * Gives the value of the surface at s={@code s} and t={@code t}.
+     * Sends a block of a grid of vertices with their normals as a triangle strip for every pair of consecutive rows.
+     *
+     * @param sink The sink to send the vertices to
+     * @param grid The x, y and z coordinates of the vertices, row after row
+     * @param normals The normals of the vertices
+     * @param ss The values of the first parameter, of which the rows of the grid have the ones from {@code firstRow}
+     * @param firstRow The index in {@code ss} of the first row of the grid
+     * @param ts The values of the second parameter, one for every column
+     * @param rowFrom The first row of the block
+     * @param rowTo The last row of the block
+     * @param columnFrom The first column of the block
+     * @param columnTo The last column of the block
      */
-    public PVector evaluate(float s, float t) {
-        s = Math.max(sKnotVector[0], Math.min(sKnotVector[sKnotVector.length - 1], s));
-        t = Math.max(tKnotVector[0], Math.min(tKnotVector[tKnotVector.length - 1], t));
-
-        for (int sKnot = 1; sKnot < sKnotVector.length; sKnot++) {
-            if (s <= sKnotVector[sKnot]) {
-                for (int tKnot = 1; tKnot < tKnotVector.length; tKnot++) {
-                    if (t <= tKnotVector[tKnot]) {
-                        return evaluate(s, sKnot - 1, t, tKnot - 1);
-                    }
-                }
+    private void drawStrips(VertexSink sink, float[] grid, float[] normals, float[] ss, int firstRow, float[] ts,
+                            int rowFrom, int rowTo, int columnFrom, int columnTo) {
+        int columns = ts.length;
+        for (int i = rowFrom + 1; i <= rowTo; i++) {
+            float lastU = textureCoordinate(ss[firstRow + i - 1], sKnotVector);
+            float currentU = textureCoordinate(ss[firstRow + i], sKnotVector);
+            sink.beginStrip();
+            for (int j = columnFrom; j <= columnTo; j++) {
+                float v = textureCoordinate(ts[j], tKnotVector);
+                int last = 3 * ((i - 1) * columns + j);
+                int current = 3 * (i * columns + j);
+                sink.vertex(grid[last], grid[last + 1], grid[last + 2],
+                        normals[last], normals[last + 1], normals[last + 2], lastU, v);
+                sink.vertex(grid[current], grid[current + 1], grid[current + 2],
+                        normals[current], normals[current + 1], normals[current + 2], currentU, v);
             }
+            sink.end();
         }
+    }
 
-        throw new RuntimeException("This code should never execute.");
+    /**
+     * Gives where a parameter value lies between the first and the last knot, from 0 to 1.
+     */
+    private static float textureCoordinate(float value, float[] knotVector) {
+        return (value - knotVector[0]) / (knotVector[knotVector.length - 1] - knotVector[0]);
     }
 
     /**
-     * Gives the value of the surface at s={@code s} and t={@code t} with {@code s} in knot span {@code sKnot} and {@code t} in knot span {@code tKnot}.
+     * Draws the surface through the same points as {@link #draw(PGraphics, int)}, but stepping along its Bezier patches
+     * with forward differences instead of evaluating the basis functions.
+     *
+     * @param g The graphics context to draw with
+     * @param steps The number of steps used for each parameter
+     * @see #drawForwardDifferenced(PGraphics, int, int)
      */
-    public PVector evaluate(float s, int sKnot, float t, int tKnot) {
-        if (sKnot < 0 || sKnotVector.length <= sKnot + 1) {
-            throw new IllegalArgumentException("sKnot out of bounds.");
-        }
-        if (s < sKnotVector[sKnot] || sKnotVector[sKnot + 1] < s) {
-            throw new IllegalArgumentException("s should be between knot `sKnot` and knot `sKnot + 1`.");
-        }
-        if (tKnot < 0 || tKnotVector.length <= tKnot + 1) {
-            throw new IllegalArgumentException("tKnot out of bounds.");
-        }
-        if (t < tKnotVector[tKnot] || tKnotVector[tKnot + 1] < t) {
-            throw new IllegalArgumentException("t should be between knot `tKnot` and knot `tKnot + 1`.");
-        }
+    public void drawForwardDifferenced(PGraphics g, int steps) {
+        drawForwardDifferenced(g, steps, steps);
+    }
+
+    /**
+     * Draws the surface through the same points as {@link #draw(PGraphics, int, int)}, but stepping along its Bezier
+     * patches with forward differences instead of evaluating the basis functions. Every row of vertices lies on a
+     * curve whose Bezier control points are themselves stepped along s, and every vertex of a row takes a fixed number
+     * of additions per coordinate for its position and both partial derivatives, no matter how many control points the
+     * surface has. The rounding errors add up along a patch, so for large numbers of steps the vertices can differ
+     * slightly from those of {@link #draw(PGraphics, int, int)}.
+     *
+     * @param g The graphics context to draw with
+     * @param sSteps The number of steps used for the first parameter
+     * @param tSteps The number of steps used for the second parameter
+     */
+    public void drawForwardDifferenced(PGraphics g, int sSteps, int tSteps) {
+        long start = metrics().start();
+        SamplingPlan sPlan = getSPlan(sSteps);
+        SamplingPlan tPlan = getTPlan(tSteps);
+        getBezierSegments();
 
-        float[] sBasisFunctionValues = calcBasisFunctionValues(sKnot, s, sDegree, sKnotVector);
-        float[] tBasisFunctionValues = calcBasisFunctionValues(tKnot, t, tDegree, tKnotVector);
+        int size = bezier.size;
+        float[] rowTable = new float[(sDegree + 1) * size];
+        float[] rowDerivativeTable = new float[sDegree * size];
+        float[] scratch = new float[(sDegree + 1) * size];
+        float[][] work = {
+                new float[4 * (tDegree + 1)], new float[4 * tDegree], new float[4 * tDegree],
+                new float[4 * (tDegree + 1)], new float[4 * (tDegree + 1)]
+        };
+        float sStep = (sKnotVector[sKnotVector.length - 1] - sKnotVector[0]) / sSteps;
+        float tStep = (tKnotVector[tKnotVector.length - 1] - tKnotVector[0]) / tSteps;
 
-        float[][] basisWeights = new float[sDegree + 1][tDegree + 1];
-        float basisWeightsSum = 0;
-        for (int sI = Math.max(sDegree - sKnot, 0); sI <= sDegree; sI++) {
-            for (int tI = Math.max(tDegree - tKnot, 0); tI <= tDegree; tI++) {
-                basisWeightsSum += basisWeights[sI][tI] = sBasisFunctionValues[sI] * tBasisFunctionValues[tI] * weights[sI + sKnot - sDegree][tI + tKnot - tDegree];
+        // Two rows of vertices: the previous one and the current one.
+        int columns = tPlan.size();
+        float[] grid = new float[2 * 3 * columns];
+        float[] gridNormals = new float[grid.length];
+        VertexSink sink = new GraphicsVertexSink(g);
+        for (int i = 0; i < sPlan.size(); ) {
+            int span = sPlan.spans[i];
+            int last = sPlan.lastSampleUpTo(span);
+            int segment = bezier.segmentOfSpan[span];
+            bezier.startDifferences(segment, sPlan.parameters[i], sStep, rowTable, scratch);
+            bezierDerivative.startDifferences(segment, sPlan.parameters[i], sStep, rowDerivativeTable, scratch);
+            for (; i <= last; i++) {
+                differenceRow(rowTable, rowDerivativeTable, tPlan, tStep, grid, gridNormals, 3 * columns, work);
+                if (i > 0) {
+                    drawStrips(sink, grid, gridNormals, sPlan.parameters, i - 1, tPlan.parameters, 0, 1, 0, columns - 1);
+                }
+                System.arraycopy(grid, 3 * columns, grid, 0, 3 * columns);
+                System.arraycopy(gridNormals, 3 * columns, gridNormals, 0, 3 * columns);
+                BezierSegments.step(rowTable, sDegree, size);
+                BezierSegments.step(rowDerivativeTable, sDegree - 1, size);
             }
         }
+        metrics().drawn(start, 2 * (sPlan.size() - 1) * columns);
+    }
+
+    /**
+     * Samples a row of the surface with forward differences, given the Bezier control points of the curve the row lies
+     * on and of its derivative with respect to s, and writes the vertices and normals to their place in the grid.
+     *
+     * @param row The homogeneous Bezier control points of the curve of the row, for all Bezier segments along t
+     * @param rowDerivative The derivatives of those points with respect to s
+     * @param tPlan The sampling plan for the second parameter
+     * @param tStep The distance between the values of the second parameter of consecutive samples
+     * @param grid The array to write the x, y and z coordinates of the vertices to
+     * @param normals The array to write the x, y and z coordinates of the normals to
+     * @param offset The index in {@code grid} and {@code normals} of the first vertex of the row
+     * @param work Working memory: forward difference tables for the point and its derivatives with respect to t and s,
+     *             the control points of the derivative with respect to t and scratch for setting up the tables
+     */
+    private void differenceRow(float[] row, float[] rowDerivative, SamplingPlan tPlan, float tStep, float[] grid, float[] normals, int offset, float[][] work) {
+        float[] table = work[0];
+        float[] tTable = work[1];
+        float[] tPoints = work[2];
+        float[] sTable = work[3];
+        float[] scratch = work[4];
+        for (int j = 0; j < tPlan.size(); ) {
+            int span = tPlan.spans[j];
+            int last = tPlan.lastSampleUpTo(span);
+            int segment = tBezier.segmentOfSpan[span];
+            float length = tBezier.ends[segment] - tBezier.starts[segment];
+            float r0 = (tPlan.parameters[j] - tBezier.starts[segment]) / length;
+            float dr = tStep / length;
+
+            int pointsOffset = 4 * (tDegree + 1) * segment;
+            for (int k = 0; k < 4 * tDegree; k++) {
+                tPoints[k] = tDegree / length * (row[pointsOffset + k + 4] - row[pointsOffset + k]);
+            }
+            BezierSegments.startDifferences(row, pointsOffset, tDegree, 4, r0, dr, table, scratch);
+            BezierSegments.startDifferences(tPoints, 0, tDegree - 1, 4, r0, dr, tTable, scratch);
+            BezierSegments.startDifferences(rowDerivative, pointsOffset, tDegree, 4, r0, dr, sTable, scratch);
 
-        PVector result = new PVector();
-        for (int sI = Math.max(sDegree - sKnot, 0); sI <= sDegree; sI++) {
-            for (int tI = Math.max(tDegree - tKnot, 0); tI <= tDegree; tI++) {
-                result = PVector.add(result, PVector.mult(points[sI + sKnot - sDegree][tI + tKnot - tDegree], basisWeights[sI][tI] / basisWeightsSum));
+            for (; j <= last; j++) {
+                int index = offset + 3 * j;
+                float x = table[0] / table[3];
+                float y = table[1] / table[3];
+                float z = table[2] / table[3];
+                grid[index] = x;
+                grid[index + 1] = y;
+                grid[index + 2] = z;
+                writeNormal(sTable[0] - sTable[3] * x, sTable[1] - sTable[3] * y, sTable[2] - sTable[3] * z,
+                        tTable[0] - tTable[3] * x, tTable[1] - tTable[3] * y, tTable[2] - tTable[3] * z, normals, index);
+                BezierSegments.step(table, tDegree, 4);
+                BezierSegments.step(tTable, tDegree - 1, 4);
+                BezierSegments.step(sTable, tDegree, 4);
             }
         }
+    }
 
-        return result;
+    /**
+     * Draws the surface on a grid with as few rows and columns as the flatness test asks for. The values of each
+     * parameter are chosen by adaptively tessellating the isoparametric curves of the surface along that parameter, at
+     * every knot and in the middle of every knot span of the other parameter, until each of them is within
+     * {@code tolerance} of its polyline, and combining the results. Because the result is still a grid, neighbouring
+     * triangles always share their edges.
+     * <p>
+     * Only those sampled curves are guaranteed to be within {@code tolerance} of the grid lines along them. The
+     * triangles in between are usually close to the surface as well, but their distance to it is not bounded: a bump
+     * that none of the sampled curves crosses can be missed.
+     *
+     * @param g The graphics context to draw with
+     * @param tolerance The maximum distance between the sampled isoparametric curves and their tessellations
+     */
+    public void drawAdaptive(PGraphics g, float tolerance) {
+        drawAdaptive(g, tolerance, null);
     }
 
-    public void setPoint(int sIndex, int tIndex, PVector point) {
-        if (sIndex < 0 || points.length <= sIndex) {
-            throw new IllegalArgumentException("First index out of bounds");
-        }
-        if (tIndex < 0 || points[0].length <= tIndex) {
-            throw new IllegalArgumentException("Second index out of bounds");
-        }
-        points[sIndex][tIndex] = point;
+    /**
+     * Draws the surface like {@link #drawAdaptive(PGraphics, float)}, but with the tolerance measured in pixels on the
+     * screen, using the current transformation and projection of {@code g}.
+     *
+     * @param g The graphics context to draw with
+     * @param pixels The maximum distance on the screen between the sampled isoparametric curves and their tessellations
+     */
+    public void drawAdaptiveOnScreen(PGraphics g, float pixels) {
+        drawAdaptive(g, pixels, g);
     }
 
-    public void setPoints(PVector[][] points) {
-        if (this.points.length != points.length) {
-            throw new IllegalArgumentException("The old points array does not have the same dimensions as the new one.");
+    /**
+     * Draws the surface adaptively, measuring the error on the screen of {@code screen} if it is given.
+     */
+    private void drawAdaptive(PGraphics g, float tolerance, PGraphics screen) {
+        long start = metrics().start();
+        float[] ss = adaptiveParameters(true, tolerance, screen);
+        float[] ts = adaptiveParameters(false, tolerance, screen);
+        float[] grid = new float[3 * ss.length * ts.length];
+        float[] gridNormals = new float[grid.length];
+        evaluateGrid(SamplingPlan.of(sKnotVector, sDegree, ss), SamplingPlan.of(tKnotVector, tDegree, ts), 0, ss.length - 1, 0, ts.length - 1, grid, 0, 0, 3, gridNormals);
+        drawStrips(new GraphicsVertexSink(g), grid, gridNormals, ss, 0, ts, 0, ss.length - 1, 0, ts.length - 1);
+        metrics().evaluated(ss.length * ts.length);
+        metrics().drawn(start, 2 * (ss.length - 1) * ts.length);
+    }
+
+    /**
+     * Chooses the values of one parameter for adaptively tessellating the surface.
+     *
+     * @param first Whether to choose values of the first parameter, or of the second one
+     * @param tolerance The maximum distance between the sampled curves and their tessellations
+     * @param screen The graphics context on whose screen the distance is measured, or null to measure it in model space
+     * @return The values of the parameter, in increasing order
+     */
+    private float[] adaptiveParameters(boolean first, float tolerance, PGraphics screen) {
+        float[] knotVector = first ? sKnotVector : tKnotVector;
+        float[] otherKnotVector = first ? tKnotVector : sKnotVector;
+
+        FloatList others = new FloatList();
+        for (int k = 0; k < otherKnotVector.length - 1; k++) {
+            if (otherKnotVector[k] < otherKnotVector[k + 1]) {
+                others.append(otherKnotVector[k]);
+                others.append((otherKnotVector[k] + otherKnotVector[k + 1]) / 2);
+            }
         }
-        for (int i = 0; i < points.length; i++) {
-            if (this.points[i].length != points[i].length) {
-                throw new IllegalArgumentException("The old points array does not have the same dimensions as the new one.");
+        others.append(otherKnotVector[otherKnotVector.length - 1]);
+
+        FloatList values = new FloatList();
+        for (int i = 0; i < others.size(); i++) {
+            float other = others.get(i);
+            subdivide((value, out) -> {
+                float s = first ? value : other;
+                float t = first ? other : value;
+                lastSSpan = findSpan(s, sKnotVector, lastSSpan);
+                lastTSpan = findSpan(t, tKnotVector, lastTSpan);
+                evaluate(s, lastSSpan, t, lastTSpan, out, 0);
+                if (screen != null) {
+                    projectToScreen(screen, out);
+                }
+            }, knotVector, first ? sDegree : tDegree, tolerance, values);
+        }
+
+        values.sort();
+        float[] sorted = values.toArray();
+        int count = 0;
+        for (float value : sorted) {
+            if (count == 0 || sorted[count - 1] < value) {
+                sorted[count++] = value;
             }
         }
-        this.points = points;
+        return Arrays.copyOf(sorted, count);
     }
 
-    public void setWeight(int sIndex, int tIndex, float weight) {
-        if (sIndex < 0 || weights.length <= sIndex) {
-            throw new IllegalArgumentException("First index out of bounds");
+    /**
+     * Draws the surface like {@link #drawCulled(PGraphics, int, int)}, with the numbers of steps that
+     * {@link #getLevelOfDetail(PGraphics, float)} chooses.
+     *
+     * @param g The graphics context to draw with
+     * @param pixels The maximum distance on the screen between the drawn triangles and the surface
+     */
+    public void drawWithLevelOfDetail(PGraphics g, float pixels) {
+        int[] steps = getLevelOfDetail(g, pixels);
+        drawCulled(g, steps[0], steps[1]);
+    }
+
+    /**
+     * Gives numbers of steps for both parameters with which the surface stays within {@code pixels} of its
+     * tessellation on the screen of {@code g}, estimated from its control points projected with the current
+     * transformation and projection. Each parameter gets half of the tolerance, and the estimate for the rows or
+     * columns of the control net that needs the most steps. A surface far from the camera gets fewer steps than one
+     * that fills the screen. The numbers are remembered, and only changed once the estimate rises above them or falls
+     * well below them, so that a moving surface or camera does not change the tessellation on every frame.
+     *
+     * @param g The graphics context whose screen the distance is measured on
+     * @param pixels The maximum distance on the screen between the triangles and the surface
+     * @return The numbers of steps for the first and the second parameter, each from 1 to 1024
+     */
+    public int[] getLevelOfDetail(PGraphics g, float pixels) {
+        float[] screen = new float[2 * sCount * tCount];
+        float weightRatio = projectControlNet(g, controlNet, screen);
+        float sEstimate = 0;
+        for (int j = 0; j < tCount; j++) {
+            sEstimate = Math.max(sEstimate, estimateSteps(screen, j, tCount, sCount, sKnotVector, sDegree, weightRatio, pixels / 2));
         }
-        if (tIndex < 0 || weights[0].length <= tIndex) {
-            throw new IllegalArgumentException("Second index out of bounds");
+        float tEstimate = 0;
+        for (int i = 0; i < sCount; i++) {
+            tEstimate = Math.max(tEstimate, estimateSteps(screen, i * tCount, 1, tCount, tKnotVector, tDegree, weightRatio, pixels / 2));
         }
-        weights[sIndex][tIndex] = weight;
+        return new int[] {sLevelOfDetail.update(sEstimate), tLevelOfDetail.update(tEstimate)};
     }
 
-    public void setWeights(float[][] weights) {
-        if (this.weights.length != weights.length) {
-            throw new IllegalArgumentException("The old weights array does not have the same dimensions as the new one.");
+    /**
+     * Draws the surface like {@link #draw(PGraphics, int, int)}, but by replaying the cached shape of
+     * {@link #getShape(PGraphics, int, int)}.
+     *
+     * @param g The graphics context to draw with
+     * @param sSteps The number of steps used for the first parameter
+     * @param tSteps The number of steps used for the second parameter
+     */
+    public void drawRetained(PGraphics g, int sSteps, int tSteps) {
+        g.shape(getShape(g, sSteps, tSteps));
+    }
+
+    /**
+     * Gives a retained shape of the surface with approximately the given number of steps for each parameter. The shape
+     * is cached, and only made again when the graphics context or the numbers of steps differ from the previous call, or
+     * when the surface has been changed through one of its setters. Its style is disabled, so it takes the style of the
+     * context it is drawn with.
+     *
+     * @param g The graphics context to create the shape with
+     * @param sSteps The number of steps used for the first parameter
+     * @param tSteps The number of steps used for the second parameter
+     * @return The cached shape, a group with a triangle strip for every step of the first parameter
+     */
+    public PShape getShape(PGraphics g, int sSteps, int tSteps) {
+        boolean sameShape = shape != null && shapeGraphics == g && shapeSSteps == sSteps && shapeTSteps == tSteps;
+        if (sameShape && shapeVersion == version) {
+            return shape;
         }
-        for (int i = 0; i < weights.length; i++) {
-            if (this.weights[i].length != weights[i].length) {
-                throw new IllegalArgumentException("The old weights array does not have the same dimensions as the new one.");
+
+        boolean inSync = sameShape && shapeVersion == verticesVersion
+                && verticesSPlan == getSPlan(sSteps) && verticesTPlan == getTPlan(tSteps);
+        tessellate(sSteps, tSteps);
+
+        int columns = tSteps + 1;
+        if (sameShape) {
+            // Only move the vertices that changed, or all of them if the shape missed earlier changes.
+            int rowFrom = inSync ? updatedRowFrom : 0;
+            int rowTo = inSync ? updatedRowTo : sSteps;
+            int columnFrom = inSync ? updatedColumnFrom : 0;
+            int columnTo = inSync ? updatedColumnTo : tSteps;
+            for (int i = rowFrom; i <= rowTo; i++) {
+                for (int j = columnFrom; j <= columnTo; j++) {
+                    int index = 3 * (i * columns + j);
+                    // Row i is the second row of strip i - 1 and the first row of strip i.
+                    if (i > 0) {
+                        shape.getChild(i - 1).setVertex(2 * j + 1, vertices[index], vertices[index + 1], vertices[index + 2]);
+                        shape.getChild(i - 1).setNormal(2 * j + 1, normals[index], normals[index + 1], normals[index + 2]);
+                    }
+                    if (i < sSteps) {
+                        shape.getChild(i).setVertex(2 * j, vertices[index], vertices[index + 1], vertices[index + 2]);
+                        shape.getChild(i).setNormal(2 * j, normals[index], normals[index + 1], normals[index + 2]);
+                    }
+                }
+            }
+        } else {
+            shape = g.createShape(PConstants.GROUP);
+            for (int i = 1; i <= sSteps; i++) {
+                PShape strip = g.createShape();
+                strip.beginShape(PConstants.TRIANGLE_STRIP);
+                for (int j = 0; j < columns; j++) {
+                    int last = 3 * ((i - 1) * columns + j);
+                    int current = 3 * (i * columns + j);
+                    strip.normal(normals[last], normals[last + 1], normals[last + 2]);
+                    strip.vertex(vertices[last], vertices[last + 1], vertices[last + 2]);
+                    strip.normal(normals[current], normals[current + 1], normals[current + 2]);
+                    strip.vertex(vertices[current], vertices[current + 1], vertices[current + 2]);
+                }
+                strip.endShape();
+                strip.disableStyle();
+                shape.addChild(strip);
             }
+            shape.disableStyle();
+        }
+
+        shapeGraphics = g;
+        shapeSSteps = sSteps;
+        shapeTSteps = tSteps;
+        shapeVersion = version;
+        return shape;
+    }
+
+    /**
+     * Brings the grid of vertices for drawing the surface with the given numbers of steps up to date. If only some
+     * control points changed since the last time, only the vertices in the knot spans that those points influence are
+     * recalculated.
+     */
+    private void tessellate(int sSteps, int tSteps) {
+        tessellate(getSPlan(sSteps), getTPlan(tSteps), null);
+        verticesVersion = version;
+    }
+
+    /**
+     * Brings the blocks of the grid of vertices that are needed up to date. The grid has a block for every pair of
+     * sampled knot spans, which is only recalculated if a control point that influences it changed since the last time.
+     * The rectangle around the recalculated vertices is stored in the {@code updated} fields.
+     *
+     * @param sPlan The sampling plan for the first parameter
+     * @param tPlan The sampling plan for the second parameter
+     * @param needed Whether the block for {@code sPlan.sampledSpans[a]} and {@code tPlan.sampledSpans[b]} is needed, at
+     *               index {@code a * tPlan.sampledSpans.length + b}, or null if all blocks are
+     * @return Whether any vertices were recalculated
+     */
+    private boolean tessellate(SamplingPlan sPlan, SamplingPlan tPlan, boolean[] needed) {
+        int[] sSpans = sPlan.sampledSpans;
+        int[] tSpans = tPlan.sampledSpans;
+        int columns = tSpans.length;
+        if (vertices == null || verticesSPlan != sPlan || verticesTPlan != tPlan) {
+            vertices = new float[3 * sPlan.size() * tPlan.size()];
+            normals = new float[vertices.length];
+            validBlocks = new boolean[sSpans.length * columns];
+            verticesSPlan = sPlan;
+            verticesTPlan = tPlan;
+        }
+
+        // The range of blocks to recalculate in every band of rows, empty if the first one is larger than the last one.
+        int[] staleFrom = new int[sSpans.length];
+        int[] staleTo = new int[sSpans.length];
+        for (int a = 0; a < sSpans.length; a++) {
+            staleFrom[a] = columns;
+            staleTo[a] = -1;
+            for (int b = 0; b < columns; b++) {
+                int block = a * columns + b;
+                if ((needed == null || needed[block]) && !validBlocks[block]) {
+                    staleFrom[a] = Math.min(staleFrom[a], b);
+                    staleTo[a] = b;
+                }
+            }
+        }
+
+        updatedRowFrom = updatedColumnFrom = Integer.MAX_VALUE;
+        updatedRowTo = updatedColumnTo = -1;
+        for (int a = 0; a < sSpans.length; a++) {
+            if (staleFrom[a] > staleTo[a]) {
+                continue;
+            }
+            // Bands with the same range are evaluated together, so that they can be split over more threads.
+            int bandTo = a;
+            while (bandTo + 1 < sSpans.length && staleFrom[bandTo + 1] == staleFrom[a] && staleTo[bandTo + 1] == staleTo[a]) {
+                bandTo++;
+            }
+            int rowFrom = sPlan.firstSampleFrom(sSpans[a]);
+            int rowTo = sPlan.lastSampleUpTo(sSpans[bandTo]);
+            int columnFrom = tPlan.firstSampleFrom(tSpans[staleFrom[a]]);
+            int columnTo = tPlan.lastSampleUpTo(tSpans[staleTo[a]]);
+            evaluateGrid(sPlan, tPlan, rowFrom, rowTo, columnFrom, columnTo, vertices, 0, 0, 3, normals);
+            for (int i = a; i <= bandTo; i++) {
+                Arrays.fill(validBlocks, i * columns + staleFrom[a], i * columns + staleTo[a] + 1, true);
+            }
+            updatedRowFrom = Math.min(updatedRowFrom, rowFrom);
+            updatedRowTo = Math.max(updatedRowTo, rowTo);
+            updatedColumnFrom = Math.min(updatedColumnFrom, columnFrom);
+            updatedColumnTo = Math.max(updatedColumnTo, columnTo);
+            a = bandTo;
+        }
+        metrics().cacheLookup(updatedRowFrom > updatedRowTo);
+        return updatedRowFrom <= updatedRowTo;
+    }
+
+    /**
+     * Evaluates the surface on the grid of all combinations of a value in {@code ss} and a value in {@code ts}, and
+     * writes the coordinates of the results to {@code out}. The result for ({@code ss[i]}, {@code ts[j]}) is written at
+     * index {@code offset + (i * ts.length + j) * stride}. Parameters outside the knot vectors are clamped to them.
+     * <p>
+     * Every row of the grid lies on a single curve, whose control points are combined once per row. After that, each
+     * point only takes a weighted sum of {@code tDegree + 1} points of that curve.
+     *
+     * @param ss The values of the first parameter, one for every row
+     * @param ts The values of the second parameter, one for every column
+     * @param out The array to write the x, y and z coordinates of the results to
+     * @param offset The index in {@code out} of the x coordinate of the first result
+     * @param stride The distance in {@code out} between the x coordinates of consecutive results, at least 3
+     */
+    public void evaluateGrid(float[] ss, float[] ts, float[] out, int offset, int stride) {
+        checkBatchBounds(ss.length * ts.length, out.length, offset, stride);
+        if (ss.length == 0 || ts.length == 0) {
+            return;
+        }
+        long start = metrics().start();
+        evaluateGrid(SamplingPlan.of(sKnotVector, sDegree, ss), SamplingPlan.of(tKnotVector, tDegree, ts), 0, ss.length - 1, 0, ts.length - 1, out, offset, 0, stride, null);
+        metrics().evaluated(ss.length * ts.length);
+        metrics().batchEvaluated(start);
+    }
+
+    /**
+     * Evaluates the surface on a uniform grid of {@code sSteps + 1} by {@code tSteps + 1} points, the same points that
+     * {@link #draw(PGraphics, int, int)} uses, and writes the coordinates of the results to {@code out}.
+     *
+     * @param sSteps The number of steps used for the first parameter
+     * @param tSteps The number of steps used for the second parameter
+     * @param out The array to write the x, y and z coordinates of the results to
+     * @param offset The index in {@code out} of the x coordinate of the first result
+     * @param stride The distance in {@code out} between the x coordinates of consecutive results, at least 3
+     * @see #evaluateGrid(float[], float[], float[], int, int)
+     */
+    public void evaluateGrid(int sSteps, int tSteps, float[] out, int offset, int stride) {
+        checkBatchBounds((sSteps + 1) * (tSteps + 1), out.length, offset, stride);
+        long start = metrics().start();
+        evaluateGrid(getSPlan(sSteps), getTPlan(tSteps), 0, sSteps, 0, tSteps, out, offset, 0, stride, null);
+        metrics().evaluated((sSteps + 1) * (tSteps + 1));
+        metrics().batchEvaluated(start);
+    }
+
+    /**
+     * Gives the number of rows of the grid of vertices for drawing the surface with the given number of steps for the
+     * first parameter.
+     */
+    int getRowCount(int sSteps) {
+        return getSPlan(sSteps).size();
+    }
+
+    /**
+     * Gives the number of columns of the grid of vertices for drawing the surface with the given number of steps for
+     * the second parameter.
+     */
+    int getColumnCount(int tSteps) {
+        return getTPlan(tSteps).size();
+    }
+
+    /**
+     * Evaluates a single row of the grid of vertices for drawing the surface with the given numbers of steps, without
+     * touching the cached grid, and writes the x, y and z coordinates of its vertices to {@code out} from index 0.
+     *
+     * @param sSteps The number of steps used for the first parameter
+     * @param tSteps The number of steps used for the second parameter
+     * @param row The row to evaluate
+     * @param out The array to write the coordinates to
+     * @param normals The array to write the unit normals to at the same indices, or null to skip them
+     */
+    void evaluateRow(int sSteps, int tSteps, int row, float[] out, float[] normals) {
+        SamplingPlan tPlan = getTPlan(tSteps);
+        evaluateGrid(getSPlan(sSteps), tPlan, row, row, 0, tPlan.size() - 1, out, 0, row, 3, normals);
+        metrics().evaluated(tPlan.size());
+    }
+
+    /**
+     * Evaluates the block of rows {@code rowFrom} till {@code rowTo} and columns {@code columnFrom} till
+     * {@code columnTo} of the grid given by the sampling plans, and writes the results to their place in {@code out},
+     * in which row {@code rowBase} starts at {@code offset}. If {@code normals} is not null, the unit normals are
+     * written to it at the same indices.
+     */
+    private void evaluateGrid(SamplingPlan sPlan, SamplingPlan tPlan, int rowFrom, int rowTo, int columnFrom, int columnTo, float[] out, int offset, int rowBase, int stride, float[] normals) {
+        if (rowFrom > rowTo || columnFrom > columnTo) {
+            return;
+        }
+
+        int first = Integer.MAX_VALUE, last = 0;
+        for (int j = columnFrom; j <= columnTo; j++) {
+            first = Math.min(first, Math.max(tPlan.spans[j] - tDegree, 0));
+            last = Math.max(last, Math.min(tPlan.spans[j], tCount - 1));
+        }
+
+        int rows = rowTo - rowFrom + 1;
+        int blocks = Math.min(parallelism, rows);
+        if (blocks <= 1 || rows * (columnTo - columnFrom + 1) < MIN_PARALLEL_POINTS) {
+            evaluateRows(sPlan, tPlan, rowFrom, rowTo, columnFrom, columnTo, first, last, rowCurve, rowCurveDerivative, out, offset, rowBase, stride, normals);
+            return;
+        }
+
+        // Every block gets its own working memory and writes to its own rows, so the result equals the serial one.
+        if (blockCurves == null || blockCurves.length < blocks) {
+            blockCurves = new float[blocks][4 * tCount];
+            blockCurveDerivatives = new float[blocks][4 * tCount];
+        }
+        float[][] curves = blockCurves;
+        float[][] curveDerivatives = blockCurveDerivatives;
+        int curveFrom = first, curveTo = last;
+
+        // The blocks are taken in turn by the tasks and by the calling thread, which only waits for blocks that other
+        // threads already started. It never waits for a task that has not run yet, so this cannot deadlock when it
+        // is called from a thread of the executor itself, even if all other threads of the executor are busy.
+        AtomicInteger nextBlock = new AtomicInteger();
+        CompletableFuture<?>[] done = new CompletableFuture<?>[blocks];
+        for (int block = 0; block < blocks; block++) {
+            done[block] = new CompletableFuture<Void>();
+        }
+        Runnable worker = () -> {
+            for (int block = nextBlock.getAndIncrement(); block < blocks; block = nextBlock.getAndIncrement()) {
+                try {
+                    evaluateRows(sPlan, tPlan, rowFrom + rows * block / blocks, rowFrom + rows * (block + 1) / blocks - 1,
+                            columnFrom, columnTo, curveFrom, curveTo, curves[block], curveDerivatives[block], out, offset, rowBase, stride, normals);
+                    done[block].complete(null);
+                } catch (Throwable e) {
+                    done[block].completeExceptionally(e);
+                }
+            }
+        };
+        try {
+            for (int task = 1; task < blocks; task++) {
+                executor.execute(worker);
+            }
+        } catch (RejectedExecutionException e) {
+            // The calling thread evaluates the blocks that no task takes.
+        }
+        worker.run();
+        CompletableFuture.allOf(done).join();
+    }
+
+    /**
+     * Evaluates a block of the grid given by the sampling plans, using {@code curve} and {@code curveDerivative} as
+     * working memory for the curves of the rows, of which only the control points {@code first} till {@code last} are
+     * needed. Row {@code rowBase} starts at {@code offset} in {@code out}. The normals are only calculated if
+     * {@code normals} is not null.
+     */
+    private void evaluateRows(SamplingPlan sPlan, SamplingPlan tPlan, int rowFrom, int rowTo, int columnFrom, int columnTo, int first, int last,
+                              float[] curve, float[] curveDerivative, float[] out, int offset, int rowBase, int stride, float[] normals) {
+        for (int i = rowFrom; i <= rowTo; i++) {
+            combineRow(sPlan.spans[i], sPlan.basisValues, i * (sDegree + 1), curve, first, last);
+            if (normals != null) {
+                combineRow(sPlan.spans[i], sPlan.basisDerivatives, i * (sDegree + 1), curveDerivative, first, last);
+            }
+            int rowOffset = offset + (i - rowBase) * tPlan.size() * stride;
+            if (normals == null) {
+                EvaluationKernel.INSTANCE.combine(curve, tDegree, tPlan.spans, tPlan.basisValues, columnFrom, columnTo, out, rowOffset, stride);
+                continue;
+            }
+            for (int j = columnFrom; j <= columnTo; j++) {
+                combineWithNormal(curve, curveDerivative, tPlan.spans[j], tPlan.basisValues, tPlan.basisDerivatives, j * (tDegree + 1), out, normals, rowOffset + j * stride);
+            }
+        }
+    }
+
+    /**
+     * Writes the point and the unit normal of the surface on the curve of a row to {@code out} and {@code normals}.
+     * The point and both partial derivatives come from the same control points: the curve gives the point with the
+     * basis function values and the derivative with respect to t with their derivatives, and the derivative of the curve
+     * with respect to s gives the other partial derivative.
+     *
+     * @param curve The packed control net of the curve of the row
+     * @param curveDerivative The packed control net of the derivative of that curve with respect to s
+     * @param tKnot The knot span for the second parameter
+     * @param tBasisValues The array holding the basis function values for the second parameter
+     * @param tBasisDerivatives The array holding the basis function derivatives for the second parameter
+     * @param tBasisOffset The index of the first basis function value in both arrays
+     * @param out The array to write the x, y and z coordinates of the point to
+     * @param normals The array to write the x, y and z coordinates of the normal to
+     * @param offset The index in {@code out} and {@code normals} of the x coordinate
+     */
+    private void combineWithNormal(float[] curve, float[] curveDerivative, int tKnot, float[] tBasisValues, float[] tBasisDerivatives, int tBasisOffset, float[] out, float[] normals, int offset) {
+        float x = 0, y = 0, z = 0, w = 0;
+        float sx = 0, sy = 0, sz = 0, sw = 0;
+        float tx = 0, ty = 0, tz = 0, tw = 0;
+        for (int tI = Math.max(tDegree - tKnot, 0); tI <= Math.min(tDegree, tCount - 1 - tKnot + tDegree); tI++) {
+            int index = 4 * (tI + tKnot - tDegree);
+            float basisValue = tBasisValues[tBasisOffset + tI];
+            float basisDerivative = tBasisDerivatives[tBasisOffset + tI];
+            x += basisValue * curve[index];
+            y += basisValue * curve[index + 1];
+            z += basisValue * curve[index + 2];
+            w += basisValue * curve[index + 3];
+            sx += basisValue * curveDerivative[index];
+            sy += basisValue * curveDerivative[index + 1];
+            sz += basisValue * curveDerivative[index + 2];
+            sw += basisValue * curveDerivative[index + 3];
+            tx += basisDerivative * curve[index];
+            ty += basisDerivative * curve[index + 1];
+            tz += basisDerivative * curve[index + 2];
+            tw += basisDerivative * curve[index + 3];
+        }
+
+        x /= w;
+        y /= w;
+        z /= w;
+        out[offset] = x;
+        out[offset + 1] = y;
+        out[offset + 2] = z;
+        writeNormal(sx - sw * x, sy - sw * y, sz - sw * z, tx - tw * x, ty - tw * y, tz - tw * z, normals, offset);
+    }
+
+    /**
+     * Writes the unit vector in the direction of the cross product of two partial derivatives to {@code out}. Dividing
+     * the derivatives by the weight is left out, because it does not change that direction. If the derivatives are
+     * parallel, as at a degenerate edge, the zero vector is written.
+     */
+    private static void writeNormal(float sx, float sy, float sz, float tx, float ty, float tz, float[] out, int offset) {
+        float nx = sy * tz - sz * ty;
+        float ny = sz * tx - sx * tz;
+        float nz = sx * ty - sy * tx;
+        float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length > 0) {
+            nx /= length;
+            ny /= length;
+            nz /= length;
+        }
+        out[offset] = nx;
+        out[offset + 1] = ny;
+        out[offset + 2] = nz;
+    }
+
+    /**
+     * Combines the rows of the control net for knot span {@code sKnot} into the packed control net of a single curve.
+     * Only the control points {@code first} till {@code last} of that curve are calculated.
+     *
+     * @param sKnot The knot span for the first parameter
+     * @param sBasisValues The array holding the basis function values for the first parameter
+     * @param sBasisOffset The index of the first basis function value in {@code sBasisValues}
+     * @param curve The array to write the packed control net of the curve to
+     * @param first The index of the first control point to calculate
+     * @param last The index of the last control point to calculate
+     */
+    private void combineRow(int sKnot, float[] sBasisValues, int sBasisOffset, float[] curve, int first, int last) {
+        Arrays.fill(curve, 4 * first, 4 * (last + 1), 0);
+        for (int sI = Math.max(sDegree - sKnot, 0); sI <= Math.min(sDegree, sCount - 1 - sKnot + sDegree); sI++) {
+            float basisValue = sBasisValues[sBasisOffset + sI];
+            if (basisValue == 0) {
+                continue;
+            }
+            int rowIndex = 4 * (sI + sKnot - sDegree) * tCount;
+            for (int index = 4 * first; index < 4 * (last + 1); index++) {
+                curve[index] += basisValue * controlNet[rowIndex + index];
+            }
+        }
+    }
+
+    /**
+     * Brings the Bezier patches of the surface up to date, extracting them again if the surface changed since the last
+     * time.
+     */
+    private void getBezierSegments() {
+        if (bezier == null || bezierVersion != version) {
+            tBezier = BezierSegments.of(transpose(controlNet, sCount, tCount), 4 * sCount, tKnotVector, tDegree);
+            int columns = tBezier.count * (tDegree + 1);
+            bezier = BezierSegments.of(transpose(tBezier.points, columns, sCount), 4 * columns, sKnotVector, sDegree);
+            bezierDerivative = bezier.derivative();
+            bezierVersion = version;
+        }
+    }
+
+    /**
+     * Gives the transpose of a packed control net with point {@code (i, j)} at index {@code i * columns + j}.
+     */
+    private static float[] transpose(float[] net, int rows, int columns) {
+        float[] result = new float[net.length];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                System.arraycopy(net, 4 * (i * columns + j), result, 4 * (j * rows + i), 4);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gives a copy of this surface with the knot {@code s} inserted once into the knot vector for the first parameter.
+     * The copy has one more row of control points, but describes exactly the same surface.
+     *
+     * @param s The knot to insert, at least knot {@code sDegree} and less than knot {@code sCount}, where all basis
+     *          functions are defined
+     * @return The refined copy
+     */
+    public NurbsSurface insertSKnot(float s) {
+        if (s < sKnotVector[sDegree] || sKnotVector[sCount] <= s) {
+            throw new IllegalArgumentException("The knot should lie between knot `sDegree` and knot `sCount`.");
+        }
+        int span = findSpan(s, sKnotVector, -1);
+        float[] net = insertKnot(controlNet, 4 * tCount, sKnotVector, sDegree, span, s);
+        return new NurbsSurface(net, sCount + 1, tCount, insertKnot(sKnotVector, span, s), tKnotVector);
+    }
+
+    /**
+     * Gives a copy of this surface with the knot {@code t} inserted once into the knot vector for the second parameter.
+     * The copy has one more column of control points, but describes exactly the same surface.
+     *
+     * @param t The knot to insert, at least knot {@code tDegree} and less than knot {@code tCount}, where all basis
+     *          functions are defined
+     * @return The refined copy
+     */
+    public NurbsSurface insertTKnot(float t) {
+        if (t < tKnotVector[tDegree] || tKnotVector[tCount] <= t) {
+            throw new IllegalArgumentException("The knot should lie between knot `tDegree` and knot `tCount`.");
+        }
+        int span = findSpan(t, tKnotVector, -1);
+        float[] net = insertKnot(transpose(controlNet, sCount, tCount), 4 * sCount, tKnotVector, tDegree, span, t);
+        return new NurbsSurface(transpose(net, tCount + 1, sCount), sCount, tCount + 1, sKnotVector, insertKnot(tKnotVector, span, t));
+    }
+
+    /**
+     * Splits this surface into rational Bezier patches, one for every pair of knot spans of positive length. Each of
+     * them has the knot vectors of its spans, with both ends repeated {@code degree + 1} times, and together they
+     * describe the same surface.
+     *
+     * @return The Bezier patches, indexed by the knot span for the first parameter and then the one for the second
+     */
+    public NurbsSurface[][] toBezier() {
+        getBezierSegments();
+        int columns = tBezier.count * (tDegree + 1);
+        NurbsSurface[][] patches = new NurbsSurface[bezier.count][tBezier.count];
+        for (int a = 0; a < bezier.count; a++) {
+            for (int b = 0; b < tBezier.count; b++) {
+                float[] net = new float[4 * (sDegree + 1) * (tDegree + 1)];
+                for (int i = 0; i <= sDegree; i++) {
+                    int from = 4 * ((a * (sDegree + 1) + i) * columns + b * (tDegree + 1));
+                    System.arraycopy(bezier.points, from, net, 4 * i * (tDegree + 1), 4 * (tDegree + 1));
+                }
+                patches[a][b] = new NurbsSurface(net, sDegree + 1, tDegree + 1, bezier.knotVector(a), tBezier.knotVector(b));
+            }
+        }
+        return patches;
+    }
+
+    /**
+     * Gives a copy of this surface with as many interior knots removed from both knot vectors as possible while it
+     * stays within {@code tolerance} of this surface. Every removed knot also removes a row or column of control
+     * points. Knots are first removed for the first parameter, and then for the second one with what is left of the
+     * tolerance.
+     *
+     * @param tolerance The maximum distance between the copy and this surface at the same parameters
+     * @return The simplified copy, which has the same knot vectors if no knot could be removed
+     */
+    public NurbsSurface removeKnots(float tolerance) {
+        Simplification s = new Simplification(controlNet, 4 * tCount, sKnotVector, sDegree);
+        s.removeKnots(tolerance);
+        int newSCount = s.net.length / (4 * tCount);
+        Simplification t = new Simplification(transpose(s.net, newSCount, tCount), 4 * newSCount, tKnotVector, tDegree);
+        t.removeKnots(tolerance - s.getError());
+        int newTCount = t.net.length / (4 * newSCount);
+        return new NurbsSurface(transpose(t.net, newTCount, newSCount), newSCount, newTCount, s.knotVector, t.knotVector);
+    }
+
+    /**
+     * Gives a copy of this surface with a degree one higher for the first parameter, which describes exactly the same
+     * surface.
+     *
+     * @return The elevated copy
+     * @see NurbsCurve#elevateDegree()
+     */
+    public NurbsSurface elevateSDegree() {
+        Simplification s = new Simplification(controlNet, 4 * tCount, sKnotVector, sDegree);
+        s.elevateDegree();
+        return new NurbsSurface(s.net, s.net.length / (4 * tCount), tCount, s.knotVector, tKnotVector);
+    }
+
+    /**
+     * Gives a copy of this surface with a degree one higher for the second parameter, which describes exactly the same
+     * surface.
+     *
+     * @return The elevated copy
+     * @see NurbsCurve#elevateDegree()
+     */
+    public NurbsSurface elevateTDegree() {
+        Simplification t = new Simplification(transpose(controlNet, sCount, tCount), 4 * sCount, tKnotVector, tDegree);
+        t.elevateDegree();
+        int newTCount = t.net.length / (4 * sCount);
+        return new NurbsSurface(transpose(t.net, newTCount, sCount), sCount, newTCount, sKnotVector, t.knotVector);
+    }
+
+    /**
+     * Gives a copy of this surface with a degree one lower for the first parameter, if it can stay within
+     * {@code tolerance} of this surface.
+     *
+     * @param tolerance The maximum distance between the copy and this surface at the same parameters
+     * @return The reduced copy, or null if it would be further away than {@code tolerance}
+     * @see NurbsCurve#reduceDegree(float)
+     */
+    public NurbsSurface reduceSDegree(float tolerance) {
+        if (sDegree <= 1) {
+            throw new IllegalArgumentException("The degree for the first parameter must be at least 2 to reduce it.");
+        }
+        Simplification s = new Simplification(controlNet, 4 * tCount, sKnotVector, sDegree);
+        if (!s.reduceDegree(tolerance)) {
+            return null;
+        }
+        return new NurbsSurface(s.net, s.net.length / (4 * tCount), tCount, s.knotVector, tKnotVector);
+    }
+
+    /**
+     * Gives a copy of this surface with a degree one lower for the second parameter, if it can stay within
+     * {@code tolerance} of this surface.
+     *
+     * @param tolerance The maximum distance between the copy and this surface at the same parameters
+     * @return The reduced copy, or null if it would be further away than {@code tolerance}
+     * @see NurbsCurve#reduceDegree(float)
+     */
+    public NurbsSurface reduceTDegree(float tolerance) {
+        if (tDegree <= 1) {
+            throw new IllegalArgumentException("The degree for the second parameter must be at least 2 to reduce it.");
+        }
+        Simplification t = new Simplification(transpose(controlNet, sCount, tCount), 4 * sCount, tKnotVector, tDegree);
+        if (!t.reduceDegree(tolerance)) {
+            return null;
+        }
+        int newTCount = t.net.length / (4 * sCount);
+        return new NurbsSurface(transpose(t.net, newTCount, sCount), sCount, newTCount, sKnotVector, t.knotVector);
+    }
+
+    /**
+     * Gives a box that contains the whole surface: the bounding box of the control points that influence its nonempty
+     * pairs of knot spans. It is cached, and only the pairs of knot spans whose control points changed are looked at
+     * again.
+     */
+    public BoundingBox getBoundingBox() {
+        return BoundingBox.of(getBounds(), 0);
+    }
+
+    /**
+     * Gives a box that contains the part of the surface on knot spans {@code sKnot} and {@code tKnot}: the bounding
+     * box of the control points that influence it.
+     */
+    public BoundingBox getSpanBoundingBox(int sKnot, int tKnot) {
+        if (sKnot < 0 || sKnotVector.length <= sKnot + 1) {
+            throw new IllegalArgumentException("sKnot out of bounds.");
+        }
+        if (tKnot < 0 || tKnotVector.length <= tKnot + 1) {
+            throw new IllegalArgumentException("tKnot out of bounds.");
+        }
+        return BoundingBox.of(getSpanBounds(sKnot, tKnot), 6 * (sKnot * tKnotVector.length + tKnot));
+    }
+
+    /**
+     * Gives the bounding box of the whole surface, as six floats from index 0.
+     */
+    private float[] getBounds() {
+        if (bounds == null) {
+            float[] bounds = new float[6];
+            clearBounds(bounds, 0);
+            for (int sKnot = 0; sKnot < sKnotVector.length - 1; sKnot++) {
+                if (sKnotVector[sKnot] == sKnotVector[sKnot + 1]) {
+                    continue;
+                }
+                for (int tKnot = 0; tKnot < tKnotVector.length - 1; tKnot++) {
+                    if (tKnotVector[tKnot] < tKnotVector[tKnot + 1]) {
+                        includeBounds(getSpanBounds(sKnot, tKnot), 6 * (sKnot * tKnotVector.length + tKnot), bounds, 0);
+                    }
+                }
+            }
+            this.bounds = bounds;
+        }
+        return bounds;
+    }
+
+    /**
+     * Gives the bounding boxes of the pairs of knot spans, with the one of {@code sKnot} and {@code tKnot} up to date.
+     */
+    private float[] getSpanBounds(int sKnot, int tKnot) {
+        if (spanBounds == null) {
+            spanBounds = new float[6 * sKnotVector.length * tKnotVector.length];
+            validSpanBounds = new boolean[sKnotVector.length * tKnotVector.length];
+        }
+        int index = sKnot * tKnotVector.length + tKnot;
+        if (!validSpanBounds[index]) {
+            clearBounds(spanBounds, 6 * index);
+            for (int i = Math.max(sKnot - sDegree, 0); i <= Math.min(sKnot, sCount - 1); i++) {
+                for (int j = Math.max(tKnot - tDegree, 0); j <= Math.min(tKnot, tCount - 1); j++) {
+                    includeControlPoint(controlNet, i * tCount + j, spanBounds, 6 * index);
+                }
+            }
+            validSpanBounds[index] = true;
+        }
+        return spanBounds;
+    }
+
+    private SamplingPlan getSPlan(int steps) {
+        if (sPlan == null || sPlan.steps != steps) {
+            sPlan = SamplingPlan.get(sKnotVector, sDegree, steps);
+        }
+        return sPlan;
+    }
+
+    private SamplingPlan getTPlan(int steps) {
+        if (tPlan == null || tPlan.steps != steps) {
+            tPlan = SamplingPlan.get(tKnotVector, tDegree, steps);
+        }
+        return tPlan;
+    }
+
+    /**
+     * Gives the value of the surface at s={@code s} and t={@code t}.
+     */
+    public PVector evaluate(float s, float t) {
+        s = clampToKnots(s, sKnotVector);
+        t = clampToKnots(t, tKnotVector);
+
+        lastSSpan = findSpan(s, sKnotVector, lastSSpan);
+        lastTSpan = findSpan(t, tKnotVector, lastTSpan);
+        return evaluate(s, lastSSpan, t, lastTSpan);
+    }
+
+    /**
+     * Gives the value of the surface at s={@code s} and t={@code t} with {@code s} in knot span {@code sKnot} and {@code t} in knot span {@code tKnot}.
+     */
+    public PVector evaluate(float s, int sKnot, float t, int tKnot) {
+        if (sKnot < 0 || sKnotVector.length <= sKnot + 1) {
+            throw new IllegalArgumentException("sKnot out of bounds.");
+        }
+        if (s < sKnotVector[sKnot] || sKnotVector[sKnot + 1] < s) {
+            throw new IllegalArgumentException("s should be between knot `sKnot` and knot `sKnot + 1`.");
+        }
+        if (tKnot < 0 || tKnotVector.length <= tKnot + 1) {
+            throw new IllegalArgumentException("tKnot out of bounds.");
+        }
+        if (t < tKnotVector[tKnot] || tKnotVector[tKnot + 1] < t) {
+            throw new IllegalArgumentException("t should be between knot `tKnot` and knot `tKnot + 1`.");
+        }
+
+        evaluate(s, sKnot, t, tKnot, point, 0);
+        return new PVector(point[0], point[1], point[2]);
+    }
+
+    /**
+     * Gives the partial derivative of the surface with respect to s at s={@code s} and t={@code t}. Parameters outside
+     * the knot vectors are clamped to them.
+     */
+    public PVector sDerivative(float s, float t) {
+        float[] derivatives = derivatives(s, t);
+        return new PVector(derivatives[0], derivatives[1], derivatives[2]);
+    }
+
+    /**
+     * Gives the partial derivative of the surface with respect to t at s={@code s} and t={@code t}. Parameters outside
+     * the knot vectors are clamped to them.
+     */
+    public PVector tDerivative(float s, float t) {
+        float[] derivatives = derivatives(s, t);
+        return new PVector(derivatives[3], derivatives[4], derivatives[5]);
+    }
+
+    /**
+     * Gives the unit normal of the surface at s={@code s} and t={@code t}, the direction of the cross product of the
+     * derivatives with respect to s and t. At a degenerate point, where these derivatives are parallel, this is the
+     * zero vector. Parameters outside the knot vectors are clamped to them.
+     */
+    public PVector normal(float s, float t) {
+        float[] derivatives = derivatives(s, t);
+        float[] normal = new float[3];
+        writeNormal(derivatives[0], derivatives[1], derivatives[2], derivatives[3], derivatives[4], derivatives[5], normal, 0);
+        return new PVector(normal[0], normal[1], normal[2]);
+    }
+
+    /**
+     * Gives the partial derivatives of the surface with respect to s and t at s={@code s} and t={@code t}, as the
+     * x, y and z coordinates of the first followed by those of the second.
+     */
+    private float[] derivatives(float s, float t) {
+        s = clampToKnots(s, sKnotVector);
+        t = clampToKnots(t, tKnotVector);
+        int sKnot = lastSSpan = findSpan(s, sKnotVector, lastSSpan);
+        int tKnot = lastTSpan = findSpan(t, tKnotVector, lastTSpan);
+        calcBasisFunctionDerivatives(sKnot, s, sDegree, sKnotVector, sBasisValues, sBasisDerivatives, basisScratch);
+        calcBasisFunctionDerivatives(tKnot, t, tDegree, tKnotVector, tBasisValues, tBasisDerivatives, basisScratch);
+        metrics().basisComputed(2);
+
+        // A is the weighted sum of the homogeneous control points, As and At are its partial derivatives.
+        float x = 0, y = 0, z = 0, w = 0;
+        float sx = 0, sy = 0, sz = 0, sw = 0;
+        float tx = 0, ty = 0, tz = 0, tw = 0;
+        for (int sI = Math.max(sDegree - sKnot, 0); sI <= Math.min(sDegree, sCount - 1 - sKnot + sDegree); sI++) {
+            int rowIndex = (sI + sKnot - sDegree) * tCount + tKnot - tDegree;
+            float x1 = 0, y1 = 0, z1 = 0, w1 = 0;
+            float tx1 = 0, ty1 = 0, tz1 = 0, tw1 = 0;
+            for (int tI = Math.max(tDegree - tKnot, 0); tI <= Math.min(tDegree, tCount - 1 - tKnot + tDegree); tI++) {
+                int index = 4 * (rowIndex + tI);
+                float basisValue = tBasisValues[tI];
+                float basisDerivative = tBasisDerivatives[tI];
+                x1 += basisValue * controlNet[index];
+                y1 += basisValue * controlNet[index + 1];
+                z1 += basisValue * controlNet[index + 2];
+                w1 += basisValue * controlNet[index + 3];
+                tx1 += basisDerivative * controlNet[index];
+                ty1 += basisDerivative * controlNet[index + 1];
+                tz1 += basisDerivative * controlNet[index + 2];
+                tw1 += basisDerivative * controlNet[index + 3];
+            }
+            float basisValue = sBasisValues[sI];
+            float basisDerivative = sBasisDerivatives[sI];
+            x += basisValue * x1;
+            y += basisValue * y1;
+            z += basisValue * z1;
+            w += basisValue * w1;
+            sx += basisDerivative * x1;
+            sy += basisDerivative * y1;
+            sz += basisDerivative * z1;
+            sw += basisDerivative * w1;
+            tx += basisValue * tx1;
+            ty += basisValue * ty1;
+            tz += basisValue * tz1;
+            tw += basisValue * tw1;
+        }
+
+        x /= w;
+        y /= w;
+        z /= w;
+        return new float[]{
+                (sx - sw * x) / w, (sy - sw * y) / w, (sz - sw * z) / w,
+                (tx - tw * x) / w, (ty - tw * y) / w, (tz - tw * z) / w
+        };
+    }
+
+    /**
+     * Evaluates the surface at all parameter pairs ({@code ss[i]}, {@code ts[i]}) and writes the coordinates of the
+     * results to {@code out}. Parameters outside the knot vectors are clamped to them. Consecutive parameters are looked
+     * up starting from the knot spans of the previous ones, so sorted input sweeps over the knot vectors only once.
+     *
+     * @param ss The values of the first parameter to evaluate the surface at
+     * @param ts The values of the second parameter to evaluate the surface at
+     * @param out The array to write the x, y and z coordinates of the results to
+     * @param offset The index in {@code out} of the x coordinate of the first result
+     * @param stride The distance in {@code out} between the x coordinates of consecutive results, at least 3
+     */
+    public void evaluate(float[] ss, float[] ts, float[] out, int offset, int stride) {
+        if (ss.length != ts.length) {
+            throw new IllegalArgumentException("The parameter arrays must be of equal length.");
+        }
+        checkBatchBounds(ss.length, out.length, offset, stride);
+        long start = metrics().start();
+        for (int from = 0; from < ss.length; from += BATCH_SIZE) {
+            evaluateBatch(ss, ts, from, Math.min(BATCH_SIZE, ss.length - from), out, offset + from * stride, stride);
+        }
+        metrics().batchEvaluated(start);
+    }
+
+    /**
+     * Evaluates the surface at all parameter pairs ({@code ss[i]}, {@code ts[i]}) and writes the coordinates of the
+     * results to {@code out}, using absolute indices so the position of the buffer is left alone.
+     *
+     * @param ss The values of the first parameter to evaluate the surface at
+     * @param ts The values of the second parameter to evaluate the surface at
+     * @param out The buffer to write the x, y and z coordinates of the results to
+     * @param offset The index in {@code out} of the x coordinate of the first result
+     * @param stride The distance in {@code out} between the x coordinates of consecutive results, at least 3
+     * @see #evaluate(float[], float[], float[], int, int)
+     */
+    public void evaluate(float[] ss, float[] ts, FloatBuffer out, int offset, int stride) {
+        if (ss.length != ts.length) {
+            throw new IllegalArgumentException("The parameter arrays must be of equal length.");
+        }
+        checkBatchBounds(ss.length, out.limit(), offset, stride);
+        long start = metrics().start();
+        for (int from = 0; from < ss.length; from += BATCH_SIZE) {
+            int count = Math.min(BATCH_SIZE, ss.length - from);
+            if (batchOut == null) {
+                batchOut = new float[3 * BATCH_SIZE];
+            }
+            evaluateBatch(ss, ts, from, count, batchOut, 0, 3);
+            for (int i = 0; i < count; i++) {
+                int index = offset + (from + i) * stride;
+                out.put(index, batchOut[3 * i]);
+                out.put(index + 1, batchOut[3 * i + 1]);
+                out.put(index + 2, batchOut[3 * i + 2]);
+            }
+        }
+        metrics().batchEvaluated(start);
+    }
+
+    /**
+     * Evaluates the surface at the {@code count} parameter pairs in {@code ss} and {@code ts} from index {@code from},
+     * at most {@link #BATCH_SIZE} of them, and writes the coordinates of the results to {@code out}. The basis
+     * functions and weighted sums are left to the {@link EvaluationKernel}, which handles several pairs at once where
+     * the processor allows it.
+     */
+    private void evaluateBatch(float[] ss, float[] ts, int from, int count, float[] out, int offset, int stride) {
+        if (precompiled) {
+            for (int i = 0; i < count; i++) {
+                float s = clampToKnots(ss[from + i], sKnotVector);
+                float t = clampToKnots(ts[from + i], tKnotVector);
+                lastSSpan = findSpan(s, sKnotVector, lastSSpan);
+                lastTSpan = findSpan(t, tKnotVector, lastTSpan);
+                evaluate(s, lastSSpan, t, lastTSpan, out, offset + i * stride);
+            }
+            return;
+        }
+
+        if (batchSSpans == null) {
+            batchSParameters = new float[BATCH_SIZE];
+            batchTParameters = new float[BATCH_SIZE];
+            batchSSpans = new int[BATCH_SIZE];
+            batchTSpans = new int[BATCH_SIZE];
+            batchSBasisValues = new float[BATCH_SIZE * (sDegree + 1)];
+            batchTBasisValues = new float[BATCH_SIZE * (tDegree + 1)];
+        }
+        for (int i = 0; i < count; i++) {
+            float s = clampToKnots(ss[from + i], sKnotVector);
+            float t = clampToKnots(ts[from + i], tKnotVector);
+            lastSSpan = findSpan(s, sKnotVector, lastSSpan);
+            lastTSpan = findSpan(t, tKnotVector, lastTSpan);
+            batchSParameters[i] = s;
+            batchTParameters[i] = t;
+            batchSSpans[i] = lastSSpan;
+            batchTSpans[i] = lastTSpan;
+        }
+        EvaluationKernel kernel = EvaluationKernel.INSTANCE;
+        kernel.basisValues(sKnotVector, sDegree, batchSParameters, batchSSpans, 0, count - 1, batchSBasisValues);
+        kernel.basisValues(tKnotVector, tDegree, batchTParameters, batchTSpans, 0, count - 1, batchTBasisValues);
+        kernel.combine(controlNet, tCount, sDegree, tDegree, batchSSpans, batchSBasisValues, batchTSpans, batchTBasisValues, 0, count - 1, out, offset, stride);
+        metrics().evaluated(count);
+        metrics().basisComputed(2 * count);
+    }
+
+    /**
+     * Writes the coordinates of the surface at s={@code s} and t={@code t} with {@code s} in knot span {@code sKnot}
+     * and {@code t} in knot span {@code tKnot} to {@code out}, without checking the arguments.
+     */
+    private void evaluate(float s, int sKnot, float t, int tKnot, float[] out, int offset) {
+        metrics().evaluated(1);
+        if (precompiled) {
+            float[] coefficients = getPatchCoefficients(sKnot, tKnot);
+            float rs = (s - sKnotVector[sKnot]) / (sKnotVector[sKnot + 1] - sKnotVector[sKnot]);
+            float rt = (t - tKnotVector[tKnot]) / (tKnotVector[tKnot + 1] - tKnotVector[tKnot]);
+            float x = 0, y = 0, z = 0, w = 0;
+            for (int i = sDegree; i >= 0; i--) {
+                int row = 4 * i * (tDegree + 1);
+                float x1 = 0, y1 = 0, z1 = 0, w1 = 0;
+                for (int k = row + 4 * tDegree; k >= row; k -= 4) {
+                    x1 = x1 * rt + coefficients[k];
+                    y1 = y1 * rt + coefficients[k + 1];
+                    z1 = z1 * rt + coefficients[k + 2];
+                    w1 = w1 * rt + coefficients[k + 3];
+                }
+                x = x * rs + x1;
+                y = y * rs + y1;
+                z = z * rs + z1;
+                w = w * rs + w1;
+            }
+            out[offset] = x / w;
+            out[offset + 1] = y / w;
+            out[offset + 2] = z / w;
+            return;
+        }
+
+        calcBasisFunctionValues(sKnot, s, sDegree, sKnotVector, sBasisValues, basisScratch);
+        calcBasisFunctionValues(tKnot, t, tDegree, tKnotVector, tBasisValues, basisScratch);
+        metrics().basisComputed(2);
+
+        combine(sKnot, sBasisValues, 0, tKnot, tBasisValues, 0, out, offset);
+    }
+
+    /**
+     * Gives the power basis coefficients of the surface on knot spans {@code sKnot} and {@code tKnot}, calculating them
+     * if needed. Coefficient {@code (i, j)}, of {@code s^i t^j} in the local parameters of the spans, starts at index
+     * {@code 4 * (i * (tDegree + 1) + j)}.
+     */
+    private float[] getPatchCoefficients(int sKnot, int tKnot) {
+        if (patchCoefficients == null) {
+            patchCoefficients = new float[sKnotVector.length * tKnotVector.length][];
+        }
+        int index = sKnot * tKnotVector.length + tKnot;
+        float[] coefficients = patchCoefficients[index];
+        metrics().cacheLookup(coefficients != null);
+        if (coefficients == null) {
+            int rowLength = 4 * (tDegree + 1);
+            float[] points = new float[(sDegree + 1) * rowLength];
+            int tFrom = Math.max(tKnot - tDegree, 0);
+            int tTo = Math.min(tKnot, tCount - 1);
+            for (int i = Math.max(sKnot - sDegree, 0); i <= Math.min(sKnot, sCount - 1); i++) {
+                System.arraycopy(controlNet, 4 * (i * tCount + tFrom), points, (i - sKnot + sDegree) * rowLength + 4 * (tFrom - tKnot + tDegree), 4 * (tTo - tFrom + 1));
+            }
+
+            // First along s, treating the rows as points, and then along t for every resulting row.
+            float[] rows = new float[points.length];
+            calcPowerBasis(points, rowLength, sKnotVector, sDegree, sKnot, rows, new float[points.length]);
+            coefficients = new float[points.length];
+            float[] row = new float[rowLength];
+            float[] rowCoefficients = new float[rowLength];
+            float[] scratch = new float[rowLength];
+            for (int i = 0; i <= sDegree; i++) {
+                System.arraycopy(rows, i * rowLength, row, 0, rowLength);
+                calcPowerBasis(row, 4, tKnotVector, tDegree, tKnot, rowCoefficients, scratch);
+                System.arraycopy(rowCoefficients, 0, coefficients, i * rowLength, rowLength);
+            }
+            patchCoefficients[index] = coefficients;
+        }
+        return coefficients;
+    }
+
+    /**
+     * Sets whether single evaluations, through {@link #evaluate(float, float)} and the batch variants, use a
+     * precompiled form of the surface. In that form, every pair of knot spans keeps the coefficients of the surface as a
+     * polynomial in s and t, so an evaluation is a knot span lookup and Horner's scheme instead of calculating the basis
+     * functions. The coefficients of a pair of spans are calculated when it is first evaluated, and thrown away when the
+     * setters change a control point that influences it. Drawing is not affected.
+     *
+     * @param precompiled Whether to use the precompiled form, which is off by default
+     */
+    public void setPrecompiled(boolean precompiled) {
+        this.precompiled = precompiled;
+        if (!precompiled) {
+            patchCoefficients = null;
+        }
+    }
+
+    /**
+     * Writes the weighted sum of the control points for knot spans {@code sKnot} and {@code tKnot} to {@code out}.
+     *
+     * @param sKnot The knot span for the first parameter
+     * @param sBasisValues The array holding the basis function values for the first parameter
+     * @param sBasisOffset The index of the first basis function value in {@code sBasisValues}
+     * @param tKnot The knot span for the second parameter
+     * @param tBasisValues The array holding the basis function values for the second parameter
+     * @param tBasisOffset The index of the first basis function value in {@code tBasisValues}
+     * @param out The array to write the x, y and z coordinates to
+     * @param offset The index in {@code out} of the x coordinate
+     */
+    private void combine(int sKnot, float[] sBasisValues, int sBasisOffset, int tKnot, float[] tBasisValues, int tBasisOffset, float[] out, int offset) {
+        float x = 0, y = 0, z = 0, w = 0;
+        for (int sI = Math.max(sDegree - sKnot, 0); sI <= Math.min(sDegree, sCount - 1 - sKnot + sDegree); sI++) {
+            int rowIndex = (sI + sKnot - sDegree) * tCount + tKnot - tDegree;
+            float x1 = 0, y1 = 0, z1 = 0, w1 = 0;
+            for (int tI = Math.max(tDegree - tKnot, 0); tI <= Math.min(tDegree, tCount - 1 - tKnot + tDegree); tI++) {
+                int index = 4 * (rowIndex + tI);
+                float basisValue = tBasisValues[tBasisOffset + tI];
+                x1 += basisValue * controlNet[index];
+                y1 += basisValue * controlNet[index + 1];
+                z1 += basisValue * controlNet[index + 2];
+                w1 += basisValue * controlNet[index + 3];
+            }
+            float basisValue = sBasisValues[sBasisOffset + sI];
+            x += basisValue * x1;
+            y += basisValue * y1;
+            z += basisValue * z1;
+            w += basisValue * w1;
+        }
+
+        out[offset] = x / w;
+        out[offset + 1] = y / w;
+        out[offset + 2] = z / w;
+    }
+
+    private static float clampToKnots(float value, float[] knotVector) {
+        return Math.max(knotVector[0], Math.min(knotVector[knotVector.length - 1], value));
+    }
+
+    /**
+     * Sets the number of threads that grid evaluation and tessellation may use. The rows of large grids are split
+     * into this many blocks, which are evaluated on the executor, see {@link #setExecutor(Executor)}, and on the calling
+     * thread. The result does not depend on the parallelism.
+     *
+     * @param parallelism The number of blocks to split grids into, 1 (the default) to evaluate them on the calling thread
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be at least 1.");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the executor that evaluates blocks of rows when the parallelism is larger than 1.
+     *
+     * @param executor The executor to use, or null to use the common fork-join pool (the default)
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = (executor == null) ? ForkJoinPool.commonPool() : executor;
+    }
+
+    /**
+     * Publishes the current state of the surface as an immutable snapshot, unless it already is the last published
+     * one. The snapshot shares the control net with the surface, which copies it before the next change, so a series of
+     * changes between two calls costs a single copy. Publishing is a single atomic swap, after which
+     * {@link #getSnapshot()} gives the new snapshot on every thread.
+     * <p>
+     * The surface itself is not thread-safe: one thread changes (and may draw) it, and other threads evaluate the
+     * snapshots it publishes.
+     *
+     * @return The published snapshot
+     */
+    public SurfaceSnapshot publish() {
+        SurfaceSnapshot published = snapshot.get();
+        if (published.getVersion() != version) {
+            published = new SurfaceSnapshot(controlNet, sCount, tCount, sKnotVector, tKnotVector, version);
+            netShared = true;
+            snapshot.set(published);
+        }
+        return published;
+    }
+
+    /**
+     * Gives the last snapshot published by {@link #publish()}, or the initial state of the surface if none was
+     * published yet. This can be called from any thread.
+     */
+    public SurfaceSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Gives the control net for changing it, copying it first if it is shared with a snapshot.
+     */
+    private float[] writableNet() {
+        if (netShared) {
+            controlNet = controlNet.clone();
+            netShared = false;
+        }
+        return controlNet;
+    }
+
+    /**
+     * Gives the packed control net itself, see {@link Nurbs}, which must not be changed.
+     */
+    float[] getControlNet() {
+        return controlNet;
+    }
+
+    int getSCount() {
+        return sCount;
+    }
+
+    int getTCount() {
+        return tCount;
+    }
+
+    /**
+     * Gives the knot vector for the first parameter itself, which must not be changed.
+     */
+    float[] getSKnotVector() {
+        return sKnotVector;
+    }
+
+    /**
+     * Gives the knot vector for the second parameter itself, which must not be changed.
+     */
+    float[] getTKnotVector() {
+        return tKnotVector;
+    }
+
+    public PVector getPoint(int sIndex, int tIndex) {
+        checkIndices(sIndex, tIndex);
+        return getControlPoint(controlNet, sIndex * tCount + tIndex);
+    }
+
+    public float getWeight(int sIndex, int tIndex) {
+        checkIndices(sIndex, tIndex);
+        return controlNet[4 * (sIndex * tCount + tIndex) + 3];
+    }
+
+    public void setPoint(int sIndex, int tIndex, PVector point) {
+        checkIndices(sIndex, tIndex);
+        int index = sIndex * tCount + tIndex;
+        setControlPoint(writableNet(), index, point, controlNet[4 * index + 3]);
+        modified(sIndex, tIndex, sIndex, tIndex);
+    }
+
+    public void setPoints(PVector[][] points) {
+        if (sCount != points.length) {
+            throw new IllegalArgumentException("The old points array does not have the same dimensions as the new one.");
+        }
+        for (int i = 0; i < sCount; i++) {
+            if (tCount != points[i].length) {
+                throw new IllegalArgumentException("The old points array does not have the same dimensions as the new one.");
+            }
+        }
+        float[] controlNet = writableNet();
+        for (int i = 0; i < sCount; i++) {
+            for (int j = 0; j < tCount; j++) {
+                int index = i * tCount + j;
+                setControlPoint(controlNet, index, points[i][j], controlNet[4 * index + 3]);
+            }
+        }
+        modified(0, 0, sCount - 1, tCount - 1);
+    }
+
+    public void setWeight(int sIndex, int tIndex, float weight) {
+        checkIndices(sIndex, tIndex);
+        setControlWeight(writableNet(), sIndex * tCount + tIndex, weight);
+        modified(sIndex, tIndex, sIndex, tIndex);
+    }
+
+    public void setWeights(float[][] weights) {
+        if (sCount != weights.length) {
+            throw new IllegalArgumentException("The old weights array does not have the same dimensions as the new one.");
+        }
+        for (int i = 0; i < sCount; i++) {
+            if (tCount != weights[i].length) {
+                throw new IllegalArgumentException("The old weights array does not have the same dimensions as the new one.");
+            }
+            for (float weight : weights[i]) {
+                checkWeight(weight);
+            }
+        }
+        float[] controlNet = writableNet();
+        for (int i = 0; i < sCount; i++) {
+            for (int j = 0; j < tCount; j++) {
+                setControlWeight(controlNet, i * tCount + j, weights[i][j]);
+            }
+        }
+        modified(0, 0, sCount - 1, tCount - 1);
+    }
+
+    /**
+     * Registers a change to the block of control points from ({@code sFrom}, {@code tFrom}) till ({@code sTo}, {@code tTo}).
+     */
+    private void modified(int sFrom, int tFrom, int sTo, int tTo) {
+        version++;
+        bounds = null;
+        // Control point (i, j) only influences knot spans i till i + sDegree and j till j + tDegree.
+        int sLast = Math.min(sTo + sDegree, sKnotVector.length - 1);
+        int tLast = Math.min(tTo + tDegree, tKnotVector.length - 1);
+        for (int sKnot = sFrom; sKnot <= sLast; sKnot++) {
+            int from = sKnot * tKnotVector.length + tFrom;
+            int to = sKnot * tKnotVector.length + tLast + 1;
+            if (patchCoefficients != null) {
+                Arrays.fill(patchCoefficients, from, to, null);
+            }
+            if (validSpanBounds != null) {
+                Arrays.fill(validSpanBounds, from, to, false);
+            }
+        }
+        if (validBlocks != null) {
+            int[] sSpans = verticesSPlan.sampledSpans;
+            int[] tSpans = verticesTPlan.sampledSpans;
+            for (int a = 0; a < sSpans.length; a++) {
+                if (sSpans[a] < sFrom || sLast < sSpans[a]) {
+                    continue;
+                }
+                for (int b = 0; b < tSpans.length; b++) {
+                    if (tFrom <= tSpans[b] && tSpans[b] <= tLast) {
+                        validBlocks[a * tSpans.length + b] = false;
+                    }
+                }
+            }
+        }
+    }
+
+    private void checkIndices(int sIndex, int tIndex) {
+        if (sIndex < 0 || sCount <= sIndex) {
+            throw new IllegalArgumentException("First index out of bounds");
+        }
+        if (tIndex < 0 || tCount <= tIndex) {
+            throw new IllegalArgumentException("Second index out of bounds");
         }
-        this.weights = weights;
     }
 
 }
@@ -0,0 +1,241 @@
+package com.tempestasludi.processing.nurbs;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The knot spans and basis function values for sampling a knot vector, usually uniformly in a given number of steps.
+ * These only depend on the knot vector and the degree, so once calculated, drawing only takes a weighted sum per sample.
+ * <p>
+ * Plans are immutable, and uniform plans are interned: every nurbs with the same knot vector, degree and number of steps
+ * shares the same plan for as long as any of them uses it.
+ */
+final class SamplingPlan {
+    private static final Map<Key, WeakReference<SamplingPlan>> plans = new WeakHashMap<>();
+
+    /**
+     * The key of this plan in {@link #plans}. The plan holds on to it, so the entry stays as long as the plan is in use.
+     * Plans that are not shared have no key.
+     */
+    private final Key key;
+
+    /**
+     * The degree of the basis functions.
+     */
+    final int degree;
+
+    /**
+     * The number of steps between the samples, so there are {@code steps + 1} of them.
+     */
+    final int steps;
+
+    /**
+     * The parameter value of every sample.
+     */
+    final float[] parameters;
+
+    /**
+     * The knot span of every sample.
+     */
+    final int[] spans;
+
+    /**
+     * The smallest and largest knot span of the samples.
+     */
+    final int minSpan;
+    final int maxSpan;
+
+    /**
+     * The knot spans that contain samples, in the order of the samples, each listed once for every run of consecutive
+     * samples in it. For sorted samples, these are the distinct knot spans of the samples.
+     */
+    final int[] sampledSpans;
+
+    /**
+     * The {@code degree + 1} basis function values of every sample, stored consecutively.
+     */
+    final float[] basisValues;
+
+    /**
+     * The first derivatives of the basis functions of every sample, stored like {@link #basisValues}.
+     */
+    final float[] basisDerivatives;
+
+    private SamplingPlan(Key key) {
+        this(key, key.knotVector, key.degree, uniformParameters(key.knotVector, key.steps));
+    }
+
+    private SamplingPlan(Key key, float[] knotVector, int degree, float[] parameters) {
+        this.key = key;
+        this.degree = degree;
+        this.steps = parameters.length - 1;
+        this.parameters = parameters;
+        this.spans = new int[parameters.length];
+        this.basisValues = new float[parameters.length * (degree + 1)];
+        this.basisDerivatives = new float[parameters.length * (degree + 1)];
+
+        float[] values = new float[degree + 1];
+        float[] derivatives = new float[degree + 1];
+        float[] scratch = new float[2 * degree];
+        int span = -1;
+        int minSpan = Integer.MAX_VALUE, maxSpan = Integer.MIN_VALUE;
+        for (int i = 0; i < parameters.length; i++) {
+            float t = parameters[i];
+            span = Nurbs.findSpan(t, knotVector, span);
+            Nurbs.calcBasisFunctionDerivatives(span, t, degree, knotVector, values, derivatives, scratch);
+
+            spans[i] = span;
+            System.arraycopy(values, 0, basisValues, i * (degree + 1), degree + 1);
+            System.arraycopy(derivatives, 0, basisDerivatives, i * (degree + 1), degree + 1);
+            minSpan = Math.min(minSpan, span);
+            maxSpan = Math.max(maxSpan, span);
+        }
+        this.minSpan = minSpan;
+        this.maxSpan = maxSpan;
+
+        int runs = 0;
+        for (int i = 0; i < spans.length; i++) {
+            if (i == 0 || spans[i] != spans[i - 1]) {
+                runs++;
+            }
+        }
+        this.sampledSpans = new int[runs];
+        for (int i = 0, run = 0; i < spans.length; i++) {
+            if (i == 0 || spans[i] != spans[i - 1]) {
+                sampledSpans[run++] = spans[i];
+            }
+        }
+        NurbsMetrics.getGlobal().basisComputed(parameters.length);
+    }
+
+    private static float[] uniformParameters(float[] knotVector, int steps) {
+        float start = knotVector[0];
+        float end = knotVector[knotVector.length - 1];
+        float[] parameters = new float[steps + 1];
+        for (int i = 0; i <= steps; i++) {
+            parameters[i] = (i == steps) ? end : start + (end - start) * i / steps;
+        }
+        return parameters;
+    }
+
+    /**
+     * Gives the plan for sampling the given knot vector in {@code steps} steps, reusing an existing one if possible.
+     *
+     * @param knotVector The knot vector to sample
+     * @param degree The degree of the basis functions
+     * @param steps The number of steps to divide the knot vector into
+     * @return The shared plan
+     */
+    static SamplingPlan get(float[] knotVector, int degree, int steps) {
+        if (steps <= 0) {
+            throw new IllegalArgumentException("The number of steps must be at least 1.");
+        }
+
+        Key key = new Key(knotVector, degree, steps);
+        synchronized (plans) {
+            WeakReference<SamplingPlan> reference = plans.get(key);
+            SamplingPlan plan = (reference == null) ? null : reference.get();
+            if (plan == null) {
+                plan = new SamplingPlan(new Key(knotVector.clone(), degree, steps));
+                plans.put(plan.key, new WeakReference<>(plan));
+            }
+            return plan;
+        }
+    }
+
+    /**
+     * Gives a plan for sampling the given knot vector at arbitrary parameter values. These plans are not shared.
+     *
+     * @param knotVector The knot vector to sample
+     * @param degree The degree of the basis functions
+     * @param parameters The parameter values to sample at, which are clamped to the knot vector
+     * @return A new plan
+     */
+    static SamplingPlan of(float[] knotVector, int degree, float[] parameters) {
+        if (parameters.length == 0) {
+            throw new IllegalArgumentException("There must be at least one parameter value.");
+        }
+        float start = knotVector[0];
+        float end = knotVector[knotVector.length - 1];
+        float[] clamped = new float[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            clamped[i] = Math.max(start, Math.min(end, parameters[i]));
+        }
+        return new SamplingPlan(null, knotVector, degree, clamped);
+    }
+
+    /**
+     * Gives the first sample whose knot span is at least {@code span}, assuming the samples are sorted.
+     *
+     * @param span The knot span
+     * @return The index of the sample, or {@link #size()} if there is none
+     */
+    int firstSampleFrom(int span) {
+        int lo = 0, hi = spans.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (spans[mid] < span) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Gives the last sample whose knot span is at most {@code span}, assuming the samples are sorted.
+     *
+     * @param span The knot span
+     * @return The index of the sample, or -1 if there is none
+     */
+    int lastSampleUpTo(int span) {
+        int lo = 0, hi = spans.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (spans[mid] <= span) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+    /**
+     * The number of samples in this plan.
+     */
+    int size() {
+        return parameters.length;
+    }
+
+    private static final class Key {
+        private final float[] knotVector;
+        private final int degree;
+        private final int steps;
+        private final int hash;
+
+        Key(float[] knotVector, int degree, int steps) {
+            this.knotVector = knotVector;
+            this.degree = degree;
+            this.steps = steps;
+            this.hash = 31 * (31 * Arrays.hashCode(knotVector) + degree) + steps;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return degree == other.degree && steps == other.steps && Arrays.equals(knotVector, other.knotVector);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.tempestasludi.processing.nurbs;
+
+import java.util.Arrays;
+
+/**
+ * Knot removal, degree elevation and degree reduction of a packed control net along one parameter. Like
+ * {@link BezierSegments}, the points may consist of any number of floats, which allows changing a surface along one
+ * parameter by treating every row of its control net as a single point. The arrays it is created with are never
+ * written to: every change replaces {@link #net} and {@link #knotVector}.
+ * <p>
+ * A change that is not exact moves the nurbs by at most some distance over a range of parameter values. These bounds
+ * are added up for every interval between the distinct knots of the original knot vector, and a change is only made
+ * if the sums stay within the tolerance. A distance {@code e} between homogeneous points moves the nurbs by at most
+ * {@code e * (1 + M) / w} in space, where {@code M} is the largest distance of a control point from the origin and
+ * {@code w} the smallest weight (Piegl and Tiller, The NURBS Book, section 5.4).
+ */
+final class Simplification {
+    /**
+     * The number of floats in every control point.
+     */
+    final int size;
+
+    float[] net;
+    float[] knotVector;
+    int degree;
+
+    /**
+     * The distinct knots of the original knot vector, and the bound on how far the nurbs moved on the interval after
+     * every one of them.
+     */
+    private final float[] breaks;
+    private final float[] errors;
+
+    /**
+     * @param net The control net, holding {@code size} floats for every point, which is not changed
+     * @param size The number of floats in every point
+     * @param knotVector The knot vector, which is not changed
+     * @param degree The degree
+     */
+    Simplification(float[] net, int size, float[] knotVector, int degree) {
+        this.size = size;
+        this.net = net;
+        this.knotVector = knotVector;
+        this.degree = degree;
+
+        int count = 1;
+        for (int i = 1; i < knotVector.length; i++) {
+            if (knotVector[i] != knotVector[i - 1]) {
+                count++;
+            }
+        }
+        breaks = new float[count];
+        breaks[0] = knotVector[0];
+        for (int i = 1, b = 1; i < knotVector.length; i++) {
+            if (knotVector[i] != knotVector[i - 1]) {
+                breaks[b++] = knotVector[i];
+            }
+        }
+        errors = new float[count - 1];
+    }
+
+    /**
+     * Gives the largest bound on how far the nurbs moved anywhere.
+     */
+    float getError() {
+        float error = 0;
+        for (float e : errors) {
+            error = Math.max(error, e);
+        }
+        return error;
+    }
+
+    /**
+     * Removes every interior knot as often as the nurbs stays within {@code tolerance}, going over the knots again
+     * until none of them can be removed anymore.
+     */
+    void removeKnots(float tolerance) {
+        boolean removed = true;
+        while (removed) {
+            removed = false;
+            // From the back, so that removing a knot does not move the ones that are still to be tried.
+            for (int r = knotVector.length - 2; r > 0; r--) {
+                float u = knotVector[r];
+                if (u == knotVector[r + 1] || u == knotVector[0] || u == knotVector[knotVector.length - 1]) {
+                    continue;
+                }
+                removed |= removeKnot(r, tolerance);
+            }
+        }
+    }
+
+    /**
+     * Removes one copy of knot {@code r}, which has to be the last copy of its value, if the nurbs stays within
+     * {@code tolerance}. The points that the knot influences are solved from both ends of the equations of inserting
+     * it again, leaving out the middle one, whose difference with the old point bounds how far the nurbs moves.
+     *
+     * @param r The index of the knot
+     * @param tolerance The maximum distance the nurbs may move, or infinity to remove the knot anyway, which is only
+     *                  exact if the nurbs is smooth enough at the knot
+     * @return Whether the knot was removed
+     */
+    boolean removeKnot(int r, float tolerance) {
+        float u = knotVector[r];
+        int multiplicity = 1;
+        while (r - multiplicity >= 0 && knotVector[r - multiplicity] == u) {
+            multiplicity++;
+        }
+        int pointCount = net.length / size;
+        int first = r - degree;
+        int last = r - multiplicity;
+        if (multiplicity > degree || first < 1 || last + 1 >= pointCount) {
+            return false;
+        }
+
+        // The new points first - 1 till last, of which only the ones in between are unknown. New point i is at index
+        // i - first + 1, and it takes the place of old point i + 1 after last.
+        int unknown = last - first;
+        float[] points = new float[(unknown + 2) * size];
+        System.arraycopy(net, (first - 1) * size, points, 0, size);
+        System.arraycopy(net, (last + 1) * size, points, (unknown + 1) * size, size);
+        int middle = first + (unknown + 1) / 2;
+        for (int i = first; i < middle; i++) {
+            float alpha = removalAlpha(i, u);
+            for (int c = 0; c < size; c++) {
+                points[(i - first + 1) * size + c] = (net[i * size + c] - (1 - alpha) * points[(i - first) * size + c]) / alpha;
+            }
+        }
+        for (int j = last; j > middle; j--) {
+            float alpha = removalAlpha(j, u);
+            for (int c = 0; c < size; c++) {
+                points[(j - first) * size + c] = (net[j * size + c] - alpha * points[(j - first + 1) * size + c]) / (1 - alpha);
+            }
+        }
+
+        if (tolerance != Float.POSITIVE_INFINITY) {
+            float alpha = removalAlpha(middle, u);
+            float[] reinserted = new float[size];
+            for (int c = 0; c < size; c++) {
+                reinserted[c] = alpha * points[(middle - first + 1) * size + c] + (1 - alpha) * points[(middle - first) * size + c];
+            }
+            float error = distance(net, middle * size, reinserted, 0) * spaceFactor(net, points);
+            if (!addError(knotVector[middle], knotVector[middle + degree + 1], error, tolerance)) {
+                return false;
+            }
+        }
+
+        float[] result = new float[net.length - size];
+        System.arraycopy(net, 0, result, 0, first * size);
+        System.arraycopy(points, size, result, first * size, unknown * size);
+        System.arraycopy(net, (last + 1) * size, result, last * size, net.length - (last + 1) * size);
+        float[] knots = new float[knotVector.length - 1];
+        System.arraycopy(knotVector, 0, knots, 0, r);
+        System.arraycopy(knotVector, r + 1, knots, r, knots.length - r);
+        net = result;
+        knotVector = knots;
+        return true;
+    }
+
+    /**
+     * Gives the factor by which point {@code i} lies between the new points {@code i - 1} and {@code i} when the knot
+     * {@code u} is removed.
+     */
+    private float removalAlpha(int i, float u) {
+        return (u - knotVector[i]) / (knotVector[i + degree + 1] - knotVector[i]);
+    }
+
+    /**
+     * Raises the degree by one without changing the nurbs: every Bezier segment is elevated, after which the knots
+     * between them are removed again until they have one copy more than before, so the continuity stays the same.
+     */
+    void elevateDegree() {
+        int[] multiplicities = interiorMultiplicities();
+        BezierSegments segments = BezierSegments.of(net, size, knotVector, degree);
+        int elevated = degree + 1;
+        float[] points = new float[(segments.count * elevated + 1) * size];
+        for (int a = 0; a < segments.count; a++) {
+            int from = a * (degree + 1) * size;
+            for (int i = 0; i <= elevated; i++) {
+                float alpha = (float) i / elevated;
+                for (int c = 0; c < size; c++) {
+                    float previous = (i > 0) ? segments.points[from + (i - 1) * size + c] : 0;
+                    float current = (i < elevated) ? segments.points[from + i * size + c] : 0;
+                    points[(a * elevated + i) * size + c] = alpha * previous + (1 - alpha) * current;
+                }
+            }
+        }
+        setSegments(segments, points, elevated);
+        for (int b = 1; b < breaks.length - 1; b++) {
+            for (int copies = elevated; copies > multiplicities[b] + 1; copies--) {
+                removeKnot(lastCopy(breaks[b]), Float.POSITIVE_INFINITY);
+            }
+        }
+    }
+
+    /**
+     * Lowers the degree by one if the nurbs stays within {@code tolerance}: every Bezier segment is reduced, after
+     * which the knots between them are removed until they have one copy less than before, so the continuity stays the
+     * same. When this fails, the state is left halfway.
+     *
+     * @return Whether the degree could be lowered
+     */
+    boolean reduceDegree(float tolerance) {
+        int[] multiplicities = interiorMultiplicities();
+        BezierSegments segments = BezierSegments.of(net, size, knotVector, degree);
+        int reduced = degree - 1;
+        int middle = degree / 2;
+        float[] points = new float[(segments.count * reduced + 1) * size];
+        float[] segment = new float[degree * size];
+        float[] reinserted = new float[size];
+        for (int a = 0; a < segments.count; a++) {
+            // The equations of elevating the segment again are solved from both ends, leaving out the middle one.
+            int from = a * (degree + 1) * size;
+            System.arraycopy(segments.points, from, segment, 0, size);
+            System.arraycopy(segments.points, from + degree * size, segment, reduced * size, size);
+            for (int i = 1; i < middle; i++) {
+                float alpha = (float) i / degree;
+                for (int c = 0; c < size; c++) {
+                    segment[i * size + c] = (segments.points[from + i * size + c] - alpha * segment[(i - 1) * size + c]) / (1 - alpha);
+                }
+            }
+            for (int i = reduced; i > middle; i--) {
+                float alpha = (float) i / degree;
+                for (int c = 0; c < size; c++) {
+                    segment[(i - 1) * size + c] = (segments.points[from + i * size + c] - (1 - alpha) * segment[i * size + c]) / alpha;
+                }
+            }
+            float alpha = (float) middle / degree;
+            for (int c = 0; c < size; c++) {
+                reinserted[c] = alpha * segment[(middle - 1) * size + c] + (1 - alpha) * segment[middle * size + c];
+            }
+            float error = distance(segments.points, from + middle * size, reinserted, 0)
+                    * spaceFactor(Arrays.copyOfRange(segments.points, from, from + (degree + 1) * size), segment);
+            if (!addError(segments.starts[a], segments.ends[a], error, tolerance)) {
+                return false;
+            }
+            System.arraycopy(segment, 0, points, a * reduced * size, degree * size);
+        }
+        setSegments(segments, points, reduced);
+        for (int b = 1; b < breaks.length - 1; b++) {
+            for (int copies = reduced; copies > multiplicities[b] - 1; copies--) {
+                if (!removeKnot(lastCopy(breaks[b]), tolerance)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gives the multiplicity of every break in the current knot vector, for the breaks strictly between the first and
+     * the last knot.
+     */
+    private int[] interiorMultiplicities() {
+        int[] multiplicities = new int[breaks.length];
+        for (float knot : knotVector) {
+            multiplicities[Arrays.binarySearch(breaks, knot)]++;
+        }
+        for (int b = 1; b < breaks.length - 1; b++) {
+            if (multiplicities[b] > degree) {
+                throw new IllegalArgumentException("Knots with a multiplicity above the degree are not supported.");
+            }
+        }
+        return multiplicities;
+    }
+
+    /**
+     * Replaces the control net by Bezier segments of the given degree that share their end points, with the knots
+     * between them repeated {@code degree} times.
+     */
+    private void setSegments(BezierSegments segments, float[] points, int degree) {
+        float[] knots = new float[(segments.count + 1) * degree + 2];
+        Arrays.fill(knots, 0, degree + 1, segments.starts[0]);
+        for (int a = 1; a < segments.count; a++) {
+            Arrays.fill(knots, a * degree + 1, (a + 1) * degree + 1, segments.starts[a]);
+        }
+        Arrays.fill(knots, segments.count * degree + 1, knots.length, segments.ends[segments.count - 1]);
+        this.net = points;
+        this.knotVector = knots;
+        this.degree = degree;
+    }
+
+    private int lastCopy(float knot) {
+        int r = knotVector.length - 1;
+        while (knotVector[r] != knot) {
+            r--;
+        }
+        return r;
+    }
+
+    /**
+     * Adds {@code error} to the bounds of the intervals from {@code from} till {@code to}, if none of them gets above
+     * {@code tolerance}.
+     *
+     * @return Whether the error was added
+     */
+    private boolean addError(float from, float to, float error, float tolerance) {
+        int first = Arrays.binarySearch(breaks, from);
+        int last = first;
+        while (last < errors.length && breaks[last + 1] <= to) {
+            // Written as a negation, so that an error that is not a number is never within the tolerance.
+            if (!(errors[last] + error <= tolerance)) {
+                return false;
+            }
+            last++;
+        }
+        for (int b = first; b < last; b++) {
+            errors[b] += error;
+        }
+        return true;
+    }
+
+    /**
+     * Gives the largest distance between the corresponding homogeneous points of two groups of {@code size} floats.
+     */
+    private float distance(float[] a, int aOffset, float[] b, int bOffset) {
+        float distance = 0;
+        for (int c = 0; c < size; c += 4) {
+            float dx = a[aOffset + c] - b[bOffset + c];
+            float dy = a[aOffset + c + 1] - b[bOffset + c + 1];
+            float dz = a[aOffset + c + 2] - b[bOffset + c + 2];
+            float dw = a[aOffset + c + 3] - b[bOffset + c + 3];
+            distance = Math.max(distance, (float) Math.sqrt(dx * dx + dy * dy + dz * dz + dw * dw));
+        }
+        return distance;
+    }
+
+    /**
+     * Gives {@code (1 + M) / w} for a change from the points in {@code before} to a net that consists of points of
+     * {@code before} and {@code after}, or infinity if a weight is not positive.
+     */
+    private static float spaceFactor(float[] before, float[] after) {
+        float largest = 0;
+        float lightest = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < before.length; i += 4) {
+            float w = before[i + 3];
+            largest = Math.max(largest, (float) Math.sqrt(before[i] * before[i] + before[i + 1] * before[i + 1] + before[i + 2] * before[i + 2]) / Math.abs(w));
+            lightest = Math.min(lightest, w);
+        }
+        for (int i = 3; i < after.length; i += 4) {
+            lightest = Math.min(lightest, after[i]);
+        }
+        return (lightest > 0) ? (1 + largest) / lightest : Float.POSITIVE_INFINITY;
+    }
+}
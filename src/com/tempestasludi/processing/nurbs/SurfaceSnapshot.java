@@ -0,0 +1,134 @@
+package com.tempestasludi.processing.nurbs;
+
+import processing.core.PVector;
+
+/**
+ * An immutable copy of the state of a {@link NurbsSurface} at one version, as published by
+ * {@link NurbsSurface#publish()}. A snapshot never changes, and it keeps no working memory between calls, so any number
+ * of threads can evaluate it at once without locking while the surface itself is being changed for the next version.
+ */
+public final class SurfaceSnapshot {
+    private final float[] controlNet;
+    private final int sCount;
+    private final int tCount;
+    private final float[] sKnotVector;
+    private final float[] tKnotVector;
+    private final int sDegree;
+    private final int tDegree;
+    private final int version;
+
+    /**
+     * Creates a snapshot that shares the given arrays, which must not be changed afterwards.
+     *
+     * @param controlNet The packed control net, see {@link Nurbs}, with point {@code (i, j)} at index {@code i * tCount + j}
+     * @param sCount The number of control points in the direction of the first parameter
+     * @param tCount The number of control points in the direction of the second parameter
+     * @param sKnotVector The knot vector for the first parameter
+     * @param tKnotVector The knot vector for the second parameter
+     * @param version The version of the surface
+     */
+    SurfaceSnapshot(float[] controlNet, int sCount, int tCount, float[] sKnotVector, float[] tKnotVector, int version) {
+        this.controlNet = controlNet;
+        this.sCount = sCount;
+        this.tCount = tCount;
+        this.sKnotVector = sKnotVector;
+        this.tKnotVector = tKnotVector;
+        this.sDegree = sKnotVector.length - sCount - 1;
+        this.tDegree = tKnotVector.length - tCount - 1;
+        this.version = version;
+    }
+
+    /**
+     * Gives the version of the surface that this is a snapshot of: the number of changes made through its setters.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Gives the value of the surface at s={@code s} and t={@code t}, like {@link NurbsSurface#evaluate(float, float)}.
+     */
+    public PVector evaluate(float s, float t) {
+        float[] out = new float[3];
+        evaluate(new float[] {s}, new float[] {t}, out, 0, 3);
+        return new PVector(out[0], out[1], out[2]);
+    }
+
+    /**
+     * Evaluates the surface at all parameter pairs ({@code ss[i]}, {@code ts[i]}) and writes the coordinates of the
+     * results to {@code out}, like {@link NurbsSurface#evaluate(float[], float[], float[], int, int)}.
+     *
+     * @param ss The values of the first parameter to evaluate the surface at
+     * @param ts The values of the second parameter to evaluate the surface at
+     * @param out The array to write the x, y and z coordinates of the results to
+     * @param offset The index in {@code out} of the x coordinate of the first result
+     * @param stride The distance in {@code out} between the x coordinates of consecutive results, at least 3
+     */
+    public void evaluate(float[] ss, float[] ts, float[] out, int offset, int stride) {
+        if (ss.length != ts.length) {
+            throw new IllegalArgumentException("The parameter arrays must be of equal length.");
+        }
+        Nurbs.checkBatchBounds(ss.length, out.length, offset, stride);
+        int count = ss.length;
+        float[] sParameters = new float[count];
+        float[] tParameters = new float[count];
+        int[] sSpans = new int[count];
+        int[] tSpans = new int[count];
+        int sSpan = -1, tSpan = -1;
+        for (int i = 0; i < count; i++) {
+            sParameters[i] = Math.max(sKnotVector[0], Math.min(sKnotVector[sKnotVector.length - 1], ss[i]));
+            tParameters[i] = Math.max(tKnotVector[0], Math.min(tKnotVector[tKnotVector.length - 1], ts[i]));
+            sSpans[i] = sSpan = Nurbs.findSpan(sParameters[i], sKnotVector, sSpan);
+            tSpans[i] = tSpan = Nurbs.findSpan(tParameters[i], tKnotVector, tSpan);
+        }
+        float[] sBasisValues = new float[count * (sDegree + 1)];
+        float[] tBasisValues = new float[count * (tDegree + 1)];
+        EvaluationKernel kernel = EvaluationKernel.INSTANCE;
+        kernel.basisValues(sKnotVector, sDegree, sParameters, sSpans, 0, count - 1, sBasisValues);
+        kernel.basisValues(tKnotVector, tDegree, tParameters, tSpans, 0, count - 1, tBasisValues);
+        kernel.combine(controlNet, tCount, sDegree, tDegree, sSpans, sBasisValues, tSpans, tBasisValues, 0, count - 1, out, offset, stride);
+    }
+
+    public int getSCount() {
+        return sCount;
+    }
+
+    public int getTCount() {
+        return tCount;
+    }
+
+    public PVector getPoint(int sIndex, int tIndex) {
+        checkIndices(sIndex, tIndex);
+        return Nurbs.getControlPoint(controlNet, sIndex * tCount + tIndex);
+    }
+
+    public float getWeight(int sIndex, int tIndex) {
+        checkIndices(sIndex, tIndex);
+        return controlNet[4 * (sIndex * tCount + tIndex) + 3];
+    }
+
+    public float[] getSKnotVector() {
+        return sKnotVector.clone();
+    }
+
+    public float[] getTKnotVector() {
+        return tKnotVector.clone();
+    }
+
+    /**
+     * Gives a new surface with the state of this snapshot, for example for drawing it on another thread. The surface
+     * only copies the control net once it is changed.
+     */
+    public NurbsSurface toSurface() {
+        return new NurbsSurface(controlNet, sCount, tCount, sKnotVector, tKnotVector);
+    }
+
+    private void checkIndices(int sIndex, int tIndex) {
+        if (sIndex < 0 || sCount <= sIndex) {
+            throw new IllegalArgumentException("First index out of bounds");
+        }
+        if (tIndex < 0 || tCount <= tIndex) {
+            throw new IllegalArgumentException("Second index out of bounds");
+        }
+    }
+}
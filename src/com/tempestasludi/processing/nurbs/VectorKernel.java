@@ -0,0 +1,200 @@
+package com.tempestasludi.processing.nurbs;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * An {@link EvaluationKernel} that puts consecutive samples in the lanes of vectors, using the Java Vector API. Knots,
+ * control points and basis function values are gathered per lane, since every sample can lie in another knot span.
+ * Samples that do not fill a whole vector are left to the scalar kernel. This class is only loaded when the
+ * {@code jdk.incubator.vector} module is available.
+ */
+final class VectorKernel extends EvaluationKernel {
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = FLOATS.withLanes(int.class);
+    private static final int LANES = FLOATS.length();
+
+    /**
+     * The offsets of the lanes for every number of basis function values per sample up to a degree of
+     * {@code MAX_CACHED_DEGREE}, see {@link #laneIndices(int)}.
+     */
+    private static final int MAX_CACHED_DEGREE = 15;
+    private static final int[][] LANE_INDICES = new int[MAX_CACHED_DEGREE + 2][];
+
+    static {
+        for (int stride = 1; stride < LANE_INDICES.length; stride++) {
+            LANE_INDICES[stride] = makeLaneIndices(stride);
+        }
+    }
+
+    /**
+     * Working memory of the calling thread, since the kernel itself is shared between threads.
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private static final class Scratch {
+        final int[] index = new int[LANES];
+        final float[] result = new float[3 * LANES];
+        FloatVector[] basis = new FloatVector[0];
+        FloatVector[] left = basis;
+        FloatVector[] right = basis;
+
+        /**
+         * Makes sure that the vectors of the basis function calculation hold {@code degree + 1} values.
+         */
+        void fitDegree(int degree) {
+            if (basis.length <= degree) {
+                basis = new FloatVector[degree + 1];
+                left = new FloatVector[degree + 1];
+                right = new FloatVector[degree + 1];
+            }
+        }
+    }
+
+    @Override
+    void basisValues(float[] knotVector, int degree, float[] parameters, int[] spans, int from, int to, float[] basisValues) {
+        int last = knotVector.length - 1;
+        FloatVector zero = FloatVector.zero(FLOATS);
+        Scratch scratch = SCRATCH.get();
+        scratch.fitDegree(degree);
+        FloatVector[] result = scratch.basis;
+        FloatVector[] left = scratch.left;
+        FloatVector[] right = scratch.right;
+        int[] index = scratch.index;
+        int[] basisIndex = laneIndices(degree + 1);
+
+        int i = from;
+        for (; i + LANES - 1 <= to; i += LANES) {
+            IntVector k = IntVector.fromArray(INTS, spans, i);
+            FloatVector t = FloatVector.fromArray(FLOATS, parameters, i);
+
+            // The same triangular scheme as Nurbs.calcBasisFunctionValues, with knots outside the knot vector as zero.
+            result[0] = FloatVector.broadcast(FLOATS, 1);
+            for (int j = 1; j <= degree; j++) {
+                IntVector lowKnot = k.add(1 - j);
+                lowKnot.max(0).intoArray(index, 0);
+                left[j] = t.sub(FloatVector.fromArray(FLOATS, knotVector, 0, index, 0))
+                        .blend(zero, lowKnot.compare(VectorOperators.LT, 0).cast(FLOATS));
+                IntVector highKnot = k.add(j);
+                highKnot.min(last).intoArray(index, 0);
+                right[j] = FloatVector.fromArray(FLOATS, knotVector, 0, index, 0).sub(t)
+                        .blend(zero, highKnot.compare(VectorOperators.GT, last).cast(FLOATS));
+
+                FloatVector saved = zero;
+                for (int r = 0; r < j; r++) {
+                    FloatVector temp = result[r].div(right[r + 1].add(left[j - r]))
+                            .blend(zero, result[r].compare(VectorOperators.EQ, 0));
+                    result[r] = saved.add(right[r + 1].mul(temp));
+                    saved = left[j - r].mul(temp);
+                }
+                result[j] = saved;
+
+                // Basis functions that start before the knot vector or end after it are left out.
+                for (int r = 0; r <= j; r++) {
+                    VectorMask<Integer> outside = k.compare(VectorOperators.LT, j - r).or(k.compare(VectorOperators.GE, last - r));
+                    result[r] = result[r].blend(zero, outside.cast(FLOATS));
+                }
+            }
+
+            for (int r = 0; r <= degree; r++) {
+                result[r].intoArray(basisValues, i * (degree + 1) + r, basisIndex, 0);
+            }
+        }
+        super.basisValues(knotVector, degree, parameters, spans, i, to, basisValues);
+    }
+
+    @Override
+    void combine(float[] controlNet, int degree, int[] spans, float[] basisValues, int from, int to, float[] out, int offset, int stride) {
+        int lastPoint = controlNet.length / 4 - 1;
+        Scratch scratch = SCRATCH.get();
+        int[] index = scratch.index;
+        int[] basisIndex = laneIndices(degree + 1);
+        float[] result = scratch.result;
+
+        int i = from;
+        for (; i + LANES - 1 <= to; i += LANES) {
+            IntVector k = IntVector.fromArray(INTS, spans, i);
+            FloatVector x = FloatVector.zero(FLOATS), y = x, z = x, w = x;
+            for (int r = 0; r <= degree; r++) {
+                // Points outside of the control net have a basis function value of zero, so any point will do.
+                k.add(r - degree).max(0).min(lastPoint).mul(4).intoArray(index, 0);
+                FloatVector basisValue = FloatVector.fromArray(FLOATS, basisValues, i * (degree + 1) + r, basisIndex, 0);
+                x = FloatVector.fromArray(FLOATS, controlNet, 0, index, 0).fma(basisValue, x);
+                y = FloatVector.fromArray(FLOATS, controlNet, 1, index, 0).fma(basisValue, y);
+                z = FloatVector.fromArray(FLOATS, controlNet, 2, index, 0).fma(basisValue, z);
+                w = FloatVector.fromArray(FLOATS, controlNet, 3, index, 0).fma(basisValue, w);
+            }
+            // Stored lane by lane rather than scattered, since scatters with a stride crash C2 on some JDK 17 builds.
+            int outOffset = offset + i * stride;
+            x.div(w).intoArray(result, 0);
+            y.div(w).intoArray(result, LANES);
+            z.div(w).intoArray(result, 2 * LANES);
+            for (int lane = 0; lane < LANES; lane++) {
+                out[outOffset + lane * stride] = result[lane];
+                out[outOffset + lane * stride + 1] = result[LANES + lane];
+                out[outOffset + lane * stride + 2] = result[2 * LANES + lane];
+            }
+        }
+        super.combine(controlNet, degree, spans, basisValues, i, to, out, offset, stride);
+    }
+
+    @Override
+    void combine(float[] controlNet, int tCount, int sDegree, int tDegree, int[] sSpans, float[] sBasisValues, int[] tSpans, float[] tBasisValues,
+                 int from, int to, float[] out, int offset, int stride) {
+        int lastRow = controlNet.length / 4 / tCount - 1;
+        Scratch scratch = SCRATCH.get();
+        int[] index = scratch.index;
+        int[] sBasisIndex = laneIndices(sDegree + 1);
+        int[] tBasisIndex = laneIndices(tDegree + 1);
+        float[] result = scratch.result;
+
+        int i = from;
+        for (; i + LANES - 1 <= to; i += LANES) {
+            IntVector sKnot = IntVector.fromArray(INTS, sSpans, i);
+            IntVector tKnot = IntVector.fromArray(INTS, tSpans, i);
+            FloatVector x = FloatVector.zero(FLOATS), y = x, z = x, w = x;
+            for (int sI = 0; sI <= sDegree; sI++) {
+                IntVector row = sKnot.add(sI - sDegree).max(0).min(lastRow).mul(tCount);
+                FloatVector sBasisValue = FloatVector.fromArray(FLOATS, sBasisValues, i * (sDegree + 1) + sI, sBasisIndex, 0);
+                for (int tI = 0; tI <= tDegree; tI++) {
+                    row.add(tKnot.add(tI - tDegree).max(0).min(tCount - 1)).mul(4).intoArray(index, 0);
+                    FloatVector basisValue = FloatVector.fromArray(FLOATS, tBasisValues, i * (tDegree + 1) + tI, tBasisIndex, 0).mul(sBasisValue);
+                    x = FloatVector.fromArray(FLOATS, controlNet, 0, index, 0).fma(basisValue, x);
+                    y = FloatVector.fromArray(FLOATS, controlNet, 1, index, 0).fma(basisValue, y);
+                    z = FloatVector.fromArray(FLOATS, controlNet, 2, index, 0).fma(basisValue, z);
+                    w = FloatVector.fromArray(FLOATS, controlNet, 3, index, 0).fma(basisValue, w);
+                }
+            }
+            // Stored lane by lane rather than scattered, since scatters with a stride crash C2 on some JDK 17 builds.
+            int outOffset = offset + i * stride;
+            x.div(w).intoArray(result, 0);
+            y.div(w).intoArray(result, LANES);
+            z.div(w).intoArray(result, 2 * LANES);
+            for (int lane = 0; lane < LANES; lane++) {
+                out[outOffset + lane * stride] = result[lane];
+                out[outOffset + lane * stride + 1] = result[LANES + lane];
+                out[outOffset + lane * stride + 2] = result[2 * LANES + lane];
+            }
+        }
+        super.combine(controlNet, tCount, sDegree, tDegree, sSpans, sBasisValues, tSpans, tBasisValues, i, to, out, offset, stride);
+    }
+
+    /**
+     * Gives the offsets of the lanes in an array that holds {@code stride} floats for every sample, which must not be
+     * changed.
+     */
+    private static int[] laneIndices(int stride) {
+        return (stride < LANE_INDICES.length) ? LANE_INDICES[stride] : makeLaneIndices(stride);
+    }
+
+    private static int[] makeLaneIndices(int stride) {
+        int[] indices = new int[LANES];
+        for (int lane = 0; lane < LANES; lane++) {
+            indices[lane] = lane * stride;
+        }
+        return indices;
+    }
+}
@@ -0,0 +1,39 @@
+package com.tempestasludi.processing.nurbs;
+
+/**
+ * Receives the vertices that curves and surfaces are tessellated into, without depending on a renderer. The vertices
+ * come in primitives: every primitive starts with {@link #beginLine()} or {@link #beginStrip()} and ends with
+ * {@link #end()}. Curves are drawn as a single line strip, and surfaces as a triangle strip for every pair of
+ * consecutive rows of vertices.
+ *
+ * @see GraphicsVertexSink
+ * @see ArrayVertexSink
+ * @see BufferVertexSink
+ */
+public interface VertexSink {
+    /**
+     * Starts a line strip, which connects every vertex to the next one.
+     */
+    void beginLine();
+
+    /**
+     * Starts a triangle strip, in which every vertex forms a triangle with the two vertices before it.
+     */
+    void beginStrip();
+
+    /**
+     * Adds a vertex without a normal or texture coordinates to the current primitive.
+     */
+    void vertex(float x, float y, float z);
+
+    /**
+     * Adds a vertex to the current primitive, with a normal of length 1 and texture coordinates {@code u} and {@code v}
+     * between 0 and 1.
+     */
+    void vertex(float x, float y, float z, float nx, float ny, float nz, float u, float v);
+
+    /**
+     * Ends the current primitive.
+     */
+    void end();
+}
@@ -0,0 +1,87 @@
+package com.tempestasludi.processing.nurbs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The selected kernel, which is vectorized when the Vector API is available, should agree with the scalar one.
+ */
+class EvaluationKernelTest {
+    private static final EvaluationKernel scalar = new EvaluationKernel();
+
+    /**
+     * A cubic knot vector that is not clamped, so some samples have basis functions outside of it.
+     */
+    private static final float[] knots = {-1, 0, 0.5f, 1, 3, 3, 6, 7, 7.5f, 8, 9};
+    private static final int degree = 3;
+
+    private final Random random = new Random(1);
+
+    private float[] parameters(int count, int[] spans) {
+        float[] parameters = new float[count];
+        for (int i = 0; i < count; i++) {
+            parameters[i] = -1 + 10 * random.nextFloat();
+            spans[i] = Nurbs.findSpan(parameters[i], knots, -1);
+        }
+        return parameters;
+    }
+
+    @Test
+    void basisValues() {
+        // An odd count, so that some samples do not fill a whole vector.
+        int count = 37;
+        int[] spans = new int[count];
+        float[] parameters = parameters(count, spans);
+        float[] expected = new float[count * (degree + 1)];
+        float[] actual = new float[count * (degree + 1)];
+        scalar.basisValues(knots, degree, parameters, spans, 0, count - 1, expected);
+        EvaluationKernel.INSTANCE.basisValues(knots, degree, parameters, spans, 0, count - 1, actual);
+        assertArrayEquals(expected, actual, 1e-5f);
+    }
+
+    @Test
+    void curveCombine() {
+        int count = 37;
+        int[] spans = new int[count];
+        float[] parameters = parameters(count, spans);
+        float[] basisValues = new float[count * (degree + 1)];
+        scalar.basisValues(knots, degree, parameters, spans, 0, count - 1, basisValues);
+
+        float[] net = new float[4 * (knots.length - degree - 1)];
+        for (int i = 0; i < net.length; i++) {
+            net[i] = 1 + random.nextFloat();
+        }
+        float[] expected = new float[2 + 5 * count];
+        float[] actual = new float[2 + 5 * count];
+        scalar.combine(net, degree, spans, basisValues, 3, count - 1, expected, 2, 5);
+        EvaluationKernel.INSTANCE.combine(net, degree, spans, basisValues, 3, count - 1, actual, 2, 5);
+        assertArrayEquals(expected, actual, 1e-5f);
+    }
+
+    @Test
+    void surfaceCombine() {
+        int count = 37;
+        int[] sSpans = new int[count];
+        int[] tSpans = new int[count];
+        float[] ss = parameters(count, sSpans);
+        float[] ts = parameters(count, tSpans);
+        float[] sBasisValues = new float[count * (degree + 1)];
+        float[] tBasisValues = new float[count * (degree + 1)];
+        scalar.basisValues(knots, degree, ss, sSpans, 0, count - 1, sBasisValues);
+        scalar.basisValues(knots, degree, ts, tSpans, 0, count - 1, tBasisValues);
+
+        int pointCount = knots.length - degree - 1;
+        float[] net = new float[4 * pointCount * pointCount];
+        for (int i = 0; i < net.length; i++) {
+            net[i] = 1 + random.nextFloat();
+        }
+        float[] expected = new float[3 * count];
+        float[] actual = new float[3 * count];
+        scalar.combine(net, pointCount, degree, degree, sSpans, sBasisValues, tSpans, tBasisValues, 0, count - 1, expected, 0, 3);
+        EvaluationKernel.INSTANCE.combine(net, pointCount, degree, degree, sSpans, sBasisValues, tSpans, tBasisValues, 0, count - 1, actual, 0, 3);
+        assertArrayEquals(expected, actual, 1e-5f);
+    }
+}
@@ -0,0 +1,128 @@
+package com.tempestasludi.processing.nurbs;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import processing.core.PVector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MeshExporterTest {
+
+    NurbsSurface surface;
+    Path path;
+
+    /**
+     * The vertices of a 4 by 6 steps tessellation, row after row.
+     */
+    float[] grid = new float[3 * 5 * 7];
+
+    @BeforeEach
+    void setup() throws IOException {
+        surface = new NurbsSurface(
+                new PVector[][] {
+                        {new PVector(0, 0, 0), new PVector(0, 1, 0), new PVector(0, 2, 1), new PVector(0, 3, 1)},
+                        {new PVector(1, 0, 0), new PVector(1, 1, 1), new PVector(1, 2, 0), new PVector(1, 3, 1)},
+                        {new PVector(2, 0, 0), new PVector(2, 1, 0), new PVector(2, 2, 1), new PVector(2, 3, 1)},
+                },
+                new float[][] {
+                        {1, 1, 1, 1},
+                        {1, 2, 2, 1},
+                        {1, 1, 1, 1}
+                },
+                new float[] {0, 0, 2, 5, 5},
+                new float[] {0, 0, 0, 2, 5, 5, 5}
+        );
+        surface.evaluateGrid(4, 6, grid, 0, 3);
+        path = Files.createTempFile("mesh", null);
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    void obj() throws IOException {
+        new MeshExporter(MeshExporter.Format.OBJ, true).export(surface, 4, 6, path);
+        List<String> lines = Files.readAllLines(path);
+        int vertices = 0, normals = 0, faces = 0;
+        for (String line : lines) {
+            String[] parts = line.split(" ");
+            switch (parts[0]) {
+                case "v":
+                    for (int k = 0; k < 3; k++) {
+                        assertEquals(grid[3 * vertices + k], Float.parseFloat(parts[k + 1]), 1e-5f);
+                    }
+                    vertices++;
+                    break;
+                case "vn":
+                    normals++;
+                    break;
+                case "f":
+                    for (int k = 1; k <= 3; k++) {
+                        String[] indices = parts[k].split("//");
+                        assertEquals(indices[0], indices[1]);
+                        assertTrue(Integer.parseInt(indices[0]) <= vertices);
+                    }
+                    faces++;
+                    break;
+            }
+        }
+        assertEquals(35, vertices);
+        assertEquals(35, normals);
+        assertEquals(2 * 4 * 6, faces);
+        assertEquals("f 1//1 8//8 2//2", lines.get(2 * 7 + 2 * 7));
+    }
+
+    @Test
+    void stl() throws IOException {
+        new MeshExporter(MeshExporter.Format.STL, true).export(surface, 4, 6, path);
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(84 + 48 * 50, data.limit());
+        assertEquals(48, data.getInt(80));
+
+        // The second triangle of the second row of cells.
+        data.position(84 + 50 * (2 * 6 + 1));
+        float[] normal = {data.getFloat(), data.getFloat(), data.getFloat()};
+        int[] vertices = {7 + 1, 14, 14 + 1};
+        for (int vertex : vertices) {
+            assertArrayEquals(new float[] {grid[3 * vertex], grid[3 * vertex + 1], grid[3 * vertex + 2]},
+                    new float[] {data.getFloat(), data.getFloat(), data.getFloat()}, 1e-5f);
+        }
+        PVector a = new PVector(grid[3 * 8], grid[3 * 8 + 1], grid[3 * 8 + 2]);
+        PVector b = new PVector(grid[3 * 14], grid[3 * 14 + 1], grid[3 * 14 + 2]);
+        PVector c = new PVector(grid[3 * 15], grid[3 * 15 + 1], grid[3 * 15 + 2]);
+        PVector facet = PVector.sub(b, a).cross(PVector.sub(c, a)).normalize();
+        assertTrue(facet.dot(new PVector(normal[0], normal[1], normal[2])) > 0.9f);
+    }
+
+    @Test
+    void ply() throws IOException {
+        new MeshExporter(MeshExporter.Format.PLY, false).export(surface, 4, 6, path);
+        byte[] bytes = Files.readAllBytes(path);
+        String text = new String(bytes, StandardCharsets.US_ASCII);
+        int end = text.indexOf("end_header\n") + "end_header\n".length();
+        assertEquals("ply\nformat binary_little_endian 1.0\nelement vertex 35\n"
+                + "property float x\nproperty float y\nproperty float z\nelement face 48\n"
+                + "property list uchar int vertex_indices\nend_header\n", text.substring(0, end));
+        assertEquals(end + 35 * 12 + 48 * 13, bytes.length);
+
+        ByteBuffer data = ByteBuffer.wrap(bytes, end, bytes.length - end).order(ByteOrder.LITTLE_ENDIAN);
+        float[] vertices = new float[grid.length];
+        data.asFloatBuffer().get(vertices);
+        assertArrayEquals(grid, vertices, 1e-5f);
+        data.position(end + 35 * 12);
+        assertEquals(3, data.get());
+        assertArrayEquals(new int[] {0, 7, 1}, new int[] {data.getInt(), data.getInt(), data.getInt()});
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.tempestasludi.processing.nurbs;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import processing.core.PConstants;
+import processing.core.PShape;
+import processing.core.PVector;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NurbsCurveBatchTest {
+
+    NurbsCurve first;
+    NurbsCurve second;
+    NurbsCurveBatch batch;
+
+    @BeforeEach
+    void setup() {
+        first = new NurbsCurve(
+                new PVector[]{new PVector(0, 0), new PVector(1, 1), new PVector(2, 0), new PVector(3, 1)},
+                new float[] {1, 2, 3, 4},
+                new float[] {0, 0, 0, 2, 5, 5, 5}
+        );
+        second = new NurbsCurve(new PVector[]{new PVector(0, 5), new PVector(5, 5), new PVector(5, 10)});
+        batch = new NurbsCurveBatch();
+        batch.add(first, 10);
+        batch.add(second, 4);
+    }
+
+    /**
+     * Checks that the vertices from {@code from} are the segments of the polyline that {@code curve} draws.
+     */
+    private static void assertSegments(NurbsCurve curve, int steps, List<float[]> vertices, int from) {
+        RecordingGraphics g = new RecordingGraphics();
+        curve.draw(g, steps);
+        List<float[]> polyline = g.shapes.get(0);
+        for (int i = 1; i < polyline.size(); i++) {
+            assertArrayEquals(polyline.get(i - 1), vertices.get(from + 2 * i - 2), 1e-5f);
+            assertArrayEquals(polyline.get(i), vertices.get(from + 2 * i - 1), 1e-5f);
+        }
+    }
+
+    @Test
+    void drawsAllCurvesInOneShape() {
+        RecordingGraphics g = new RecordingGraphics();
+        batch.draw(g);
+        assertEquals(1, g.shapes.size());
+        assertEquals(PConstants.LINES, (int) g.kinds.get(0));
+        assertEquals(2 * 10 + 2 * 4, g.shapes.get(0).size());
+        assertSegments(first, 10, g.shapes.get(0), 0);
+        assertSegments(second, 4, g.shapes.get(0), 20);
+    }
+
+    @Test
+    void visibilityAndColors() {
+        batch.setVisible(0, false);
+        batch.setColor(1, 0xFFFF0000);
+        RecordingGraphics g = new RecordingGraphics();
+        batch.draw(g);
+        assertEquals(8, g.shapes.get(0).size());
+        assertSegments(second, 4, g.shapes.get(0), 0);
+        assertEquals(List.of(0xFFFF0000), g.strokes);
+
+        batch.setVisible(0, true);
+        batch.clearColor(1);
+        batch.draw(g);
+        assertEquals(28, g.shapes.get(1).size());
+        assertEquals(1, g.strokes.size());
+    }
+
+    @Test
+    void curvesWithoutAColorUseTheStrokeOfTheContext() {
+        batch.setColor(0, 0xFFFF0000);
+        RecordingGraphics g = new RecordingGraphics();
+        g.stroke = true;
+        g.strokeColor = 0xFF00FF00;
+        batch.draw(g);
+        // The last stroke is the one that popStyle() restores after the shape.
+        assertEquals(List.of(0xFFFF0000, 0xFF00FF00, 0xFF00FF00), g.strokes);
+
+        RecordingGraphics.RecordingShape shape = (RecordingGraphics.RecordingShape) batch.getShape(g);
+        assertEquals(List.of(0xFFFF0000, 0xFF00FF00), shape.strokes);
+    }
+
+    @Test
+    void followsChangesToTheCurves() {
+        RecordingGraphics g = new RecordingGraphics();
+        batch.draw(g);
+
+        second.setPoint(2, new PVector(10, 10));
+        batch.setSteps(0, 6);
+        batch.add(new NurbsCurve(new PVector[]{new PVector(0, 0), new PVector(1, 0)}), 1);
+        batch.draw(g);
+        assertEquals(2 * 6 + 2 * 4 + 2, g.shapes.get(1).size());
+        assertSegments(first, 6, g.shapes.get(1), 0);
+        assertSegments(second, 4, g.shapes.get(1), 12);
+
+        ArrayVertexSink sink = new ArrayVertexSink();
+        batch.draw(sink);
+        assertEquals(3, sink.getPrimitiveCount());
+        assertEquals(7 + 5 + 2, sink.getVertexCount());
+    }
+
+    @Test
+    void retainedShapeFollowsChanges() {
+        RecordingGraphics g = new RecordingGraphics();
+        PShape shape = batch.getShape(g);
+        assertEquals(28, shape.getVertexCount());
+        assertSame(shape, batch.getShape(g));
+
+        second.setPoint(2, new PVector(10, 10));
+        assertSame(shape, batch.getShape(g));
+        RecordingGraphics expected = new RecordingGraphics();
+        batch.draw(expected);
+        for (int i = 0; i < 28; i++) {
+            assertArrayEquals(expected.shapes.get(0).get(i), shape.getVertex(i).array(), 1e-5f);
+        }
+
+        batch.setVisible(0, false);
+        assertNotSame(shape, batch.getShape(g));
+        assertEquals(8, batch.getShape(g).getVertexCount());
+    }
+
+}
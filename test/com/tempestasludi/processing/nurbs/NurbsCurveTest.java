@@ -2,8 +2,13 @@ package com.tempestasludi.processing.nurbs;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import processing.core.PShape;
 import processing.core.PVector;
 
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class NurbsCurveTest {
@@ -79,4 +84,480 @@ class NurbsCurveTest {
         );
     }
 
-}
\ No newline at end of file
+    @Test
+    void weightedQuadraticEnds() {
+        assertArrayEquals(new PVector(0, 0).array(), weightedQuadratic.evaluate(0).array(), 1e-5f);
+        assertArrayEquals(new PVector(3, 1).array(), weightedQuadratic.evaluate(5).array(), 1e-5f);
+    }
+
+    @Test
+    void settersKeepPointsAndWeightsApart() {
+        weightedLinear.setPoint(1, new PVector(1, 2));
+        weightedLinear.setWeight(1, 4);
+        assertArrayEquals(new PVector(1, 2).array(), weightedLinear.getPoint(1).array(), 1e-5f);
+        assertEquals(4, weightedLinear.getWeight(1), 1e-5f);
+    }
+
+    @Test
+    void zeroWeightsAreRefused() {
+        weightedLinear.setPoint(1, new PVector(1, 2));
+        assertThrows(IllegalArgumentException.class, () -> weightedLinear.setWeight(1, 0));
+        assertThrows(IllegalArgumentException.class, () -> weightedLinear.setWeights(new float[] {1, 0, 1}));
+        weightedLinear.setWeight(1, 3);
+        assertArrayEquals(new PVector(1, 2).array(), weightedLinear.getPoint(1).array(), 1e-5f);
+        assertEquals(3, weightedLinear.getWeight(1), 1e-5f);
+        assertThrows(IllegalArgumentException.class, () -> new NurbsCurve(
+                new PVector[]{new PVector(0, 0), new PVector(1, 1)}, new float[] {1, 0}));
+    }
+
+    @Test
+    void setPointsAndWeights() {
+        weightedLinear.setWeights(new float[] {1, 1, 1});
+        weightedLinear.setPoints(new PVector[]{new PVector(0, 0), new PVector(2, 2), new PVector(4, 0)});
+        assertArrayEquals(new PVector(1, 1).array(), weightedLinear.evaluate(1).array(), 1e-5f);
+    }
+
+    @Test
+    void batchEvaluation() {
+        float[] out = new float[7];
+        weightedLinear.evaluate(new float[] {1, 3}, out, 1, 3);
+        assertArrayEquals(new float[] {0, 2/3f, 2/3f, 0, 10/7f, 4/7f, 0}, out, 1e-5f);
+    }
+
+    @Test
+    void batchEvaluationIntoBuffer() {
+        FloatBuffer out = FloatBuffer.allocate(8);
+        weightedQuadratic.evaluate(new float[] {3, 1}, out, 0, 4);
+        assertArrayEquals(new float[] {63/32f, 11/32f, 0, 0, 38/37f, 26/37f, 0, 0}, out.array(), 1e-5f);
+        assertEquals(0, out.position());
+    }
+
+    @Test
+    void drawMatchesEvaluate() {
+        RecordingGraphics g = new RecordingGraphics();
+        weightedQuadratic.draw(g, 5);
+        assertEquals(1, g.shapes.size());
+        assertEquals(6, g.shapes.get(0).size());
+        for (int i = 0; i <= 5; i++) {
+            assertArrayEquals(weightedQuadratic.evaluate(i).array(), g.shapes.get(0).get(i), 1e-5f);
+        }
+    }
+
+    @Test
+    void drawsOn2DAnd3DRenderers() {
+        NurbsCurve curve = new NurbsCurve(new PVector[]{new PVector(0, 0, 1), new PVector(1, 2, 3), new PVector(3, 1, 2)});
+        RecordingGraphics flat = new RecordingGraphics();
+        curve.draw(flat, 10);
+        curve.drawForwardDifferenced(flat, 10);
+        curve.drawAdaptive(flat, 0.01f);
+        assertEquals(3, flat.shapes.size());
+        for (List<float[]> shape : flat.shapes) {
+            assertTrue(shape.size() > 2);
+            for (float[] vertex : shape) {
+                assertEquals(0, vertex[2]);
+            }
+        }
+
+        RecordingGraphics deep = new RecordingGraphics(true);
+        curve.draw(deep, 10);
+        assertEquals(11, deep.shapes.get(0).size());
+        assertArrayEquals(curve.evaluate(1).array(), deep.shapes.get(0).get(10), 1e-5f);
+    }
+
+    @Test
+    void retainedShapeIsCached() {
+        RecordingGraphics g = new RecordingGraphics();
+        PShape shape = weightedQuadratic.getShape(g, 5);
+        assertEquals(6, shape.getVertexCount());
+        assertSame(shape, weightedQuadratic.getShape(g, 5));
+
+        weightedQuadratic.drawRetained(g, 5);
+        assertSame(shape, g.replayed.get(0));
+        assertEquals(0, g.shapes.size());
+
+        assertNotSame(shape, weightedQuadratic.getShape(g, 4));
+    }
+
+    @Test
+    void retainedShapeFollowsChanges() {
+        RecordingGraphics g = new RecordingGraphics();
+        PShape shape = weightedQuadratic.getShape(g, 5);
+        weightedQuadratic.setWeight(1, 3);
+        assertSame(shape, weightedQuadratic.getShape(g, 5));
+
+        weightedQuadratic.draw(g, 5);
+        weightedQuadratic.setPoint(3, new PVector(3, 2));
+        assertSame(shape, weightedQuadratic.getShape(g, 5));
+
+        NurbsCurve expected = new NurbsCurve(
+                new PVector[]{new PVector(0, 0), new PVector(1, 1), new PVector(2, 0), new PVector(3, 2)},
+                new float[] {1, 3, 3, 4},
+                new float[] {0, 0, 0, 2, 5, 5, 5}
+        );
+        assertEquals(6, shape.getVertexCount());
+        for (int i = 0; i <= 5; i++) {
+            PVector vertex = shape.getVertex(i);
+            assertArrayEquals(expected.evaluate(i).array(), new float[] {vertex.x, vertex.y, 0}, 1e-5f);
+        }
+    }
+
+    @Test
+    void incrementalTessellation() {
+        PVector[] points = new PVector[20];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new PVector(i, i % 3);
+        }
+        NurbsCurve curve = new NurbsCurve(points, 3);
+        RecordingGraphics g = new RecordingGraphics();
+        curve.draw(g, 100);
+
+        points[7] = new PVector(7, 5);
+        curve.setPoint(7, points[7]);
+        curve.setWeight(12, 2);
+        curve.draw(g, 100);
+
+        float[] weights = new float[points.length];
+        Arrays.fill(weights, 1);
+        weights[12] = 2;
+        NurbsCurve expected = new NurbsCurve(points, weights, 3);
+        expected.draw(g, 100);
+
+        for (int i = 0; i <= 100; i++) {
+            assertArrayEquals(g.shapes.get(2).get(i), g.shapes.get(1).get(i), 1e-5f);
+        }
+    }
+
+    @Test
+    void derivativeMatchesFiniteDifferences() {
+        float h = 1e-2f;
+        for (float t : new float[] {0.5f, 1, 3, 4.5f}) {
+            PVector difference = PVector.sub(weightedQuadratic.evaluate(t + h), weightedQuadratic.evaluate(t - h)).div(2 * h);
+            assertArrayEquals(difference.array(), weightedQuadratic.derivative(t).array(), 1e-3f);
+        }
+    }
+
+    @Test
+    void tangentAndNormal() {
+        float r = (float) Math.sqrt(0.5);
+        assertArrayEquals(new float[] {r, -r, 0}, weightedLinear.tangent(3).array(), 1e-5f);
+        assertArrayEquals(new float[] {r, r, 0}, weightedLinear.normal(3).array(), 1e-5f);
+
+        PVector tangent = weightedQuadratic.tangent(1);
+        PVector normal = weightedQuadratic.normal(1);
+        assertEquals(1, tangent.mag(), 1e-5f);
+        assertEquals(1, normal.mag(), 1e-5f);
+        assertEquals(0, tangent.dot(normal), 1e-5f);
+    }
+
+    @Test
+    void insertKnotKeepsTheCurve() {
+        for (float knot : new float[] {1, 2, 4.5f}) {
+            NurbsCurve refined = weightedQuadratic.insertKnot(knot);
+            for (float t = 0; t <= 5; t += 0.25f) {
+                assertArrayEquals(weightedQuadratic.evaluate(t).array(), refined.evaluate(t).array(), 1e-4f);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> weightedQuadratic.insertKnot(5));
+    }
+
+    @Test
+    void bezierSegmentsMatchTheCurve() {
+        NurbsCurve unclamped = new NurbsCurve(
+                new PVector[]{new PVector(0, 0), new PVector(1, 1), new PVector(2, 0), new PVector(3, 1)},
+                new float[] {1, 2, 3, 4},
+                new float[] {0, 1, 2, 3, 3, 5, 6}
+        );
+        for (NurbsCurve curve : new NurbsCurve[] {weightedQuadratic, unclamped}) {
+            NurbsCurve[] segments = curve.toBezier();
+            float[] starts = curve == unclamped ? new float[] {0, 1, 2, 3, 5} : new float[] {0, 2};
+            float[] ends = curve == unclamped ? new float[] {1, 2, 3, 5, 6} : new float[] {2, 5};
+            assertEquals(starts.length, segments.length);
+            for (int i = 0; i < segments.length; i++) {
+                for (float t = starts[i] + 0.1f; t < ends[i]; t += 0.2f) {
+                    assertArrayEquals(curve.evaluate(t).array(), segments[i].evaluate(t).array(), 1e-4f);
+                }
+            }
+        }
+    }
+
+    @Test
+    void forwardDifferencingMatchesDraw() {
+        RecordingGraphics g = new RecordingGraphics();
+        weightedQuadratic.draw(g, 100);
+        weightedQuadratic.drawForwardDifferenced(g, 100);
+        assertEquals(101, g.shapes.get(1).size());
+        for (int i = 0; i <= 100; i++) {
+            assertArrayEquals(g.shapes.get(0).get(i), g.shapes.get(1).get(i), 1e-3f);
+        }
+    }
+
+    @Test
+    void precompiledEvaluationMatches() {
+        NurbsCurve unclamped = new NurbsCurve(
+                new PVector[]{new PVector(0, 0), new PVector(1, 1), new PVector(2, 0), new PVector(3, 1)},
+                new float[] {1, 2, 3, 4},
+                new float[] {0, 1, 2, 3, 3, 5, 6}
+        );
+        for (NurbsCurve curve : new NurbsCurve[] {weightedQuadratic, unclamped}) {
+            float[] expected = new float[3 * 60];
+            float[] actual = new float[3 * 60];
+            float[] ts = new float[60];
+            for (int i = 0; i < ts.length; i++) {
+                ts[i] = 0.05f + i * 0.099f;
+            }
+            curve.evaluate(ts, expected, 0, 3);
+            curve.setPrecompiled(true);
+            curve.evaluate(ts, actual, 0, 3);
+            assertArrayEquals(expected, actual, 1e-4f);
+        }
+    }
+
+    @Test
+    void precompiledEvaluationFollowsChanges() {
+        weightedQuadratic.setPrecompiled(true);
+        weightedQuadratic.evaluate(4);
+        weightedQuadratic.setPoint(3, new PVector(3, 5));
+        weightedQuadratic.setWeight(2, 1);
+        float[] precompiled = weightedQuadratic.evaluate(4).array();
+        weightedQuadratic.setPrecompiled(false);
+        assertArrayEquals(weightedQuadratic.evaluate(4).array(), precompiled, 1e-5f);
+    }
+
+    @Test
+    void adaptiveTessellationStaysWithinTolerance() {
+        float r = (float) Math.sqrt(2);
+        NurbsCurve circle = new NurbsCurve(
+                new PVector[]{
+                        new PVector(100, 0), new PVector(100, 100), new PVector(0, 100), new PVector(-100, 100),
+                        new PVector(-100, 0), new PVector(-100, -100), new PVector(0, -100), new PVector(100, -100),
+                        new PVector(100, 0)
+                },
+                new float[] {2, r, 2, r, 2, r, 2, r, 2},
+                new float[] {0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 4}
+        );
+
+        RecordingGraphics g = new RecordingGraphics();
+        circle.drawAdaptive(g, 1);
+        circle.drawAdaptive(g, 0.01f);
+        int coarse = g.shapes.get(0).size();
+        int fine = g.shapes.get(1).size();
+        assertTrue(coarse < fine);
+
+        // The deviation of a chord of a circle is r(1 - cos(a / 2)) for a chord spanning angle a.
+        for (float[] vertex : g.shapes.get(0)) {
+            assertEquals(100, new PVector(vertex[0], vertex[1]).mag(), 1e-2f);
+        }
+        assertTrue(100 * (1 - Math.cos(Math.PI / (coarse - 1))) <= 1 + 1e-3);
+    }
+
+    @Test
+    void boundingBoxesContainTheCurve() {
+        BoundingBox box = weightedQuadratic.getBoundingBox();
+        assertArrayEquals(new float[] {0, 0, 0}, box.getMin().array(), 1e-5f);
+        assertArrayEquals(new float[] {3, 1, 0}, box.getMax().array(), 1e-5f);
+        for (int i = 0; i <= 20; i++) {
+            float t = i / 4f;
+            int knot = (t < 2) ? 2 : 3;
+            PVector point = weightedQuadratic.evaluate(t);
+            assertTrue(box.contains(point));
+            assertTrue(weightedQuadratic.getSpanBoundingBox(knot).contains(point));
+        }
+        // Span 2 is influenced by the first three points only.
+        assertEquals(2, weightedQuadratic.getSpanBoundingBox(2).getMax().x, 1e-5f);
+
+        weightedQuadratic.setPoint(0, new PVector(-4, 0));
+        assertEquals(-4, weightedQuadratic.getBoundingBox().getMin().x, 1e-5f);
+        assertEquals(-4, weightedQuadratic.getSpanBoundingBox(2).getMin().x, 1e-5f);
+        assertEquals(1, weightedQuadratic.getSpanBoundingBox(3).getMin().x, 1e-5f);
+        assertThrows(IllegalArgumentException.class, () -> weightedQuadratic.getSpanBoundingBox(6));
+    }
+
+    @Test
+    void levelOfDetailFollowsTheSizeOnScreen() {
+        float r = (float) Math.sqrt(2);
+        NurbsCurve circle = new NurbsCurve(
+                new PVector[]{
+                        new PVector(100, 0), new PVector(100, 100), new PVector(0, 100), new PVector(-100, 100),
+                        new PVector(-100, 0), new PVector(-100, -100), new PVector(0, -100), new PVector(100, -100),
+                        new PVector(100, 0)
+                },
+                new float[] {2, r, 2, r, 2, r, 2, r, 2},
+                new float[] {0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 4}
+        );
+
+        RecordingGraphics g = new RecordingGraphics();
+        int steps = circle.getLevelOfDetail(g, 1);
+        // The deviation of a chord of a circle is r(1 - cos(a / 2)) for a chord spanning angle a.
+        assertTrue(100 * (1 - Math.cos(Math.PI / steps)) <= 1);
+
+        // Small changes keep the number of steps, large ones do not.
+        g.zoom = 0.9f;
+        assertEquals(steps, circle.getLevelOfDetail(g, 1));
+        g.zoom = 0.1f;
+        int far = circle.getLevelOfDetail(g, 1);
+        assertTrue(far < steps);
+        g.zoom = 0.11f;
+        assertEquals(far, circle.getLevelOfDetail(g, 1));
+        g.zoom = 1;
+        assertTrue(far < circle.getLevelOfDetail(g, 1));
+
+        circle.drawWithLevelOfDetail(g, 1);
+        assertEquals(circle.getLevelOfDetail(g, 1) + 1, g.shapes.get(0).size());
+        assertThrows(IllegalArgumentException.class, () -> circle.getLevelOfDetail(g, 0));
+    }
+
+    @Test
+    void arcLengthParameterization() {
+        float r = (float) Math.sqrt(2);
+        NurbsCurve circle = new NurbsCurve(
+                new PVector[]{
+                        new PVector(100, 0), new PVector(100, 100), new PVector(0, 100), new PVector(-100, 100),
+                        new PVector(-100, 0), new PVector(-100, -100), new PVector(0, -100), new PVector(100, -100),
+                        new PVector(100, 0)
+                },
+                new float[] {2, r, 2, r, 2, r, 2, r, 2},
+                new float[] {0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 4}
+        );
+        float circumference = (float) (200 * Math.PI);
+        assertEquals(circumference, circle.getLength(), 1e-2f);
+
+        // The parameterization of a rational circle is not uniform, but equal lengths give equal angles.
+        for (int i = 0; i <= 12; i++) {
+            double angle = 2 * Math.PI * i / 12;
+            PVector expected = new PVector((float) (100 * Math.cos(angle)), (float) (100 * Math.sin(angle)));
+            assertArrayEquals(expected.array(), circle.evaluateAtLength(circumference * i / 12).array(), 1e-2f);
+            float t = circle.tAtLength(circumference * i / 12);
+            assertEquals(circumference * i / 12, circle.lengthAt(t), 1e-2f);
+        }
+        assertEquals(0f, circle.tAtLength(-5));
+        assertEquals(4f, circle.tAtLength(circumference + 5));
+
+        float[] out = new float[6];
+        circle.evaluateAtLength(new float[] {circumference / 4, circumference / 2}, out, 0, 3);
+        assertArrayEquals(new float[] {0, 100, 0, -100, 0, 0}, out, 1e-2f);
+
+        // The table follows changes to the curve.
+        NurbsCurve line = new NurbsCurve(new PVector[]{new PVector(0, 0), new PVector(1, 0), new PVector(10, 0)});
+        assertEquals(10, line.getLength(), 1e-4f);
+        assertEquals(3, line.evaluateAtLength(3).x, 1e-4f);
+        line.setPoint(2, new PVector(20, 0));
+        assertEquals(20, line.getLength(), 1e-4f);
+        assertEquals(15, line.evaluateAtLength(15).x, 1e-4f);
+    }
+
+    @Test
+    void snapshotsDoNotChange() {
+        CurveSnapshot initial = weightedQuadratic.getSnapshot();
+        assertEquals(0, initial.getVersion());
+        PVector before = weightedQuadratic.evaluate(1);
+
+        weightedQuadratic.setPoint(1, new PVector(5, 5));
+        weightedQuadratic.setWeight(2, 1);
+        assertSame(initial, weightedQuadratic.getSnapshot());
+        assertArrayEquals(before.array(), initial.evaluate(1).array(), 1e-5f);
+
+        CurveSnapshot published = weightedQuadratic.publish();
+        assertEquals(2, published.getVersion());
+        assertSame(published, weightedQuadratic.getSnapshot());
+        assertSame(published, weightedQuadratic.publish());
+        float[] ts = {0, 1, 2.5f, 5};
+        float[] out = new float[3 * ts.length];
+        published.evaluate(ts, out, 0, 3);
+        for (int i = 0; i < ts.length; i++) {
+            assertArrayEquals(weightedQuadratic.evaluate(ts[i]).array(), published.evaluate(ts[i]).array(), 1e-5f);
+            assertArrayEquals(weightedQuadratic.evaluate(ts[i]).array(), Arrays.copyOfRange(out, 3 * i, 3 * i + 3), 1e-5f);
+        }
+
+        // Changes after publishing go to a copy, and so do changes to a curve made from a snapshot.
+        weightedQuadratic.setPoint(1, new PVector(1, 1));
+        assertArrayEquals(new float[] {5, 5, 0}, published.getPoint(1).array(), 1e-5f);
+        NurbsCurve copy = published.toCurve();
+        copy.setPoint(0, new PVector(-1, 0));
+        assertArrayEquals(new float[] {0, 0, 0}, published.getPoint(0).array(), 1e-5f);
+        assertArrayEquals(new float[] {5, 5, 0}, copy.getPoint(1).array(), 1e-5f);
+    }
+
+    @Test
+    void degreeElevationKeepsTheCurve() {
+        NurbsCurve unclamped = new NurbsCurve(
+                new PVector[]{new PVector(0, 0), new PVector(1, 1), new PVector(2, 0), new PVector(3, 1)},
+                new float[] {1, 2, 3, 4},
+                new float[] {0, 1, 2, 3, 3, 5, 6}
+        );
+        for (NurbsCurve curve : new NurbsCurve[] {weightedLinear, weightedQuadratic, unclamped}) {
+            NurbsCurve elevated = curve.elevateDegree();
+            assertEquals(curve.getSnapshot().getDegree() + 1, elevated.getSnapshot().getDegree());
+            for (float t = 0.25f; t < 5.9f; t += 0.25f) {
+                assertArrayEquals(curve.evaluate(t).array(), elevated.evaluate(t).array(), 1e-4f);
+            }
+        }
+        // Every knot span adds one control point.
+        assertEquals(6, weightedQuadratic.elevateDegree().getSnapshot().getPointCount());
+    }
+
+    @Test
+    void degreeReductionUndoesElevation() {
+        NurbsCurve reduced = weightedQuadratic.elevateDegree().reduceDegree(1e-3f);
+        assertEquals(2, reduced.getSnapshot().getDegree());
+        assertEquals(4, reduced.getSnapshot().getPointCount());
+        for (float t = 0; t <= 5; t += 0.25f) {
+            assertArrayEquals(weightedQuadratic.evaluate(t).array(), reduced.evaluate(t).array(), 1e-3f);
+        }
+
+        assertNull(weightedQuadratic.reduceDegree(1e-3f));
+        assertNotNull(weightedQuadratic.reduceDegree(100));
+        assertThrows(IllegalArgumentException.class, () -> weightedLinear.reduceDegree(1));
+    }
+
+    @Test
+    void knotRemovalStaysWithinTheTolerance() {
+        NurbsCurve refined = weightedQuadratic.insertKnot(1).insertKnot(3).insertKnot(3);
+        NurbsCurve simplified = refined.removeKnots(1e-4f);
+        assertArrayEquals(weightedQuadratic.getSnapshot().getKnotVector(), simplified.getSnapshot().getKnotVector(), 1e-5f);
+        for (float t = 0; t <= 5; t += 0.25f) {
+            assertArrayEquals(weightedQuadratic.evaluate(t).array(), simplified.evaluate(t).array(), 1e-4f);
+        }
+
+        PVector[] points = new PVector[40];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new PVector(i, (float) Math.sin(i / 4f) + 0.01f * (i % 3), 0);
+        }
+        NurbsCurve wavy = new NurbsCurve(points, 3);
+        for (float tolerance : new float[] {0.01f, 0.1f, 1}) {
+            NurbsCurve fewer = wavy.removeKnots(tolerance);
+            assertTrue(fewer.getSnapshot().getPointCount() < points.length);
+            for (float t = 0; t <= 37; t += 0.1f) {
+                assertTrue(PVector.dist(wavy.evaluate(t), fewer.evaluate(t)) <= tolerance);
+            }
+        }
+    }
+
+    @Test
+    void knotRemovalWithoutChangesGivesAnIndependentCopy() {
+        // After a change, the curve no longer shares its control net with its first snapshot.
+        weightedQuadratic.setWeight(0, 1);
+        NurbsCurve copy = weightedQuadratic.removeKnots(0);
+        assertEquals(weightedQuadratic.getSnapshot().getPointCount(), copy.getSnapshot().getPointCount());
+        weightedQuadratic.setPoint(1, new PVector(5, 5));
+        copy.setPoint(2, new PVector(-5, -5));
+        assertArrayEquals(new PVector(1, 1).array(), copy.getPoint(1).array(), 1e-5f);
+        assertArrayEquals(new PVector(2, 0).array(), weightedQuadratic.getPoint(2).array(), 1e-5f);
+    }
+
+    @Test
+    void unclampedKnotVectorsStopAtTheLastPoint() {
+        // In the last span, points 2, 3 and 4 would be used, but only point 2 exists.
+        NurbsCurve unclamped = new NurbsCurve(
+                new PVector[]{new PVector(0, 0), new PVector(1, 2), new PVector(3, 1)},
+                new float[] {1, 2, 3},
+                new float[] {0, 1, 2, 3, 4, 5}
+        );
+        assertArrayEquals(new float[] {3, 1, 0}, unclamped.evaluate(4.5f).array(), 1e-5f);
+        float[] out = new float[6];
+        unclamped.evaluate(new float[] {4.25f, 4.75f}, out, 0, 3);
+        assertArrayEquals(new float[] {3, 1, 0, 3, 1, 0}, out, 1e-5f);
+        ArrayVertexSink sink = new ArrayVertexSink();
+        unclamped.draw(sink, 10);
+        assertEquals(11, sink.getVertexCount());
+    }
+}
@@ -0,0 +1,87 @@
+package com.tempestasludi.processing.nurbs;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import processing.core.PVector;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NurbsFileTest {
+
+    Path path;
+
+    @BeforeEach
+    void setup() throws IOException {
+        path = Files.createTempFile("nurbs", ".bin");
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    void writtenNurbsCanBeRead() throws IOException {
+        NurbsCurve[] curves = new NurbsCurve[40];
+        for (int i = 0; i < curves.length; i++) {
+            curves[i] = new NurbsCurve(
+                    new PVector[]{new PVector(i, 0), new PVector(1, i, 2), new PVector(2, 0), new PVector(3, 1, i)},
+                    new float[] {1, 2, 3, 4},
+                    new float[] {0, 0, 0, 2, 5, 5, 5}
+            );
+        }
+        // Large enough to span several buffers of the writer.
+        PVector[][] points = new PVector[100][70];
+        for (int i = 0; i < points.length; i++) {
+            for (int j = 0; j < points[i].length; j++) {
+                points[i][j] = new PVector(i, j, (i * j) % 7);
+            }
+        }
+        NurbsSurface surface = new NurbsSurface(points, 3, 2);
+        surface.setWeight(5, 6, 3);
+
+        try (NurbsFileWriter writer = new NurbsFileWriter(path)) {
+            writer.write(curves[0]);
+            writer.write(surface);
+            for (int i = 1; i < curves.length; i++) {
+                writer.write(curves[i]);
+            }
+        }
+
+        NurbsFile file = NurbsFile.open(path);
+        assertEquals(40, file.getCurveCount());
+        assertEquals(1, file.getSurfaceCount());
+        for (int i = curves.length - 1; i >= 0; i--) {
+            NurbsCurve curve = file.getCurve(i);
+            for (float t = 0; t <= 5; t += 0.25f) {
+                assertArrayEquals(curves[i].evaluate(t).array(), curve.evaluate(t).array(), 1e-5f);
+            }
+            assertEquals(curves[i].getWeight(2), curve.getWeight(2));
+        }
+        assertSame(file.getCurve(3), file.getCurve(3));
+
+        NurbsSurface read = file.getSurface(0);
+        for (float s = 0; s <= 1; s += 0.125f) {
+            for (float t = 0; t <= 1; t += 0.125f) {
+                assertArrayEquals(surface.evaluate(s, t).array(), read.evaluate(s, t).array(), 1e-5f);
+            }
+        }
+        assertEquals(3f, read.getWeight(5, 6));
+
+        read.setPoint(0, 0, new PVector(-1, -1, -1));
+        assertArrayEquals(new float[] {0, 0, 0}, NurbsFile.open(path).getSurface(0).getPoint(0, 0).array(), 1e-5f);
+        assertThrows(IllegalArgumentException.class, () -> file.getCurve(40));
+    }
+
+    @Test
+    void otherFilesAreRejected() throws IOException {
+        Files.write(path, new byte[100]);
+        assertThrows(IOException.class, () -> NurbsFile.open(path));
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.tempestasludi.processing.nurbs;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import processing.core.PVector;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NurbsMetricsTest {
+
+    NurbsCurve curve;
+
+    @BeforeEach
+    void setup() {
+        curve = new NurbsCurve(
+                new PVector[]{new PVector(0, 0), new PVector(1, 1), new PVector(2, 0), new PVector(3, 1)},
+                new float[] {1, 2, 3, 4},
+                new float[] {0, 0, 0, 2, 5, 5, 5}
+        );
+        NurbsMetrics.getGlobal().setEnabled(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        NurbsMetrics.getGlobal().setEnabled(false);
+    }
+
+    @Test
+    void disabledRecordsNothing() {
+        NurbsMetrics.getGlobal().setEnabled(false);
+        curve.evaluate(1);
+        curve.draw(new ArrayVertexSink(), 10);
+        NurbsMetrics metrics = curve.getMetrics();
+        assertEquals(0, metrics.getEvaluations());
+        assertEquals(0, metrics.getVertices());
+        assertEquals(0, metrics.getDrawCount());
+    }
+
+    @Test
+    void countsEvaluations() {
+        curve.evaluate(1);
+        curve.evaluate(3, 3);
+        curve.evaluate(new float[300], new float[900], 0, 3);
+        NurbsMetrics metrics = curve.getMetrics();
+        assertEquals(302, metrics.getEvaluations());
+        assertEquals(302, metrics.getBasisComputations());
+        assertEquals(1, metrics.getBatchCount());
+        assertTrue(NurbsMetrics.getGlobal().getEvaluations() >= 302);
+    }
+
+    @Test
+    void countsDrawsAndCacheLookups() {
+        ArrayVertexSink sink = new ArrayVertexSink();
+        curve.draw(sink, 10);
+        curve.draw(sink, 10);
+        curve.setPoint(1, new PVector(1, 2));
+        curve.draw(sink, 10);
+        NurbsMetrics metrics = curve.getMetrics();
+        assertEquals(33, metrics.getVertices());
+        assertEquals(3, metrics.getDrawCount());
+        assertEquals(1, metrics.getCacheHits());
+        assertEquals(2, metrics.getCacheMisses());
+
+        metrics.reset();
+        assertEquals(0, metrics.getVertices());
+        assertEquals(0, metrics.getDrawLatency().getCount());
+    }
+
+    @Test
+    void precompiledCoefficientsAreCached() {
+        curve.setPrecompiled(true);
+        curve.evaluate(0.5f);
+        curve.evaluate(1.5f);
+        curve.evaluate(3);
+        NurbsMetrics metrics = curve.getMetrics();
+        assertEquals(2, metrics.getCacheMisses());
+        assertEquals(1, metrics.getCacheHits());
+        assertEquals(0, metrics.getBasisComputations());
+    }
+
+    @Test
+    void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(50));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(5000);
+        assertEquals(100, histogram.getCount());
+        assertEquals(14900, histogram.getTotalNanos());
+        assertEquals(128, histogram.getPercentileNanos(50));
+        assertEquals(128, histogram.getPercentileNanos(99));
+        assertEquals(8192, histogram.getPercentileNanos(100));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getPercentileNanos(101));
+    }
+
+    @Test
+    void exposedThroughJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertTrue(server.isRegistered(new ObjectName(NurbsMetrics.OBJECT_NAME)));
+
+        curve.getMetrics().register("test curve");
+        try {
+            curve.evaluate(1);
+            ObjectName name = new ObjectName(NurbsMetrics.OBJECT_NAME + ",name=" + ObjectName.quote("test curve"));
+            assertEquals(1L, server.getAttribute(name, "Evaluations"));
+            assertThrows(IllegalStateException.class, () -> curve.getMetrics().register("again"));
+        } finally {
+            curve.getMetrics().unregister();
+        }
+    }
+}
@@ -2,8 +2,19 @@ package com.tempestasludi.processing.nurbs;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import processing.core.PMatrix3D;
+import processing.core.PShape;
 import processing.core.PVector;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class NurbsSurfaceTest {
@@ -64,4 +75,482 @@ class NurbsSurfaceTest {
         );
     }
 
-}
\ No newline at end of file
+    @Test
+    void settersKeepPointsAndWeightsApart() {
+        linearQuadraticsurface.setWeight(1, 1, 3);
+        linearQuadraticsurface.setPoint(1, 1, new PVector(5, 6, 7));
+        linearQuadraticsurface.setWeight(1, 1, 6);
+        assertArrayEquals(new PVector(5, 6, 7).array(), linearQuadraticsurface.getPoint(1, 1).array(), 1e-5f);
+        assertEquals(6, linearQuadraticsurface.getWeight(1, 1), 1e-5f);
+    }
+
+    @Test
+    void zeroWeightsAreRefused() {
+        linearQuadraticsurface.setPoint(1, 1, new PVector(5, 6, 7));
+        assertThrows(IllegalArgumentException.class, () -> linearQuadraticsurface.setWeight(1, 1, 0));
+        linearQuadraticsurface.setWeight(1, 1, 2);
+        assertArrayEquals(new PVector(5, 6, 7).array(), linearQuadraticsurface.getPoint(1, 1).array(), 1e-5f);
+        assertEquals(2, linearQuadraticsurface.getWeight(1, 1), 1e-5f);
+    }
+
+    @Test
+    void batchEvaluation() {
+        float[] out = new float[6];
+        linearQuadraticsurface.evaluate(new float[] {1, 3}, new float[] {1, 4}, out, 0, 3);
+        assertArrayEquals(new float[] {7/11f, 51/55f, 28/55f, 46/37f, 83/37f, 94/185f}, out, 1e-5f);
+    }
+
+    @Test
+    void drawMatchesEvaluate() {
+        RecordingGraphics g = new RecordingGraphics(true);
+        linearQuadraticsurface.draw(g, 5, 10);
+        assertEquals(5, g.shapes.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(22, g.shapes.get(i).size());
+            for (int j = 0; j <= 10; j++) {
+                assertArrayEquals(linearQuadraticsurface.evaluate(i, j / 2f).array(), g.shapes.get(i).get(2 * j), 1e-5f);
+                assertArrayEquals(linearQuadraticsurface.evaluate(i + 1, j / 2f).array(), g.shapes.get(i).get(2 * j + 1), 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    void derivativesMatchFiniteDifferences() {
+        float h = 1e-2f;
+        for (float[] st : new float[][] {{0.5f, 1}, {1, 2.5f}, {3, 4}}) {
+            float s = st[0], t = st[1];
+            PVector sDifference = PVector.sub(linearQuadraticsurface.evaluate(s + h, t), linearQuadraticsurface.evaluate(s - h, t)).div(2 * h);
+            PVector tDifference = PVector.sub(linearQuadraticsurface.evaluate(s, t + h), linearQuadraticsurface.evaluate(s, t - h)).div(2 * h);
+            assertArrayEquals(sDifference.array(), linearQuadraticsurface.sDerivative(s, t).array(), 1e-3f);
+            assertArrayEquals(tDifference.array(), linearQuadraticsurface.tDerivative(s, t).array(), 1e-3f);
+            assertArrayEquals(sDifference.cross(tDifference).normalize().array(), linearQuadraticsurface.normal(s, t).array(), 1e-3f);
+        }
+    }
+
+    @Test
+    void normalOfAFlatSurface() {
+        NurbsSurface flat = new NurbsSurface(new PVector[][] {
+                {new PVector(0, 0), new PVector(0, 1), new PVector(0, 3)},
+                {new PVector(2, 0), new PVector(1, 1), new PVector(2, 2)},
+        });
+        assertArrayEquals(new float[] {0, 0, 1}, flat.normal(0.3f, 0.6f).array(), 1e-5f);
+    }
+
+    @Test
+    void drawSendsNormals() {
+        RecordingGraphics g = new RecordingGraphics(true);
+        linearQuadraticsurface.draw(g, 5, 10);
+        assertEquals(5 * 22, g.normals.size());
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j <= 10; j++) {
+                assertArrayEquals(linearQuadraticsurface.normal(i, j / 2f).array(), g.normals.get(22 * i + 2 * j), 1e-4f);
+                assertArrayEquals(linearQuadraticsurface.normal(i + 1, j / 2f).array(), g.normals.get(22 * i + 2 * j + 1), 1e-4f);
+            }
+        }
+    }
+
+    @Test
+    void insertKnotsKeepsTheSurface() {
+        NurbsSurface sRefined = linearQuadraticsurface.insertSKnot(3);
+        NurbsSurface tRefined = linearQuadraticsurface.insertTKnot(2);
+        for (float s = 0; s <= 5; s += 0.5f) {
+            for (float t = 0; t <= 5; t += 0.5f) {
+                float[] expected = linearQuadraticsurface.evaluate(s, t).array();
+                assertArrayEquals(expected, sRefined.evaluate(s, t).array(), 1e-4f);
+                assertArrayEquals(expected, tRefined.evaluate(s, t).array(), 1e-4f);
+            }
+        }
+    }
+
+    @Test
+    void bezierPatchesMatchTheSurface() {
+        NurbsSurface[][] patches = linearQuadraticsurface.toBezier();
+        float[] sRanges = {0, 2, 5};
+        float[] tRanges = {0, 2, 5};
+        assertEquals(2, patches.length);
+        assertEquals(2, patches[0].length);
+        for (int a = 0; a < 2; a++) {
+            for (int b = 0; b < 2; b++) {
+                for (float s = sRanges[a]; s <= sRanges[a + 1]; s += 0.5f) {
+                    for (float t = tRanges[b]; t <= tRanges[b + 1]; t += 0.5f) {
+                        assertArrayEquals(linearQuadraticsurface.evaluate(s, t).array(), patches[a][b].evaluate(s, t).array(), 1e-4f);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void forwardDifferencingMatchesDraw() {
+        RecordingGraphics g = new RecordingGraphics(true);
+        linearQuadraticsurface.draw(g, 20, 30);
+        linearQuadraticsurface.drawForwardDifferenced(g, 20, 30);
+        assertEquals(40, g.shapes.size());
+        assertEquals(g.normals.size() / 2, 20 * 62);
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < 62; j++) {
+                assertArrayEquals(g.shapes.get(i).get(j), g.shapes.get(20 + i).get(j), 1e-3f);
+                assertArrayEquals(g.normals.get(62 * i + j), g.normals.get(20 * 62 + 62 * i + j), 1e-3f);
+            }
+        }
+    }
+
+    @Test
+    void precompiledEvaluationMatches() {
+        float[] ss = new float[50];
+        float[] ts = new float[50];
+        for (int i = 0; i < ss.length; i++) {
+            ss[i] = i * 0.1f;
+            ts[i] = 5 - i * 0.07f;
+        }
+        float[] expected = new float[3 * 50];
+        float[] actual = new float[3 * 50];
+        linearQuadraticsurface.evaluate(ss, ts, expected, 0, 3);
+        linearQuadraticsurface.setPrecompiled(true);
+        linearQuadraticsurface.evaluate(ss, ts, actual, 0, 3);
+        assertArrayEquals(expected, actual, 1e-4f);
+
+        linearQuadraticsurface.setPoint(1, 2, new PVector(1, 2, 3));
+        float[] changed = linearQuadraticsurface.evaluate(1, 2.5f).array();
+        linearQuadraticsurface.setPrecompiled(false);
+        assertArrayEquals(linearQuadraticsurface.evaluate(1, 2.5f).array(), changed, 1e-5f);
+    }
+
+    @Test
+    void gridEvaluation() {
+        float[] ss = {0, 1, 3, 5};
+        float[] ts = {0, 1, 2.5f, 4, 5};
+        float[] out = new float[3 * ss.length * ts.length];
+        linearQuadraticsurface.evaluateGrid(ss, ts, out, 0, 3);
+        for (int i = 0; i < ss.length; i++) {
+            for (int j = 0; j < ts.length; j++) {
+                float[] actual = new float[3];
+                System.arraycopy(out, 3 * (i * ts.length + j), actual, 0, 3);
+                assertArrayEquals(linearQuadraticsurface.evaluate(ss[i], ts[j]).array(), actual, 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    void uniformGridEvaluation() {
+        float[] out = new float[4 * 6 * 11];
+        linearQuadraticsurface.evaluateGrid(5, 10, out, 0, 4);
+        assertArrayEquals(linearQuadraticsurface.evaluate(3, 2.5f).array(), new float[] {out[4 * 38], out[4 * 38 + 1], out[4 * 38 + 2]}, 1e-5f);
+    }
+
+    @Test
+    void retainedShapeIsCached() {
+        RecordingGraphics g = new RecordingGraphics(true);
+        PShape shape = linearQuadraticsurface.getShape(g, 5, 10);
+        assertEquals(5, shape.getChildCount());
+        assertEquals(22, shape.getChild(0).getVertexCount());
+        assertSame(shape, linearQuadraticsurface.getShape(g, 5, 10));
+        assertNotSame(shape, linearQuadraticsurface.getShape(g, 5, 5));
+
+    }
+
+    @Test
+    void retainedShapeFollowsChanges() {
+        RecordingGraphics g = new RecordingGraphics(true);
+        PShape shape = linearQuadraticsurface.getShape(g, 5, 10);
+        linearQuadraticsurface.setPoint(1, 2, new PVector(1, 2, 3));
+        assertSame(shape, linearQuadraticsurface.getShape(g, 5, 10));
+
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j <= 10; j++) {
+                PVector first = shape.getChild(i).getVertex(2 * j);
+                PVector second = shape.getChild(i).getVertex(2 * j + 1);
+                assertArrayEquals(linearQuadraticsurface.evaluate(i, j / 2f).array(), first.array(), 1e-5f);
+                assertArrayEquals(linearQuadraticsurface.evaluate(i + 1, j / 2f).array(), second.array(), 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    void incrementalTessellation() {
+        PVector[][] points = new PVector[12][10];
+        for (int i = 0; i < points.length; i++) {
+            for (int j = 0; j < points[i].length; j++) {
+                points[i][j] = new PVector(i, j, (i + j) % 2);
+            }
+        }
+        NurbsSurface surface = new NurbsSurface(points, 3, 2);
+        RecordingGraphics g = new RecordingGraphics(true);
+        surface.draw(g, 30, 20);
+
+        points[4][6] = new PVector(4, 6, 3);
+        surface.setPoint(4, 6, points[4][6]);
+        surface.setPoint(5, 2, points[5][2]);
+        surface.draw(g, 30, 20);
+
+        NurbsSurface expected = new NurbsSurface(points, 3, 2);
+        expected.draw(g, 30, 20);
+
+        for (int i = 0; i < 30; i++) {
+            for (int j = 0; j < 42; j++) {
+                assertArrayEquals(g.shapes.get(60 + i).get(j), g.shapes.get(30 + i).get(j), 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    void adaptiveTessellationOfAFlatSurface() {
+        PVector[][] points = new PVector[6][5];
+        for (int i = 0; i < points.length; i++) {
+            for (int j = 0; j < points[i].length; j++) {
+                points[i][j] = new PVector(i, j, 0);
+            }
+        }
+        NurbsSurface flat = new NurbsSurface(points, 2, 2);
+
+        RecordingGraphics g = new RecordingGraphics(true);
+        flat.drawAdaptive(g, 0.01f);
+        // Every knot span is split into degree pieces and nothing more: 4 spans of 2 pieces and 3 spans of 2 pieces.
+        assertEquals(8, g.shapes.size());
+        assertEquals(14, g.shapes.get(0).size());
+    }
+
+    @Test
+    void adaptiveTessellationRefinesCurvedParts() {
+        RecordingGraphics g = new RecordingGraphics(true);
+        linearQuadraticsurface.drawAdaptive(g, 0.1f);
+        int coarse = g.shapes.get(0).size();
+        linearQuadraticsurface.drawAdaptive(g, 0.001f);
+        assertTrue(coarse < g.shapes.get(g.shapes.size() - 1).size());
+    }
+
+    @Test
+    void parallelGridEvaluationMatchesSerial() {
+        float[] serial = new float[3 * 101 * 201];
+        linearQuadraticsurface.evaluateGrid(100, 200, serial, 0, 3);
+
+        float[] parallel = new float[serial.length];
+        linearQuadraticsurface.setParallelism(4);
+        linearQuadraticsurface.evaluateGrid(100, 200, parallel, 0, 3);
+        assertArrayEquals(serial, parallel, 0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            float[] ownExecutor = new float[serial.length];
+            linearQuadraticsurface.setExecutor(executor);
+            linearQuadraticsurface.setParallelism(7);
+            linearQuadraticsurface.evaluateGrid(100, 200, ownExecutor, 0, 3);
+            assertArrayEquals(serial, ownExecutor, 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void parallelGridEvaluationOnTheExecutorItself() throws Exception {
+        float[] serial = new float[3 * 101 * 201];
+        linearQuadraticsurface.evaluateGrid(100, 200, serial, 0, 3);
+
+        // The only thread of the executor can not wait for blocks that it has to evaluate itself.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            float[] nested = new float[serial.length];
+            linearQuadraticsurface.setExecutor(executor);
+            linearQuadraticsurface.setParallelism(4);
+            executor.submit(() -> linearQuadraticsurface.evaluateGrid(100, 200, nested, 0, 3)).get(10, TimeUnit.SECONDS);
+            assertArrayEquals(serial, nested, 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void boundingBoxesContainTheSurface() {
+        BoundingBox box = linearQuadraticsurface.getBoundingBox();
+        assertArrayEquals(new float[] {0, 0, 0}, box.getMin().array(), 1e-5f);
+        assertArrayEquals(new float[] {2, 3, 1}, box.getMax().array(), 1e-5f);
+        for (int i = 0; i <= 10; i++) {
+            for (int j = 0; j <= 10; j++) {
+                float s = i / 2f;
+                float t = j / 2f;
+                PVector point = linearQuadraticsurface.evaluate(s, t);
+                assertTrue(box.contains(point));
+                assertTrue(linearQuadraticsurface.getSpanBoundingBox((s < 2) ? 1 : 2, (t < 2) ? 2 : 3).contains(point));
+            }
+        }
+
+        linearQuadraticsurface.setPoint(2, 3, new PVector(2, 3, 5));
+        assertEquals(5, linearQuadraticsurface.getBoundingBox().getMax().z, 1e-5f);
+        assertEquals(5, linearQuadraticsurface.getSpanBoundingBox(2, 3).getMax().z, 1e-5f);
+        assertEquals(1, linearQuadraticsurface.getSpanBoundingBox(1, 3).getMax().z, 1e-5f);
+        assertThrows(IllegalArgumentException.class, () -> linearQuadraticsurface.getSpanBoundingBox(4, 0));
+    }
+
+    /**
+     * Gives the frustum of an orthographic camera that sees the cube from {@code min} to {@code max}.
+     */
+    private static Frustum cube(float min, float max) {
+        PMatrix3D m = new PMatrix3D();
+        m.m00 = m.m11 = m.m22 = 2 / (max - min);
+        m.m03 = m.m13 = m.m23 = -(max + min) / (max - min);
+        return new Frustum(m);
+    }
+
+    @Test
+    void culledDrawingSkipsInvisibleSurfaces() {
+        ArrayVertexSink sink = new ArrayVertexSink();
+        linearQuadraticsurface.draw(sink, 8, 8, cube(10, 20));
+        assertEquals(0, sink.getVertexCount());
+        assertTrue(cube(10, 20).intersects(new BoundingBox(5, 5, 5, 11, 11, 11)));
+        assertFalse(cube(10, 20).intersects(linearQuadraticsurface.getBoundingBox()));
+
+        ArrayVertexSink expected = new ArrayVertexSink();
+        linearQuadraticsurface.draw(expected, 8, 8);
+        linearQuadraticsurface.draw(sink, 8, 8, cube(-10, 10));
+        assertArrayEquals(Arrays.copyOf(expected.getPositions(), 3 * expected.getVertexCount()), Arrays.copyOf(sink.getPositions(), 3 * sink.getVertexCount()), 0);
+    }
+
+    @Test
+    void culledDrawingOnlyTessellatesVisibleSpans() {
+        PVector[][] points = new PVector[12][10];
+        for (int i = 0; i < points.length; i++) {
+            for (int j = 0; j < points[i].length; j++) {
+                points[i][j] = new PVector(i, j, (i + j) % 2);
+            }
+        }
+        NurbsSurface surface = new NurbsSurface(points, 3, 2);
+        ArrayVertexSink full = new ArrayVertexSink();
+        surface.draw(full, 30, 20);
+
+        NurbsSurface culled = new NurbsSurface(points, 3, 2);
+        ArrayVertexSink sink = new ArrayVertexSink();
+        culled.draw(sink, 30, 20, cube(-0.5f, 2.5f));
+        assertTrue(0 < sink.getVertexCount() && sink.getVertexCount() < full.getVertexCount() / 4);
+        // Every drawn vertex is one of the full drawing, and every visible one is drawn.
+        Set<List<Float>> all = positions(full);
+        Set<List<Float>> drawn = positions(sink);
+        assertTrue(all.containsAll(drawn));
+        for (List<Float> vertex : all) {
+            if (vertex.get(0) <= 2.5f && vertex.get(1) <= 2.5f) {
+                assertTrue(drawn.contains(vertex));
+            }
+        }
+
+        // Changes to invisible parts are picked up once they are drawn.
+        points[8][6] = new PVector(8, 6, 3);
+        culled.setPoint(8, 6, points[8][6]);
+        culled.setPoint(1, 1, points[1][1]);
+        culled.draw(sink, 30, 20, cube(-0.5f, 2.5f));
+        sink.clear();
+        culled.draw(sink, 30, 20);
+        full.clear();
+        new NurbsSurface(points, 3, 2).draw(full, 30, 20);
+        assertArrayEquals(Arrays.copyOf(full.getPositions(), 3 * full.getVertexCount()), Arrays.copyOf(sink.getPositions(), 3 * sink.getVertexCount()), 1e-5f);
+    }
+
+    private static Set<List<Float>> positions(ArrayVertexSink sink) {
+        Set<List<Float>> positions = new HashSet<>();
+        float[] array = sink.getPositions();
+        for (int i = 0; i < sink.getVertexCount(); i++) {
+            positions.add(List.of(array[3 * i], array[3 * i + 1], array[3 * i + 2]));
+        }
+        return positions;
+    }
+
+    @Test
+    void levelOfDetailFollowsTheSizeOnScreen() {
+        RecordingGraphics g = new RecordingGraphics(true);
+        g.zoom = 10;
+        int[] near = linearQuadraticsurface.getLevelOfDetail(g, 0.5f);
+        linearQuadraticsurface.drawWithLevelOfDetail(g, 0.5f);
+        assertEquals(near[0], g.shapes.size());
+        assertEquals(2 * (near[1] + 1), g.shapes.get(0).size());
+
+        // Small changes keep the numbers of steps, large ones do not.
+        g.zoom = 9;
+        assertArrayEquals(near, linearQuadraticsurface.getLevelOfDetail(g, 0.5f));
+        g.zoom = 1;
+        int[] far = linearQuadraticsurface.getLevelOfDetail(g, 0.5f);
+        assertTrue(far[0] < near[0]);
+        assertTrue(far[1] < near[1]);
+    }
+
+    @Test
+    void snapshotsCanBeEvaluatedWhileTheSurfaceChanges() throws Exception {
+        PVector[][] points = new PVector[4][4];
+        for (int i = 0; i < points.length; i++) {
+            for (int j = 0; j < points[i].length; j++) {
+                points[i][j] = new PVector(i, j, 0);
+            }
+        }
+        NurbsSurface surface = new NurbsSurface(points, 2, 2);
+
+        // Every version lifts the whole surface to the height of its version, so a consistent snapshot is flat.
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> reader = executor.submit(() -> {
+                float[] ss = {0, 0.3f, 0.7f, 1};
+                float[] out = new float[3 * ss.length];
+                for (int k = 0; k < 2000; k++) {
+                    SurfaceSnapshot snapshot = surface.getSnapshot();
+                    snapshot.evaluate(ss, ss, out, 0, 3);
+                    for (int i = 0; i < ss.length; i++) {
+                        assertEquals(snapshot.getVersion() / points.length / points.length, out[3 * i + 2], 1e-3f);
+                    }
+                }
+            });
+            for (int version = 1; version <= 2000; version++) {
+                for (int i = 0; i < points.length; i++) {
+                    for (int j = 0; j < points[i].length; j++) {
+                        surface.setPoint(i, j, new PVector(i, j, version));
+                    }
+                }
+                surface.publish();
+            }
+            reader.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2000, surface.getSnapshot().evaluate(0.5f, 0.5f).z, 1e-3f);
+    }
+
+    @Test
+    void degreeChangesAndKnotRemovalKeepTheSurface() {
+        NurbsSurface refined = linearQuadraticsurface.insertSKnot(1).insertTKnot(3);
+        NurbsSurface[] surfaces = {
+                linearQuadraticsurface.elevateSDegree(),
+                linearQuadraticsurface.elevateTDegree(),
+                linearQuadraticsurface.elevateTDegree().reduceTDegree(1e-3f),
+                linearQuadraticsurface.elevateSDegree().reduceSDegree(1e-3f),
+                refined.removeKnots(1e-4f)
+        };
+        for (NurbsSurface surface : surfaces) {
+            for (float s = 0; s <= 5; s += 0.5f) {
+                for (float t = 0; t <= 5; t += 0.5f) {
+                    assertArrayEquals(linearQuadraticsurface.evaluate(s, t).array(), surface.evaluate(s, t).array(), 1e-3f);
+                }
+            }
+        }
+        assertEquals(3, surfaces[4].getSnapshot().getSCount());
+        assertEquals(4, surfaces[4].getSnapshot().getTCount());
+        assertNull(linearQuadraticsurface.reduceTDegree(1e-3f));
+        assertThrows(IllegalArgumentException.class, () -> linearQuadraticsurface.reduceSDegree(1));
+    }
+
+    @Test
+    void unclampedKnotVectorsStopAtTheLastPoint() {
+        PVector[][] points = new PVector[3][3];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                points[i][j] = new PVector(i, j, i * j);
+            }
+        }
+        float[] knotVector = {0, 1, 2, 3, 4, 5};
+        NurbsSurface unclamped = new NurbsSurface(points, new float[][] {{1, 1, 1}, {1, 2, 1}, {1, 1, 3}}, knotVector, knotVector);
+        // In the last spans, only point (2, 2) of the points that would be used exists.
+        assertArrayEquals(new float[] {2, 2, 4}, unclamped.evaluate(4.5f, 4.75f).array(), 1e-5f);
+        assertArrayEquals(new float[] {0, 0, 0}, unclamped.sDerivative(4.5f, 4.75f).array(), 1e-4f);
+        float[] grid = new float[3 * 11 * 11];
+        unclamped.evaluateGrid(10, 10, grid, 0, 3);
+        int index = 3 * (9 * 11 + 9);
+        assertArrayEquals(new float[] {2, 2, 4}, Arrays.copyOfRange(grid, index, index + 3), 1e-5f);
+        RecordingGraphics g = new RecordingGraphics(true);
+        unclamped.draw(g, 10, 10);
+        assertEquals(10, g.shapes.size());
+    }
+}
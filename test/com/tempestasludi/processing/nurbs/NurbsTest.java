@@ -169,4 +169,83 @@ class NurbsTest {
         multipleCubic(6, 4, new float[] {8/45f, 149/240f, 13/72f, 1/48f});
     }
 
-}
\ No newline at end of file
+
+    /**
+     * The allocation-free variant should give the same values, also when the buffers are reused.
+     */
+    @Test
+    public void reusedBuffers() {
+        float[] knots = new float[]{-1, -1, -1, -1, 1, 3, 3, 6, 7, 7, 7, 7};
+        float[] result = new float[4];
+        float[] scratch = new float[8];
+
+        Nurbs.calcBasisFunctionValues(4, 2, 3, knots, result, scratch);
+        assertArrayEquals(new float[] {1/32f, 1/4f, -23/20f + 99/40f - 69/80f + 33/160f, 1/20f}, result, (float) 1e-5);
+
+        Nurbs.calcBasisFunctionValues(6, 4, 3, knots, result, scratch);
+        assertArrayEquals(new float[] {8/45f, 149/240f, 13/72f, 1/48f}, result, (float) 1e-5);
+    }
+
+    /**
+     * The derivatives of the quadratic basis functions (1 - t)^2, 2t(1 - t) and t^2.
+     */
+    @Test
+    public void quadraticDerivatives() {
+        float[] values = new float[3];
+        float[] derivatives = new float[3];
+        Nurbs.calcBasisFunctionDerivatives(2, 0.3f, 2, new float[]{0, 0, 0, 1, 1, 1}, values, derivatives, new float[4]);
+        assertArrayEquals(new float[]{.49f, .42f, .09f}, values, (float) 1e-5);
+        assertArrayEquals(new float[]{-1.4f, .8f, .6f}, derivatives, (float) 1e-5);
+    }
+
+    /**
+     * The derivatives of the cubic basis functions should match finite differences of their values.
+     */
+    @Test
+    public void cubicDerivatives() {
+        float[] knots = new float[]{-1, -1, -1, -1, 1, 3, 3, 6, 7, 7, 7, 7};
+        float[] values = new float[4];
+        float[] derivatives = new float[4];
+        float h = 1e-2f;
+        Nurbs.calcBasisFunctionDerivatives(6, 4, 3, knots, values, derivatives, new float[6]);
+        float[] before = Nurbs.calcBasisFunctionValues(6, 4 - h, 3, knots);
+        float[] after = Nurbs.calcBasisFunctionValues(6, 4 + h, 3, knots);
+        assertArrayEquals(new float[] {8/45f, 149/240f, 13/72f, 1/48f}, values, (float) 1e-5);
+        for (int i = 0; i < 4; i++) {
+            assertEquals((after[i] - before[i]) / (2 * h), derivatives[i], 1e-3);
+        }
+    }
+
+    /**
+     * Knot span lookup, with repeated knots in the knot vector.
+     */
+    private static final float[] spanKnots = new float[]{-1, -1, -1, -1, 1, 3, 3, 6, 7, 7, 7, 7};
+
+    @Test
+    public void findSpanStart() {
+        assertEquals(3, Nurbs.findSpan(-1, spanKnots, -1));
+        assertEquals(3, Nurbs.findSpan(-5, spanKnots, -1));
+    }
+
+    @Test
+    public void findSpanRepeatedKnot() {
+        assertEquals(6, Nurbs.findSpan(3, spanKnots, -1));
+        assertEquals(4, Nurbs.findSpan(2.9f, spanKnots, -1));
+    }
+
+    @Test
+    public void findSpanEnd() {
+        assertEquals(7, Nurbs.findSpan(7, spanKnots, -1));
+        assertEquals(7, Nurbs.findSpan(10, spanKnots, 3));
+    }
+
+    @Test
+    public void findSpanWithHint() {
+        for (int hint = -1; hint < spanKnots.length; hint++) {
+            assertEquals(3, Nurbs.findSpan(0, spanKnots, hint));
+            assertEquals(6, Nurbs.findSpan(5, spanKnots, hint));
+            assertEquals(7, Nurbs.findSpan(6.5f, spanKnots, hint));
+        }
+    }
+
+}
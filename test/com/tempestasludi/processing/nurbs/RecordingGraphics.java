@@ -0,0 +1,181 @@
+package com.tempestasludi.processing.nurbs;
+
+import processing.core.PGraphics;
+import processing.core.PShape;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A graphics context that only records the shapes that are drawn to it. Its screen shows the x and y coordinates
+ * multiplied by {@code zoom}. Like the renderers of Processing, a 2D context refuses vertices with a z coordinate.
+ */
+class RecordingGraphics extends PGraphics {
+    final List<Integer> kinds = new ArrayList<>();
+    final List<List<float[]>> shapes = new ArrayList<>();
+    final List<PShape> replayed = new ArrayList<>();
+    final List<float[]> normals = new ArrayList<>();
+    final List<float[]> textureCoordinates = new ArrayList<>();
+    final List<Integer> strokes = new ArrayList<>();
+    float zoom = 1;
+
+    private List<float[]> current;
+    private final boolean threeD;
+
+    /**
+     * Creates a 2D context.
+     */
+    RecordingGraphics() {
+        this(false);
+    }
+
+    /**
+     * Creates a 2D or a 3D context.
+     *
+     * @param threeD Whether the context is 3D
+     */
+    RecordingGraphics(boolean threeD) {
+        this.threeD = threeD;
+    }
+
+    @Override
+    public boolean is3D() {
+        return threeD;
+    }
+
+    @Override
+    public void beginShape(int kind) {
+        kinds.add(kind);
+        current = new ArrayList<>();
+    }
+
+    @Override
+    public void stroke(int color) {
+        strokes.add(color);
+    }
+
+    @Override
+    public void normal(float nx, float ny, float nz) {
+        normals.add(new float[] {nx, ny, nz});
+    }
+
+    @Override
+    public void vertex(float x, float y) {
+        current.add(new float[] {x, y, 0});
+    }
+
+    @Override
+    public void vertex(float x, float y, float u, float v) {
+        current.add(new float[] {x, y, 0});
+        textureCoordinates.add(new float[] {u, v});
+    }
+
+    @Override
+    public void vertex(float x, float y, float z) {
+        check3D();
+        current.add(new float[] {x, y, z});
+    }
+
+    @Override
+    public void vertex(float x, float y, float z, float u, float v) {
+        check3D();
+        current.add(new float[] {x, y, z});
+        textureCoordinates.add(new float[] {u, v});
+    }
+
+    private void check3D() {
+        if (!threeD) {
+            throw new IllegalStateException("A 2D renderer does not draw vertices with a z coordinate.");
+        }
+    }
+
+    @Override
+    public void vertex(float[] v) {
+        current.add(new float[] {v[0], v[1], v[2]});
+    }
+
+    @Override
+    public void endShape(int mode) {
+        shapes.add(current);
+        current = null;
+    }
+
+    @Override
+    public PShape createShape() {
+        return new RecordingShape(PShape.GEOMETRY);
+    }
+
+    @Override
+    public PShape createShape(int type) {
+        return new RecordingShape(type);
+    }
+
+    @Override
+    public void shape(PShape shape) {
+        replayed.add(shape);
+    }
+
+    @Override
+    public float screenX(float x, float y) {
+        return zoom * x;
+    }
+
+    @Override
+    public float screenY(float x, float y) {
+        return zoom * y;
+    }
+
+    @Override
+    public float screenX(float x, float y, float z) {
+        return zoom * x;
+    }
+
+    @Override
+    public float screenY(float x, float y, float z) {
+        return zoom * y;
+    }
+
+    /**
+     * A shape that keeps all fields of its vertices like the shapes of the 3D renderers, instead of only the x and y
+     * coordinates like {@link PShape} itself, so that they can be changed in place.
+     */
+    static class RecordingShape extends PShape {
+        final List<Integer> strokes = new ArrayList<>();
+
+        private float normalX, normalY, normalZ = 1;
+
+        RecordingShape(int family) {
+            super(family);
+        }
+
+        @Override
+        public void stroke(int color) {
+            strokes.add(color);
+        }
+
+        @Override
+        public void normal(float nx, float ny, float nz) {
+            normalX = nx;
+            normalY = ny;
+            normalZ = nz;
+        }
+
+        @Override
+        public void vertex(float x, float y) {
+            vertex(x, y, 0);
+        }
+
+        @Override
+        public void vertex(float x, float y, float z) {
+            super.vertex(x, y);
+            float[] vertex = new float[PGraphics.VERTEX_FIELD_COUNT];
+            vertex[X] = x;
+            vertex[Y] = y;
+            vertex[Z] = z;
+            vertex[NX] = normalX;
+            vertex[NY] = normalY;
+            vertex[NZ] = normalZ;
+            vertices[vertexCount - 1] = vertex;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.tempestasludi.processing.nurbs;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SamplingPlanTest {
+
+    @Test
+    void equalKnotVectorsShareAPlan() {
+        SamplingPlan plan = SamplingPlan.get(new float[] {0, 0, 0, 2, 5, 5, 5}, 2, 10);
+        assertSame(plan, SamplingPlan.get(new float[] {0, 0, 0, 2, 5, 5, 5}, 2, 10));
+        assertNotSame(plan, SamplingPlan.get(new float[] {0, 0, 0, 2, 5, 5, 5}, 2, 11));
+    }
+
+    @Test
+    void samplesCoverTheKnotVector() {
+        SamplingPlan plan = SamplingPlan.get(new float[] {0, 0, 0, 2, 5, 5, 5}, 2, 5);
+        assertEquals(6, plan.size());
+        assertArrayEquals(new float[] {0, 1, 2, 3, 4, 5}, plan.parameters, 1e-5f);
+        assertArrayEquals(new int[] {2, 2, 3, 3, 3, 3}, plan.spans);
+    }
+
+    @Test
+    void basisValuesMatchDirectCalculation() {
+        float[] knotVector = {-1, -1, -1, -1, 1, 3, 3, 6, 7, 7, 7, 7};
+        SamplingPlan plan = SamplingPlan.get(knotVector, 3, 16);
+        for (int i = 0; i < plan.size(); i++) {
+            float[] expected = Nurbs.calcBasisFunctionValues(plan.spans[i], plan.parameters[i], 3, knotVector);
+            float[] actual = new float[4];
+            System.arraycopy(plan.basisValues, 4 * i, actual, 0, 4);
+            assertArrayEquals(expected, actual, 1e-6f);
+        }
+    }
+
+    @Test
+    void nonpositiveSteps() {
+        assertThrows(IllegalArgumentException.class, () -> SamplingPlan.get(new float[] {0, 0, 1, 1}, 1, 0));
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.tempestasludi.processing.nurbs;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import processing.core.PConstants;
+import processing.core.PImage;
+import processing.core.PVector;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VertexSinkTest {
+
+    NurbsCurve curve;
+    NurbsSurface surface;
+
+    @BeforeEach
+    void setup() {
+        curve = new NurbsCurve(
+                new PVector[]{new PVector(0, 0), new PVector(1, 1), new PVector(2, 0), new PVector(3, 1)},
+                new float[] {1, 2, 3, 4},
+                new float[] {0, 0, 0, 2, 5, 5, 5}
+        );
+        surface = new NurbsSurface(
+                new PVector[][] {
+                        {new PVector(0, 0, 0), new PVector(0, 1, 0), new PVector(0, 2, 1), new PVector(0, 3, 1)},
+                        {new PVector(1, 0, 0), new PVector(1, 1, 1), new PVector(1, 2, 0), new PVector(1, 3, 1)},
+                        {new PVector(2, 0, 0), new PVector(2, 1, 0), new PVector(2, 2, 1), new PVector(2, 3, 1)},
+                },
+                new float[][] {
+                        {1, 1, 1, 1},
+                        {1, 2, 2, 1},
+                        {1, 1, 1, 1}
+                },
+                new float[] {0, 0, 2, 5, 5},
+                new float[] {0, 0, 0, 2, 5, 5, 5}
+        );
+    }
+
+    @Test
+    void curveToArrays() {
+        ArrayVertexSink sink = new ArrayVertexSink(4);
+        curve.draw(sink, 10);
+        RecordingGraphics g = new RecordingGraphics();
+        curve.draw(g, 10);
+
+        assertEquals(1, sink.getPrimitiveCount());
+        assertEquals(PConstants.LINE_STRIP, sink.getPrimitiveKind(0));
+        assertEquals(0, sink.getPrimitiveStart(0));
+        List<float[]> expected = g.shapes.get(0);
+        assertEquals(expected.size(), sink.getVertexCount());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), Arrays.copyOfRange(sink.getPositions(), 3 * i, 3 * i + 3), 1e-5f);
+        }
+    }
+
+    @Test
+    void surfaceToArrays() {
+        ArrayVertexSink sink = new ArrayVertexSink();
+        surface.draw(sink, 5, 10);
+
+        assertEquals(5, sink.getPrimitiveCount());
+        assertEquals(5 * 22, sink.getVertexCount());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(PConstants.TRIANGLE_STRIP, sink.getPrimitiveKind(i));
+            assertEquals(22 * i, sink.getPrimitiveStart(i));
+            for (int j = 0; j <= 10; j++) {
+                int index = 22 * i + 2 * j + 1;
+                float s = i + 1;
+                float t = j / 2f;
+                assertArrayEquals(surface.evaluate(s, t).array(), Arrays.copyOfRange(sink.getPositions(), 3 * index, 3 * index + 3), 1e-4f);
+                assertArrayEquals(surface.normal(s, t).array(), Arrays.copyOfRange(sink.getNormals(), 3 * index, 3 * index + 3), 1e-4f);
+                assertArrayEquals(new float[] {s / 5, t / 5}, Arrays.copyOfRange(sink.getTextureCoordinates(), 2 * index, 2 * index + 2), 1e-5f);
+            }
+        }
+
+        sink.clear();
+        assertEquals(0, sink.getVertexCount());
+        assertEquals(0, sink.getPrimitiveCount());
+    }
+
+    @Test
+    void textureCoordinatesInImageMode() {
+        RecordingGraphics g = new RecordingGraphics();
+        g.textureMode = PConstants.IMAGE;
+        surface.draw(new GraphicsVertexSink(g, new PImage(200, 100)), 5);
+        assertEquals(5 * 12, g.textureCoordinates.size());
+        assertArrayEquals(new float[] {0, 0}, g.textureCoordinates.get(0), 1e-5f);
+        assertArrayEquals(new float[] {40, 0}, g.textureCoordinates.get(1), 1e-5f);
+        assertArrayEquals(new float[] {200, 100}, g.textureCoordinates.get(5 * 12 - 1), 1e-4f);
+    }
+
+    @Test
+    void surfaceToBuffer() {
+        ArrayVertexSink arrays = new ArrayVertexSink();
+        surface.draw(arrays, 4);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(4 * 8 * arrays.getVertexCount()).order(ByteOrder.nativeOrder());
+        BufferVertexSink sink = new BufferVertexSink(bytes, true, true);
+        surface.draw(sink, 4);
+
+        assertEquals(8, sink.getStride());
+        assertEquals(arrays.getVertexCount(), sink.getVertexCount());
+        assertEquals(4, sink.getPrimitiveCount());
+        FloatBuffer floats = bytes.asFloatBuffer();
+        for (int i = 0; i < sink.getVertexCount(); i++) {
+            float[] vertex = new float[8];
+            floats.get(8 * i, vertex);
+            assertArrayEquals(Arrays.copyOfRange(arrays.getPositions(), 3 * i, 3 * i + 3), Arrays.copyOfRange(vertex, 0, 3), 1e-5f);
+            assertArrayEquals(Arrays.copyOfRange(arrays.getNormals(), 3 * i, 3 * i + 3), Arrays.copyOfRange(vertex, 3, 6), 1e-5f);
+            assertArrayEquals(Arrays.copyOfRange(arrays.getTextureCoordinates(), 2 * i, 2 * i + 2), Arrays.copyOfRange(vertex, 6, 8), 1e-5f);
+        }
+    }
+
+    @Test
+    void curveToBufferWithoutNormals() {
+        FloatBuffer buffer = FloatBuffer.allocate(100);
+        buffer.position(10);
+        BufferVertexSink sink = new BufferVertexSink(buffer, false, false);
+        curve.draw(sink, 5);
+        assertEquals(3, sink.getStride());
+        assertEquals(6, sink.getVertexCount());
+        assertEquals(10 + 18, buffer.position());
+        assertArrayEquals(curve.evaluate(5).array(), Arrays.copyOfRange(buffer.array(), 25, 28), 1e-5f);
+
+        sink.clear();
+        assertEquals(10, buffer.position());
+    }
+
+    @Test
+    void bufferDoesNotGrow() {
+        BufferVertexSink sink = new BufferVertexSink(FloatBuffer.allocate(9), false, false);
+        assertThrows(BufferOverflowException.class, () -> curve.draw(sink, 5));
+    }
+}